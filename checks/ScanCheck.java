@@ -0,0 +1,99 @@
+package code;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+// Scans a generated source of several chunks with scanTokensParallel and with
+// scanTokens, and checks that both give the same tokens, lines, symbol IDs
+// and errors, in the same order. Every chunk holds errors, and so do the
+// lines around every chunk boundary.
+class ScanCheck {
+    private static final String[] LINES = {
+        "INT count = 12, total = 0",
+        "FLOAT ratio = 2.5",
+        "CHAR letter = [z]",
+        "STRING name = \"chunk\" & count",
+        "WHILE (count > 0 AND total <= 100) # a comment",
+        "total = total + count * 2 - (count / 3) % 4",
+        "DISPLAY: name & $ & letter & NOT \"TRUE\"",
+    };
+    private static final String[] ERRORS = {
+        "INT x = 1 @ 2",
+        "STRING s = \"never closed",
+        "INT y = 12abc",
+        "INT z = 99999999999999999999",
+    };
+
+    public static void main(String[] args) {
+        StringBuilder source = new StringBuilder();
+        int line = 0;
+        int errors = 0;
+        while (source.length() < 5 * Scanner.CHUNK_SIZE) {
+            line++;
+            // Chunks end at the first line break a chunk size past their
+            // start, so they drift a little from the multiples of it.
+            int offset = source.length() % Scanner.CHUNK_SIZE;
+            boolean nearBoundary = source.length() > 1000 && (offset < 500 || offset > Scanner.CHUNK_SIZE - 500);
+            if (nearBoundary || line % 1500 == 0) {
+                source.append(ERRORS[errors++ % ERRORS.length]);
+            } else if (line % 11 == 0) {
+                // New names keep the symbol tables of the chunks apart.
+                source.append("INT v").append(line).append(" = v").append(line - 11);
+            } else {
+                source.append(LINES[line % LINES.length]);
+            }
+            source.append('\n');
+        }
+        String text = source.toString();
+
+        ByteArrayOutputStream sequentialErrors = new ByteArrayOutputStream();
+        TokenBuffer sequential = scan(sequentialErrors, () -> new Scanner(text, new SymbolTable()).scanTokens());
+        ByteArrayOutputStream parallelErrors = new ByteArrayOutputStream();
+        TokenBuffer parallel = scan(parallelErrors,
+                () -> new Scanner(text, new SymbolTable()).scanTokensParallel(ForkJoinPool.commonPool()));
+
+        int failures = 0;
+        if (sequential.size() != parallel.size()) {
+            System.out.println("FAIL " + sequential.size() + " tokens scanned in order, " + parallel.size()
+                    + " in parallel");
+            failures++;
+        }
+        for (int i = 0; i < Math.min(sequential.size(), parallel.size()) && failures < 10; i++) {
+            if (sequential.type(i) != parallel.type(i)
+                    || sequential.start(i) != parallel.start(i)
+                    || sequential.end(i) != parallel.end(i)
+                    || sequential.line(i) != parallel.line(i)
+                    || sequential.symbol(i) != parallel.symbol(i)
+                    || !sequential.lexeme(i).equals(parallel.lexeme(i))
+                    || !Objects.equals(sequential.literal(i), parallel.literal(i))) {
+                System.out.println("FAIL token " + i + ": " + sequential.get(i) + " on line " + sequential.line(i)
+                        + " in order, " + parallel.get(i) + " on line " + parallel.line(i) + " in parallel");
+                failures++;
+            }
+        }
+        if (!sequentialErrors.toString().equals(parallelErrors.toString())) {
+            System.out.println("FAIL errors in order:\n" + sequentialErrors + "errors in parallel:\n"
+                    + parallelErrors);
+            failures++;
+        }
+        if (sequentialErrors.toString().lines().count() != errors) {
+            System.out.println("FAIL expected " + errors + " errors:\n" + sequentialErrors);
+            failures++;
+        }
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // Runs a scan with errors going to 'errors'.
+    private static TokenBuffer scan(ByteArrayOutputStream errors, Supplier<TokenBuffer> scan) {
+        PrintStream err = System.err;
+        System.setErr(new PrintStream(errors));
+        try {
+            return scan.get();
+        } finally {
+            System.setErr(err);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package code;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+// Feeds a script to Watcher.update one edit at a time and compares each result
+// with a full parse of the same text, token lines included. Also checks how
+// many top level statements were reused as they were, so an edit that quietly
+// falls back to a full parse fails too.
+class WatcherCheck {
+    private static final String SCRIPT = String.join("\n",
+            "# Edited one step at a time.",
+            "FN INT twice(INT x)",
+            "BEGIN FN",
+            "RETURN x * 2",
+            "END FN",
+            "",
+            "FN INT add(INT a, INT b)",
+            "BEGIN FN",
+            "RETURN a + b",
+            "END FN",
+            "",
+            "BEGIN CODE",
+            "INT n = 3",
+            "INT total = 0",
+            "# count down",
+            "WHILE (n > 0)",
+            "BEGIN WHILE",
+            "total = total + twice(n)",
+            "n = n - 1",
+            "END WHILE",
+            "DISPLAY: total",
+            "DISPLAY: add(total, 1)",
+            "END CODE",
+            "");
+
+    private static final Watcher watcher = new Watcher(Paths.get("watched.code"));
+    private static String text = SCRIPT;
+    private static List<Stmt> last = null;
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        edit("first run", SCRIPT, 0);
+        // A line inserted into the first FN. Only it is parsed again and
+        // everything below moves down a line.
+        edit("line insertion", text.replace("RETURN x * 2\n", "INT y = x\nRETURN y * 2\n"), 6);
+        edit("comment between items", text.replace("# count down", "# count down to zero"), 7);
+        edit("comment lines added", text.replace("\nBEGIN CODE\n", "\n# main\n# program\nBEGIN CODE\n"), 7);
+        edit("comment inside an item", text.replace("n = n - 1\n", "n = n - 1 # step\n"), 7);
+        edit("blank line removed", text.replace("END FN\n\nFN INT add", "END FN\nFN INT add"), 7);
+        edit("statement changed", text.replace("DISPLAY: total\n", "DISPLAY: total + 1\n"), 6);
+        edit("line removed", text.replace("INT y = x\nRETURN y * 2\n", "RETURN x * 2\n"), 6);
+        // An edit that breaks parsing, and the fix, which needs a full parse
+        // since nothing is kept from a version with errors.
+        edit("broken", text.replace("RETURN a + b", "RETURN a +"), -1);
+        edit("fixed", text.replace("RETURN a +", "RETURN a + b"), 0);
+        edit("after the fix", text.replace("DISPLAY: total + 1\n", "DISPLAY: total\n\n"), 6);
+        // Edits that cannot stay inside one item parse in full.
+        edit("two items", text.replace("INT n = 3\nINT total = 0", "INT n = 4\nINT total = 1"), 0);
+        edit("new statement", text.replace("DISPLAY: total\n", "DISPLAY: total\nDISPLAY: n\n"), 0);
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // Applies an edit and compares the result with a full parse. 'reused' is
+    // how many statements must be the same objects as before, or -1 when the
+    // edit should not parse.
+    private static void edit(String name, String next, int reused) {
+        if (next.equals(text) && last != null) {
+            fail(name, "the edit did not change the script");
+        }
+        text = next;
+        Code.hadError = false;
+        List<Stmt> statements = quietly(() -> watcher.update(next));
+        boolean parsed = statements != null && !Code.hadError;
+
+        Code.hadError = false;
+        List<Stmt> expected = quietly(() -> {
+            try {
+                return new Parser(new Scanner(next, new SymbolTable()).scanTokens()).parse();
+            } catch (Parser.ParseError error) {
+                return null;
+            }
+        });
+        boolean expectedParsed = expected != null && !Code.hadError;
+
+        if (reused < 0) {
+            if (parsed || expectedParsed) {
+                fail(name, "parsed, but should not have");
+            }
+            last = null;
+            return;
+        }
+        if (!parsed || !expectedParsed) {
+            fail(name, "did not parse");
+            last = null;
+            return;
+        }
+
+        byte[] source = next.getBytes(StandardCharsets.UTF_8);
+        if (!Arrays.equals(Codec.encode(statements, source, "watched.code"),
+                Codec.encode(expected, source, "watched.code"))) {
+            fail(name, "differs from a full parse");
+        }
+        int same = 0;
+        for (Stmt statement : statements) {
+            if (last != null && last.contains(statement)) {
+                same++;
+            }
+        }
+        if (same != reused) {
+            fail(name, "reused " + same + " statements, expected " + reused);
+        }
+        last = statements;
+    }
+
+    private static <T> T quietly(Supplier<T> work) {
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        PrintStream none = new PrintStream(OutputStream.nullOutputStream());
+        System.setOut(none);
+        System.setErr(none);
+        try {
+            return work.get();
+        } finally {
+            System.setOut(out);
+            System.setErr(err);
+        }
+    }
+
+    private static void fail(String name, String message) {
+        System.out.println("FAIL " + name + ": " + message);
+        failures++;
+    }
+}
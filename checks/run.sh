@@ -0,0 +1,58 @@
+#!/bin/sh
+# Runs every check program on every engine and compares what it prints with
+# the .out file beside it, round trips the programs through .codec files, then
+# runs the checks written in Java, which exit non-zero on failure. Takes the
+# directory the classes were compiled to.
+classes=${1:-bin}
+dir=$(dirname "$0")
+status=0
+for program in "$dir"/*.code; do
+  for engine in "" --records --closures --vm --jvm --tiered "--tiered --tier-calls=1 --tier-loops=1"; do
+    if ! java -cp "$classes" code.Code $engine "$program" 2>&1 | diff -q "${program%.code}.out" - > /dev/null; then
+      echo "FAIL $program [$engine]"
+      status=1
+    fi
+  done
+done
+
+# Every program that parses is saved with --emit, and running the .codec file
+# prints what running the program does, less the line the Parser prints. Once
+# the program is edited, the .codec file is out of date and runs the program.
+work=$(mktemp -d)
+for program in "$dir"/*.code; do
+  copy="$work/$(basename "$program")"
+  codec="${copy%.code}.codec"
+  cp "$program" "$copy"
+  if ! java -cp "$classes" code.Code --emit "$copy" > /dev/null 2>&1; then
+    # Programs with errors are not saved.
+    [ ! -f "$codec" ] && grep -q '^\[Ln ' "${program%.code}.out" && continue
+    echo "FAIL $program [--emit]"
+    status=1
+    continue
+  fi
+  java -cp "$classes" code.Code "$copy" 2>&1 | sed '/^EOF  null$/d' > "$work/expected"
+  if ! java -cp "$classes" code.Code "$codec" 2>&1 | diff -q "$work/expected" - > /dev/null; then
+    echo "FAIL $program [.codec]"
+    status=1
+  fi
+  sed -i 's/^END CODE/DISPLAY: "edited"\nEND CODE/' "$copy"
+  { echo "$codec is out of date, running $copy instead."; java -cp "$classes" code.Code "$copy" 2>&1; } > "$work/expected"
+  if ! java -cp "$classes" code.Code "$codec" 2>&1 | diff -q "$work/expected" - > /dev/null; then
+    echo "FAIL $program [out of date .codec]"
+    status=1
+  fi
+done
+rm -rf "$work"
+
+# The Java checks are in the code package so they can reach package-private
+# classes like the Watcher.
+checks=$(mktemp -d)
+javac -nowarn -d "$checks" -cp "$classes" "$dir"/*.java || exit 1
+for check in "$dir"/*.java; do
+  if ! java -cp "$checks:$classes" code.$(basename "$check" .java); then
+    echo "FAIL $check"
+    status=1
+  fi
+done
+rm -rf "$checks"
+exit $status
@@ -0,0 +1,290 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Base class for passes that turn one tree into another. Each visit method
+// rewrites a node's children and returns the node itself when none of them
+// changed, or a copy that keeps what the Resolver and TypeChecker recorded on
+// it. Passes override the visits they care about.
+//
+// Statements are rewritten into a list so a pass can replace one statement
+// with several, or none. IF and WHILE bodies run in the enclosing environment,
+// so their statements can be moved up into it without changing any slot.
+class AstRewriter implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    List<Stmt> rewrite(List<Stmt> statements) {
+        if (statements == null || (statements instanceof LazyBody && !((LazyBody) statements).isParsed())) {
+            return statements;
+        }
+
+        List<Stmt> rewritten = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            rewrite(statement, rewritten);
+        }
+        return same(statements, rewritten) ? statements : rewritten;
+    }
+
+    void rewrite(Stmt statement, List<Stmt> out) {
+        out.add(statement == null ? null : statement.accept(this));
+    }
+
+    Expr rewrite(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    // Whether evaluating an expression may call a FN.
+    static boolean containsCall(Expr expr) {
+        if (expr instanceof Expr.Call) {
+            return true;
+        } else if (expr instanceof Expr.Binary) {
+            return containsCall(((Expr.Binary) expr).left) || containsCall(((Expr.Binary) expr).right);
+        } else if (expr instanceof Expr.Logical) {
+            return containsCall(((Expr.Logical) expr).left) || containsCall(((Expr.Logical) expr).right);
+        } else if (expr instanceof Expr.Unary) {
+            return containsCall(((Expr.Unary) expr).right);
+        } else if (expr instanceof Expr.Grouping) {
+            return containsCall(((Expr.Grouping) expr).expression);
+        } else if (expr instanceof Expr.Assign) {
+            return containsCall(((Expr.Assign) expr).value);
+        }
+        return false;
+    }
+
+    private static <T> boolean same(List<T> before, List<T> after) {
+        if (before.size() != after.size()) {
+            return false;
+        }
+        for (int i = 0; i < before.size(); i++) {
+            if (before.get(i) != after.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<Expr> rewriteExpressions(List<Expr> expressions) {
+        List<Expr> rewritten = new ArrayList<>(expressions.size());
+        for (Expr expr : expressions) {
+            rewritten.add(rewrite(expr));
+        }
+        return same(expressions, rewritten) ? expressions : rewritten;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = rewrite(stmt.statements);
+        if (statements == stmt.statements) {
+            return stmt;
+        }
+        Stmt.Block copy = new Stmt.Block(statements);
+        copy.locals = stmt.locals;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = rewrite(stmt.expression);
+        return expression == stmt.expression ? stmt : new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        List<Stmt> body = rewrite(stmt.body);
+        if (body == stmt.body) {
+            return stmt;
+        }
+        Stmt.Function copy = new Stmt.Function(stmt.name, stmt.params, body, stmt.returnType);
+        copy.slot = stmt.slot;
+        copy.locals = stmt.locals;
+        copy.verified = stmt.verified;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = rewrite(stmt.condition);
+        List<Stmt> thenBranch = rewrite(stmt.thenBranch);
+        List<Expr> elseIfConditions = rewriteExpressions(stmt.elseIfConditions);
+        List<List<Stmt>> elseIfBranches = new ArrayList<>(stmt.elseIfBranches.size());
+        for (List<Stmt> branch : stmt.elseIfBranches) {
+            elseIfBranches.add(rewrite(branch));
+        }
+        List<Stmt> elseBranch = rewrite(stmt.elseBranch);
+
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch
+                && elseIfConditions == stmt.elseIfConditions && same(stmt.elseIfBranches, elseIfBranches)
+                && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return new Stmt.If(condition, thenBranch, elseIfConditions, elseIfBranches, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = rewrite(stmt.expression);
+        return expression == stmt.expression ? stmt : new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        Expr value = rewrite(stmt.value);
+        return value == stmt.value ? stmt : new Stmt.Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitScanStmt(Stmt.Scan stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = rewrite(stmt.condition);
+        List<Stmt> body = rewrite(stmt.body);
+        List<Expr> hoisted = stmt.hoisted == null ? null : rewriteExpressions(stmt.hoisted);
+        if (condition == stmt.condition && body == stmt.body && hoisted == stmt.hoisted) {
+            return stmt;
+        }
+        Stmt.While copy = new Stmt.While(condition, body);
+        copy.hoisted = hoisted;
+        copy.hoistedSlots = stmt.hoistedSlots;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitStringStmt(Stmt.String stmt) {
+        Expr initializer = rewrite(stmt.initializer);
+        if (initializer == stmt.initializer) {
+            return stmt;
+        }
+        Stmt.String copy = new Stmt.String(stmt.name, initializer, stmt.mutable);
+        copy.slot = stmt.slot;
+        copy.verified = stmt.verified;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitIntStmt(Stmt.Int stmt) {
+        Expr initializer = rewrite(stmt.initializer);
+        if (initializer == stmt.initializer) {
+            return stmt;
+        }
+        Stmt.Int copy = new Stmt.Int(stmt.name, initializer, stmt.mutable);
+        copy.slot = stmt.slot;
+        copy.verified = stmt.verified;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitFloatStmt(Stmt.Float stmt) {
+        Expr initializer = rewrite(stmt.initializer);
+        if (initializer == stmt.initializer) {
+            return stmt;
+        }
+        Stmt.Float copy = new Stmt.Float(stmt.name, initializer, stmt.mutable);
+        copy.slot = stmt.slot;
+        copy.verified = stmt.verified;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitCharStmt(Stmt.Char stmt) {
+        Expr initializer = rewrite(stmt.initializer);
+        if (initializer == stmt.initializer) {
+            return stmt;
+        }
+        Stmt.Char copy = new Stmt.Char(stmt.name, initializer, stmt.mutable);
+        copy.slot = stmt.slot;
+        copy.verified = stmt.verified;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitBoolStmt(Stmt.Bool stmt) {
+        Expr initializer = rewrite(stmt.initializer);
+        if (initializer == stmt.initializer) {
+            return stmt;
+        }
+        Stmt.Bool copy = new Stmt.Bool(stmt.name, initializer, stmt.mutable);
+        copy.slot = stmt.slot;
+        copy.verified = stmt.verified;
+        return copy;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = rewrite(expr.value);
+        if (value == expr.value) {
+            return expr;
+        }
+        Expr.Assign copy = new Expr.Assign(expr.name, value);
+        copy.depth = expr.depth;
+        copy.slot = expr.slot;
+        copy.verified = expr.verified;
+        return copy;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if (left == expr.left && right == expr.right) {
+            return expr;
+        }
+        Expr.Binary copy = new Expr.Binary(left, expr.operator, right);
+        copy.verified = expr.verified;
+        copy.operandType = expr.operandType;
+        return copy;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = rewrite(expr.callee);
+        List<Expr> arguments = rewriteExpressions(expr.arguments);
+        Expr inlined = rewrite(expr.inlined);
+        if (callee == expr.callee && arguments == expr.arguments && inlined == expr.inlined) {
+            return expr;
+        }
+        Expr.Call copy = new Expr.Call(callee, expr.paren, arguments);
+        copy.verified = expr.verified;
+        copy.inlined = inlined;
+        copy.argumentSlots = expr.argumentSlots;
+        return copy;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = rewrite(expr.expression);
+        return expression == expr.expression ? expr : new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if (left == expr.left && right == expr.right) {
+            return expr;
+        }
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = rewrite(expr.right);
+        if (right == expr.right) {
+            return expr;
+        }
+        Expr.Unary copy = new Expr.Unary(expr.operator, right);
+        copy.verified = expr.verified;
+        return copy;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+}
@@ -0,0 +1,512 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compiles the resolved, checked and optimized AST of a program's top level,
+// or of one FN body, to a Chunk for the VM. Operators are picked from the
+// TypeChecker's operand types, globals get their own instructions, and IF,
+// WHILE, AND and OR become jumps. Nested FNs are compiled to chunks of their
+// own when first called.
+class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private int[] code = new int[64];
+    private int count = 0;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndexes = new HashMap<>();
+    private int stack = 0;
+    private int maxStack = 0;
+
+    private final boolean inFunction;
+    // Blocks the code being compiled is inside.
+    private int blocks = 0;
+
+    private BytecodeCompiler(boolean inFunction) {
+        this.inFunction = inFunction;
+    }
+
+    static Chunk compile(List<Stmt> statements) {
+        return new BytecodeCompiler(false).chunk(statements);
+    }
+
+    static Chunk compile(Stmt.Function declaration) {
+        return new BytecodeCompiler(true).chunk(declaration.body);
+    }
+
+    private Chunk chunk(List<Stmt> statements) {
+        statements(statements);
+        emit(Chunk.END, 0);
+        return new Chunk(Arrays.copyOf(code, count), constants.toArray(), maxStack);
+    }
+
+    private int globalDepth() {
+        return (inFunction ? 1 : 0) + blocks;
+    }
+
+    // Appends an instruction that changes the stack depth by effect.
+    private void emit(int opcode, int effect, int... operands) {
+        if (count + operands.length + 1 > code.length) {
+            code = Arrays.copyOf(code, Math.max(code.length * 2, count + operands.length + 1));
+        }
+        code[count++] = opcode;
+        for (int operand : operands) {
+            code[count++] = operand;
+        }
+        stack += effect;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    // Appends a jump and returns where its target goes, for patch.
+    private int emitJump(int opcode, int effect) {
+        emit(opcode, effect, -1);
+        return count - 1;
+    }
+
+    private void patch(int jump) {
+        code[jump] = count;
+    }
+
+    private int constant(Object value) {
+        Integer index = constantIndexes.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndexes.put(value, index);
+        }
+        return index;
+    }
+
+    private static int flag(boolean value) {
+        return value ? 1 : 0;
+    }
+
+    private void statements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            statement.accept(this);
+        }
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private static Expr unwrap(Expr expr) {
+        while (expr instanceof Expr.Grouping) {
+            expr = ((Expr.Grouping) expr).expression;
+        }
+        return expr;
+    }
+
+    // The value of an INT literal, or null.
+    private static Integer intLiteral(Expr expr) {
+        expr = unwrap(expr);
+        if (expr instanceof Expr.Literal && ((Expr.Literal) expr).value instanceof Integer) {
+            return (Integer) ((Expr.Literal) expr).value;
+        }
+        return null;
+    }
+
+    // INT arithmetic the TypeChecker verified, or null.
+    private static Expr.Binary intArithmetic(Expr expr) {
+        expr = unwrap(expr);
+        if (expr instanceof Expr.Binary && ((Expr.Binary) expr).operandType == TokenType.INT) {
+            int opcode = intOpcode(((Expr.Binary) expr).operator.type);
+            if (opcode >= Chunk.IADD && opcode <= Chunk.IMOD) {
+                return (Expr.Binary) expr;
+            }
+        }
+        return null;
+    }
+
+    // Compiles an expression the TypeChecker knows to be an INT, leaving it
+    // unboxed.
+    private void compileInt(Expr expr) {
+        expr = unwrap(expr);
+        Integer literal = intLiteral(expr);
+        Expr.Binary arithmetic = intArithmetic(expr);
+        if (literal != null) {
+            emit(Chunk.ICONST, 1, literal);
+        } else if (arithmetic != null) {
+            compileArithmetic(arithmetic);
+        } else if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) expr;
+            if (variable.depth == globalDepth()) {
+                emit(Chunk.IGET_GLOBAL, 1, variable.slot, constant(variable.name));
+            } else {
+                emit(Chunk.IGET, 1, variable.depth, variable.slot, constant(variable.name));
+            }
+        } else {
+            compile(expr);
+            emit(Chunk.UNBOX, 0);
+        }
+    }
+
+    private void compileArithmetic(Expr.Binary expr) {
+        int opcode = intOpcode(expr.operator.type);
+        compileInt(expr.left);
+        Integer literal = intLiteral(expr.right);
+        if (literal != null && (literal != 0 || (opcode != Chunk.IDIV && opcode != Chunk.IMOD))) {
+            emit(opcode + (Chunk.IADD_K - Chunk.IADD), 0, literal);
+        } else if (opcode == Chunk.IDIV) {
+            compileInt(expr.right);
+            emit(opcode, -1, constant(expr.operator));
+        } else {
+            compileInt(expr.right);
+            emit(opcode, -1);
+        }
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        assign(expr, false);
+        return null;
+    }
+
+    // Stores an assignment's value, and pops it too for a statement. A
+    // statement storing INT arithmetic boxes the result only to store it.
+    private void assign(Expr.Assign expr, boolean statement) {
+        Expr.Binary arithmetic = intArithmetic(expr.value);
+        if (statement && expr.verified && arithmetic != null) {
+            compileArithmetic(arithmetic);
+            if (expr.depth == globalDepth()) {
+                emit(Chunk.ISTORE_GLOBAL, -1, expr.slot, constant(expr.name));
+            } else {
+                emit(Chunk.ISTORE, -1, expr.depth, expr.slot, constant(expr.name));
+            }
+            return;
+        }
+
+        compile(expr.value);
+        int effect = statement ? -1 : 0;
+        if (!expr.verified) {
+            emit(statement ? Chunk.STORE_CHECKED : Chunk.ASSIGN, effect, expr.depth, expr.slot, constant(expr.name));
+        } else if (expr.depth == globalDepth()) {
+            emit(statement ? Chunk.STORE_GLOBAL : Chunk.SET_GLOBAL, effect, expr.slot, constant(expr.name));
+        } else {
+            emit(statement ? Chunk.STORE : Chunk.SET, effect, expr.depth, expr.slot, constant(expr.name));
+        }
+    }
+
+    // Compiles a condition and the jump taken when it is false, and returns
+    // where the jump's target goes. Comparisons of INTs jump by themselves.
+    private int jumpUnless(Expr condition) {
+        condition = unwrap(condition);
+        int opcode = -1;
+        if (condition instanceof Expr.Binary && ((Expr.Binary) condition).operandType == TokenType.INT) {
+            opcode = jumpOpcode(((Expr.Binary) condition).operator.type);
+        }
+        if (opcode < 0) {
+            compile(condition);
+            return emitJump(Chunk.JUMP_FALSE, -1);
+        }
+
+        Expr.Binary comparison = (Expr.Binary) condition;
+        compileInt(comparison.left);
+        Integer literal = intLiteral(comparison.right);
+        if (literal != null) {
+            emit(opcode + (Chunk.JUMP_UNLESS_LESS_K - Chunk.JUMP_UNLESS_LESS), -1, literal, -1);
+        } else {
+            compileInt(comparison.right);
+            emit(opcode, -2, -1);
+        }
+        return count - 1;
+    }
+
+    private static int jumpOpcode(TokenType operator) {
+        switch (operator) {
+            case LESS_THAN:
+                return Chunk.JUMP_UNLESS_LESS;
+            case LESS_THAN_EQUAL:
+                return Chunk.JUMP_UNLESS_LESS_EQUAL;
+            case GREATER_THAN:
+                return Chunk.JUMP_UNLESS_GREATER;
+            case GREATER_THAN_EQUAL:
+                return Chunk.JUMP_UNLESS_GREATER_EQUAL;
+            default:
+                return -1;
+        }
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        int opcode = expr.operandType == TokenType.INT ? intOpcode(expr.operator.type) : -1;
+        if (opcode >= Chunk.IADD && opcode <= Chunk.IMOD) {
+            compileArithmetic(expr);
+            emit(Chunk.BOX, 0);
+            return null;
+        }
+        if (opcode >= 0) {
+            compileInt(expr.left);
+            compileInt(expr.right);
+            emit(opcode, -1);
+            return null;
+        }
+
+        compile(expr.left);
+        compile(expr.right);
+        if (expr.operandType == TokenType.FLOAT) {
+            opcode = floatOpcode(expr.operator.type);
+        }
+        if (opcode == Chunk.FDIV) {
+            emit(opcode, -1, constant(expr.operator));
+        } else if (opcode >= 0) {
+            emit(opcode, -1);
+        } else if (expr.operator.type == TokenType.AMPERSAND) {
+            emit(Chunk.CONCAT, -1);
+        } else if (expr.operator.type == TokenType.EQUAL_EQUAL) {
+            emit(Chunk.EQUAL, -1);
+        } else if (expr.operator.type == TokenType.NOT_EQUAL) {
+            emit(Chunk.NOT_EQUAL, -1);
+        } else {
+            emit(Chunk.BINARY, -1, constant(expr.operator), flag(expr.verified));
+        }
+        return null;
+    }
+
+    private static int intOpcode(TokenType operator) {
+        switch (operator) {
+            case PLUS:
+                return Chunk.IADD;
+            case MINUS:
+                return Chunk.ISUB;
+            case STAR:
+                return Chunk.IMUL;
+            case SLASH:
+                return Chunk.IDIV;
+            case MODULO:
+                return Chunk.IMOD;
+            case LESS_THAN:
+                return Chunk.ILESS;
+            case LESS_THAN_EQUAL:
+                return Chunk.ILESS_EQUAL;
+            case GREATER_THAN:
+                return Chunk.IGREATER;
+            case GREATER_THAN_EQUAL:
+                return Chunk.IGREATER_EQUAL;
+            default:
+                return -1;
+        }
+    }
+
+    // Comparisons of FLOATs stay generic, where they fail as they always have.
+    private static int floatOpcode(TokenType operator) {
+        switch (operator) {
+            case PLUS:
+                return Chunk.FADD;
+            case MINUS:
+                return Chunk.FSUB;
+            case STAR:
+                return Chunk.FMUL;
+            case SLASH:
+                return Chunk.FDIV;
+            case MODULO:
+                return Chunk.FMOD;
+            default:
+                return -1;
+        }
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.inlined != null) {
+            for (int i = 0; i < expr.argumentSlots.length; i++) {
+                if (expr.argumentSlots[i] >= 0) {
+                    compile(expr.arguments.get(i));
+                    emit(Chunk.BIND, -1, expr.argumentSlots[i]);
+                }
+            }
+            compile(expr.inlined);
+            return null;
+        }
+
+        compile(expr.callee);
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+        int arguments = expr.arguments.size();
+        emit(Chunk.CALL, -arguments, arguments, constant(expr.paren), flag(expr.verified));
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        emit(Chunk.CONST, 1, constant(expr.value));
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        int jump = emitJump(expr.operator.type == TokenType.OR ? Chunk.JUMP_TRUE_OR_POP : Chunk.JUMP_FALSE_OR_POP,
+                -1);
+        compile(expr.right);
+        patch(jump);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        if (expr.operator.type == TokenType.NOT) {
+            emit(Chunk.NOT, 0);
+        } else {
+            emit(Chunk.UNARY, 0, constant(expr.operator), flag(expr.verified));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth == globalDepth()) {
+            emit(Chunk.GET_GLOBAL, 1, expr.slot, constant(expr.name));
+        } else {
+            emit(Chunk.GET, 1, expr.depth, expr.slot, constant(expr.name));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        emit(Chunk.ENTER, 0, stmt.locals);
+        blocks++;
+        statements(stmt.statements);
+        blocks--;
+        emit(Chunk.EXIT, 0);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        if (stmt.expression instanceof Expr.Assign) {
+            assign((Expr.Assign) stmt.expression, true);
+            return null;
+        }
+        compile(stmt.expression);
+        emit(Chunk.POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        emit(Chunk.FUNCTION, 0, constant(stmt));
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        List<Integer> ends = new ArrayList<>();
+        int next = jumpUnless(stmt.condition);
+        statements(stmt.thenBranch);
+        ends.add(emitJump(Chunk.JUMP, 0));
+        patch(next);
+
+        for (int i = 0; i < stmt.elseIfConditions.size(); i++) {
+            List<Stmt> branch = stmt.elseIfBranches.get(i);
+            if (branch.isEmpty()) {
+                // With nothing to run, the next arm is tried either way.
+                compile(stmt.elseIfConditions.get(i));
+                emit(Chunk.POP, -1);
+                continue;
+            }
+            next = jumpUnless(stmt.elseIfConditions.get(i));
+            // An ELSE IF runs only the first statement of its branch.
+            branch.get(0).accept(this);
+            ends.add(emitJump(Chunk.JUMP, 0));
+            patch(next);
+        }
+
+        if (stmt.elseBranch != null) {
+            statements(stmt.elseBranch);
+        }
+        for (int end : ends) {
+            patch(end);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(Chunk.PRINT, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) {
+            emit(Chunk.RETURN_VOID, 0);
+        } else {
+            compile(stmt.value);
+            emit(Chunk.RETURN, -1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitScanStmt(Stmt.Scan stmt) {
+        emit(Chunk.SCAN, 0, constant(stmt));
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        if (stmt.hoisted != null) {
+            for (int i = 0; i < stmt.hoistedSlots.length; i++) {
+                compile(stmt.hoisted.get(i));
+                emit(Chunk.BIND, -1, stmt.hoistedSlots[i]);
+            }
+        }
+        int start = count;
+        int exit = jumpUnless(stmt.condition);
+        statements(stmt.body);
+        emit(Chunk.JUMP, 0, start);
+        patch(exit);
+        return null;
+    }
+
+    private void declare(Token name, TokenType type, Expr initializer, boolean mutable, int slot, boolean verified) {
+        if (initializer != null) {
+            compile(initializer);
+        }
+        emit(Chunk.DECLARE, initializer != null ? -1 : 0, slot, type.ordinal(), flag(mutable),
+                flag(initializer != null), flag(verified), constant(name));
+    }
+
+    @Override
+    public Void visitStringStmt(Stmt.String stmt) {
+        declare(stmt.name, TokenType.STRING, stmt.initializer, stmt.mutable, stmt.slot, stmt.verified);
+        return null;
+    }
+
+    @Override
+    public Void visitIntStmt(Stmt.Int stmt) {
+        declare(stmt.name, TokenType.INT, stmt.initializer, stmt.mutable, stmt.slot, stmt.verified);
+        return null;
+    }
+
+    @Override
+    public Void visitFloatStmt(Stmt.Float stmt) {
+        declare(stmt.name, TokenType.FLOAT, stmt.initializer, stmt.mutable, stmt.slot, stmt.verified);
+        return null;
+    }
+
+    @Override
+    public Void visitCharStmt(Stmt.Char stmt) {
+        declare(stmt.name, TokenType.CHAR, stmt.initializer, stmt.mutable, stmt.slot, stmt.verified);
+        return null;
+    }
+
+    @Override
+    public Void visitBoolStmt(Stmt.Bool stmt) {
+        declare(stmt.name, TokenType.BOOL, stmt.initializer, stmt.mutable, stmt.slot, stmt.verified);
+        return null;
+    }
+}
@@ -0,0 +1,125 @@
+package code;
+
+// Bytecode for the top level of a program or for one FN body, made by the
+// BytecodeCompiler and run by the VM. Each instruction is an opcode followed
+// by its int operands. Operands that are not ints (literal values, tokens for
+// error messages, FN declarations) are indexes into the constant pool.
+//
+// The operand stack is an Object[] with an int[] beside it. Instructions on
+// verified INTs take and leave unboxed values in the int[] at the same depth,
+// so arithmetic only boxes a value when it is stored or leaves INT code.
+class Chunk {
+    // CONST k: push constants[k].
+    static final int CONST = 0;
+    // POP: drop the top of the stack.
+    static final int POP = 1;
+    // GET depth slot name: push a variable. GET_GLOBAL slot name skips the
+    // walk to the global environment.
+    static final int GET = 2;
+    static final int GET_GLOBAL = 3;
+    // SET depth slot name: store the top of the stack, leaving it there, in
+    // a variable the TypeChecker verified. ASSIGN checks mutability and type.
+    static final int SET = 4;
+    static final int SET_GLOBAL = 5;
+    static final int ASSIGN = 6;
+    // SET, SET_GLOBAL and ASSIGN followed by POP, for assignment statements.
+    static final int STORE = 7;
+    static final int STORE_GLOBAL = 8;
+    static final int STORE_CHECKED = 9;
+    // BIND slot: pop a value into a slot the Optimizer added.
+    static final int BIND = 10;
+
+    // ICONST value: push an unboxed INT. IGET and IGET_GLOBAL push a
+    // variable unboxed, ISTORE and ISTORE_GLOBAL pop one into a variable,
+    // which keeps it unboxed.
+    static final int ICONST = 11;
+    static final int IGET = 12;
+    static final int IGET_GLOBAL = 13;
+    static final int ISTORE = 14;
+    static final int ISTORE_GLOBAL = 15;
+    // UNBOX and BOX move the top between the two stacks.
+    static final int UNBOX = 16;
+    static final int BOX = 17;
+    // Unboxed INT arithmetic. IDIV takes the operator token for its error.
+    static final int IADD = 18;
+    static final int ISUB = 19;
+    static final int IMUL = 20;
+    static final int IDIV = 21;
+    static final int IMOD = 22;
+    // The same with a literal right operand, IADD_K value and so on. Division
+    // and modulo only take non-zero values.
+    static final int IADD_K = 23;
+    static final int ISUB_K = 24;
+    static final int IMUL_K = 25;
+    static final int IDIV_K = 26;
+    static final int IMOD_K = 27;
+    // Comparisons of two unboxed INTs, pushing a boxed BOOL.
+    static final int ILESS = 28;
+    static final int ILESS_EQUAL = 29;
+    static final int IGREATER = 30;
+    static final int IGREATER_EQUAL = 31;
+    // An INT comparison and the JUMP_FALSE after it in one: JUMP_UNLESS_LESS
+    // target pops two unboxed INTs and jumps unless the first is less.
+    static final int JUMP_UNLESS_LESS = 32;
+    static final int JUMP_UNLESS_LESS_EQUAL = 33;
+    static final int JUMP_UNLESS_GREATER = 34;
+    static final int JUMP_UNLESS_GREATER_EQUAL = 35;
+    // The same with a literal right operand: JUMP_UNLESS_LESS_K value target.
+    static final int JUMP_UNLESS_LESS_K = 36;
+    static final int JUMP_UNLESS_LESS_EQUAL_K = 37;
+    static final int JUMP_UNLESS_GREATER_K = 38;
+    static final int JUMP_UNLESS_GREATER_EQUAL_K = 39;
+
+    // Verified FLOAT arithmetic on boxed values. FDIV takes the operator
+    // token for its error.
+    static final int FADD = 40;
+    static final int FSUB = 41;
+    static final int FMUL = 42;
+    static final int FDIV = 43;
+    static final int FMOD = 44;
+    // BINARY operator verified: any other binary operator, run by the
+    // Interpreter's implementation.
+    static final int BINARY = 45;
+    static final int CONCAT = 46;
+    static final int EQUAL = 47;
+    static final int NOT_EQUAL = 48;
+    static final int NOT = 49;
+    // UNARY operator verified: unary minus and plus.
+    static final int UNARY = 50;
+
+    // JUMP target, and JUMP_FALSE target, which pops the condition.
+    static final int JUMP = 51;
+    static final int JUMP_FALSE = 52;
+    // AND and OR: jump if the top decides the result, leaving it, or pop it.
+    static final int JUMP_FALSE_OR_POP = 53;
+    static final int JUMP_TRUE_OR_POP = 54;
+    // CALL count paren verified: call the callee below count arguments.
+    static final int CALL = 55;
+    static final int PRINT = 56;
+    // DECLARE slot type mutable initialized verified name: define a typed
+    // variable, from the top of the stack when initialized.
+    static final int DECLARE = 57;
+    // FUNCTION declaration: define a FN in its slot.
+    static final int FUNCTION = 58;
+    // RETURN: pop the value to return. RETURN_VOID returns no value.
+    static final int RETURN = 59;
+    static final int RETURN_VOID = 60;
+    // SCAN statement: read a line into the statement's variables.
+    static final int SCAN = 61;
+    // ENTER locals: run in a new block environment until EXIT.
+    static final int ENTER = 62;
+    static final int EXIT = 63;
+    // END: the end of the chunk, reached without a RETURN.
+    static final int END = 64;
+
+    final int[] code;
+    final Object[] constants;
+    // The deepest the operand stack gets.
+    final int maxStack;
+
+    Chunk(int[] code, Object[] constants, int maxStack) {
+        this.code = code;
+        this.constants = constants;
+        this.maxStack = maxStack;
+    }
+}
@@ -0,0 +1,388 @@
+package code;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Writes the class files the JvmCompiler defines: one public final class with
+// methods whose code is emitted an instruction at a time. The files are
+// version 49, from before stack map frames, so branches need no frames and the
+// verifier infers the types itself. Each instruction is emitted with its effect
+// on the operand stack, which gives the method's max stack.
+class ClassWriter {
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int DCONST_0 = 0x0e;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC = 0x12;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int ILOAD = 0x15;
+    static final int DLOAD = 0x18;
+    static final int ALOAD = 0x19;
+    static final int AALOAD = 0x32;
+    static final int ISTORE = 0x36;
+    static final int DSTORE = 0x39;
+    static final int ASTORE = 0x3a;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int DUP2 = 0x5c;
+    static final int IADD = 0x60;
+    static final int ISUB = 0x64;
+    static final int DSUB = 0x67;
+    static final int IMUL = 0x68;
+    static final int DMUL = 0x6b;
+    static final int IREM = 0x70;
+    static final int DREM = 0x73;
+    static final int INEG = 0x74;
+    static final int DNEG = 0x77;
+    static final int IXOR = 0x82;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IF_ICMPEQ = 0x9f;
+    static final int IF_ICMPNE = 0xa0;
+    static final int IF_ICMPLT = 0xa1;
+    static final int IF_ICMPGE = 0xa2;
+    static final int IF_ICMPGT = 0xa3;
+    static final int IF_ICMPLE = 0xa4;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int GETFIELD = 0xb4;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int INVOKEINTERFACE = 0xb9;
+    static final int NEW = 0xbb;
+    static final int ANEWARRAY = 0xbd;
+    static final int ATHROW = 0xbf;
+    static final int CHECKCAST = 0xc0;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    // Jumps take a signed 16 bit offset, so no method can be longer.
+    private static final int MAX_CODE = Short.MAX_VALUE;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolData = new DataOutputStream(pool);
+    private final Map<String, Integer> entries = new HashMap<>();
+    private int poolCount = 1;
+
+    private final String name;
+    private final String superName;
+    private final List<Code> methods = new ArrayList<>();
+
+    ClassWriter(String name, String superName) {
+        this.name = name;
+        this.superName = superName;
+    }
+
+    // An entry of the constant pool, written the first time it is asked for.
+    private interface Entry {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int entry(String key, int size, Entry entry) {
+        Integer index = entries.get(key);
+        if (index == null) {
+            try {
+                entry.write(poolData);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            index = poolCount;
+            poolCount += size;
+            entries.put(key, index);
+        }
+        return index;
+    }
+
+    int utf8(String value) {
+        return entry("Utf8 " + value, 1, out -> {
+            out.writeByte(1);
+            out.writeUTF(value);
+        });
+    }
+
+    int type(String internalName) {
+        int utf8 = utf8(internalName);
+        return entry("Class " + internalName, 1, out -> {
+            out.writeByte(7);
+            out.writeShort(utf8);
+        });
+    }
+
+    int integer(int value) {
+        return entry("Integer " + value, 1, out -> {
+            out.writeByte(3);
+            out.writeInt(value);
+        });
+    }
+
+    // Doubles take two entries of the pool.
+    int real(double value) {
+        return entry("Double " + Double.doubleToRawLongBits(value), 2, out -> {
+            out.writeByte(6);
+            out.writeDouble(value);
+        });
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        return entry("NameAndType " + name + " " + descriptor, 1, out -> {
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+    }
+
+    private int member(int tag, String owner, String name, String descriptor) {
+        int typeIndex = type(owner);
+        int nameAndType = nameAndType(name, descriptor);
+        return entry(tag + " " + owner + " " + name + " " + descriptor, 1, out -> {
+            out.writeByte(tag);
+            out.writeShort(typeIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    Code method(String name, String descriptor) {
+        Code code = new Code(name, descriptor);
+        methods.add(code);
+        return code;
+    }
+
+    byte[] toByteArray() {
+        int thisIndex = type(name);
+        int superIndex = type(superName);
+        int codeName = utf8("Code");
+        for (Code method : methods) {
+            method.nameIndex = utf8(method.name);
+            method.descriptorIndex = utf8(method.descriptor);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(methods.size());
+            for (Code method : methods) {
+                out.writeShort(ACC_PUBLIC);
+                out.writeShort(method.nameIndex);
+                out.writeShort(method.descriptorIndex);
+                out.writeShort(1);
+                out.writeShort(codeName);
+                out.writeInt(12 + method.count);
+                out.writeShort(method.maxStack);
+                out.writeShort(method.maxLocals);
+                out.writeInt(method.count);
+                out.write(method.code, 0, method.count);
+                out.writeShort(0);
+                out.writeShort(0);
+            }
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // The slots a descriptor's type takes on the stack or in the locals.
+    private static int size(char type) {
+        return type == 'V' ? 0 : type == 'D' || type == 'J' ? 2 : 1;
+    }
+
+    // The slots of a method descriptor's arguments.
+    private static int argumentSize(String descriptor) {
+        int size = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char type = descriptor.charAt(i);
+            while (descriptor.charAt(i) == '[') {
+                i++;
+            }
+            if (descriptor.charAt(i) == 'L') {
+                i = descriptor.indexOf(';', i);
+            }
+            size += type == '[' ? 1 : size(type);
+            i++;
+        }
+        return size;
+    }
+
+    // A place in a method's code that jumps go to. Jumps before it is marked
+    // are patched when it is.
+    static class Label {
+        private int position = -1;
+        private int stack = -1;
+        private final List<Integer> jumps = new ArrayList<>();
+    }
+
+    class Code {
+        private final String name;
+        private final String descriptor;
+        private int nameIndex;
+        private int descriptorIndex;
+        private byte[] code = new byte[256];
+        private int count = 0;
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+
+        private Code(String name, String descriptor) {
+            this.name = name;
+            this.descriptor = descriptor;
+            maxLocals = argumentSize(descriptor) + 1;
+        }
+
+        // Whether the code has grown past what a method can hold, or uses
+        // locals past those a one byte index reaches.
+        boolean tooLarge() {
+            return count > MAX_CODE || maxLocals > 256;
+        }
+
+        // Takes a local for a value of the given size and returns its index.
+        int local(int size) {
+            maxLocals += size;
+            return maxLocals - size;
+        }
+
+        private void u1(int value) {
+            if (count + 1 > code.length) {
+                code = Arrays.copyOf(code, code.length * 2);
+            }
+            code[count++] = (byte) value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        private void effect(int effect) {
+            stack += effect;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        void insn(int opcode, int effect) {
+            u1(opcode);
+            effect(effect);
+        }
+
+        void push(int value) {
+            if (value >= -1 && value <= 5) {
+                u1(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                u1(BIPUSH);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                u1(SIPUSH);
+                u2(value);
+            } else {
+                ldc(integer(value));
+            }
+            effect(1);
+        }
+
+        void push(double value) {
+            if (Double.doubleToRawLongBits(value) == 0L || value == 1.0) {
+                u1(DCONST_0 + (int) value);
+            } else {
+                u1(LDC2_W);
+                u2(real(value));
+            }
+            effect(2);
+        }
+
+        private void ldc(int index) {
+            if (index < 256) {
+                u1(LDC);
+                u1(index);
+            } else {
+                u1(LDC_W);
+                u2(index);
+            }
+        }
+
+        // ILOAD, DLOAD, ALOAD and the stores, on a local below 256.
+        void local(int opcode, int index) {
+            u1(opcode);
+            u1(index);
+            int size = opcode == DLOAD || opcode == DSTORE ? 2 : 1;
+            effect(opcode < ISTORE ? size : -size);
+        }
+
+        void field(int opcode, String owner, String name, String descriptor) {
+            u1(opcode);
+            u2(member(9, owner, name, descriptor));
+            effect(size(descriptor.charAt(0)) - (opcode == GETFIELD ? 1 : 0));
+        }
+
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            boolean isInterface = opcode == INVOKEINTERFACE;
+            u1(opcode);
+            u2(member(isInterface ? 11 : 10, owner, name, descriptor));
+            int arguments = argumentSize(descriptor) + (opcode == INVOKESTATIC ? 0 : 1);
+            if (isInterface) {
+                u1(arguments);
+                u1(0);
+            }
+            effect(size(descriptor.charAt(descriptor.indexOf(')') + 1)) - arguments);
+        }
+
+        // NEW, CHECKCAST and ANEWARRAY.
+        void type(int opcode, String internalName) {
+            u1(opcode);
+            u2(ClassWriter.this.type(internalName));
+            effect(opcode == NEW ? 1 : 0);
+        }
+
+        // GOTO and the conditional jumps, which pop what they test.
+        void jump(int opcode, Label label) {
+            effect(opcode == GOTO ? 0 : opcode >= IF_ICMPEQ && opcode <= IF_ICMPLE ? -2 : -1);
+            label.stack = stack;
+            if (label.position >= 0) {
+                int offset = label.position - count;
+                u1(opcode);
+                u2(offset);
+            } else {
+                label.jumps.add(count);
+                u1(opcode);
+                u2(0);
+            }
+        }
+
+        // Jumps arrive with the stack as it was at the jump.
+        void mark(Label label) {
+            label.position = count;
+            if (label.stack >= 0) {
+                stack = label.stack;
+            }
+            for (int jump : label.jumps) {
+                int offset = count - jump;
+                code[jump + 1] = (byte) (offset >> 8);
+                code[jump + 2] = (byte) offset;
+            }
+        }
+    }
+}
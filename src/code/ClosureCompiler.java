@@ -0,0 +1,591 @@
+package code;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compiles a program once into a tree of small lambdas and runs that instead
+// of walking the AST. Everything the AST walk decides again on every
+// execution is decided while compiling: which operator a Binary runs (the
+// TypeChecker's operand type picks INT or FLOAT arithmetic for verified
+// nodes), whether a variable is a global, which literals are operands, and
+// which run time checks are needed. The environment is passed down the tree,
+// so a lambda holds nothing but its children and constants, and the JIT can
+// inline a hot tree like ordinary code.
+//
+// Globals, natives and the generic operators are the Interpreter's, and FN
+// bodies are compiled on their first call, so lazy bodies still parse late.
+class ClosureCompiler implements Expr.Visitor<ClosureCompiler.Node>, Stmt.Visitor<ClosureCompiler.Action> {
+    interface Node {
+        Object evaluate(Environment environment);
+    }
+
+    // Statements give back null to carry on with the next one. A RETURN in
+    // them gives back its value, or VOID for none, and every enclosing
+    // statement passes that on up to the call. No exception is thrown.
+    interface Action {
+        Object execute(Environment environment);
+    }
+
+    private static final Object VOID = new Object();
+    private static final Action NOTHING = environment -> null;
+
+    private final Interpreter interpreter;
+    private final Environment globals;
+    private final Map<Stmt.Function, Action> bodies = new IdentityHashMap<>();
+
+    // Where the code being compiled runs: in a FN body or not, and inside how
+    // many blocks.
+    private boolean inFunction = false;
+    private int blocks = 0;
+
+    ClosureCompiler(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+    }
+
+    void interpret(List<Stmt> statements) {
+        statements = interpreter.compile(statements);
+        if (statements != null) {
+            run(compile(statements));
+        }
+    }
+
+    Action compile(List<Stmt> statements) {
+        inFunction = false;
+        blocks = 0;
+        return sequence(statements);
+    }
+
+    void run(Action program) {
+        try {
+            Object returned = program.execute(globals);
+            if (returned != null) {
+                // A RETURN outside any FN ends the program as in the Interpreter.
+                throw new Return(returned == VOID ? null : returned);
+            }
+        } catch (RuntimeError e) {
+            Code.runtimeError(e);
+        }
+    }
+
+    private Action body(Stmt.Function declaration) {
+        Action body = bodies.get(declaration);
+        if (body == null) {
+            boolean enclosingInFunction = inFunction;
+            int enclosingBlocks = blocks;
+            inFunction = true;
+            blocks = 0;
+            body = sequence(declaration.body);
+            inFunction = enclosingInFunction;
+            blocks = enclosingBlocks;
+            bodies.put(declaration, body);
+        }
+        return body;
+    }
+
+    private int globalDepth() {
+        return (inFunction ? 1 : 0) + blocks;
+    }
+
+    private Node compile(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    private Node[] compileAll(List<Expr> exprs) {
+        Node[] nodes = new Node[exprs.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(exprs.get(i));
+        }
+        return nodes;
+    }
+
+    private Action sequence(List<Stmt> statements) {
+        Action[] actions = new Action[statements.size()];
+        for (int i = 0; i < actions.length; i++) {
+            actions[i] = statements.get(i).accept(this);
+        }
+        if (actions.length == 0) {
+            return NOTHING;
+        } else if (actions.length == 1) {
+            return actions[0];
+        }
+        return environment -> {
+            for (Action action : actions) {
+                Object returned = action.execute(environment);
+                if (returned != null) {
+                    return returned;
+                }
+            }
+            return null;
+        };
+    }
+
+    // The INT value of a literal operand, or null.
+    private static Integer intLiteral(Expr expr) {
+        while (expr instanceof Expr.Grouping) {
+            expr = ((Expr.Grouping) expr).expression;
+        }
+        if (expr instanceof Expr.Literal && ((Expr.Literal) expr).value instanceof Integer) {
+            return (Integer) ((Expr.Literal) expr).value;
+        }
+        return null;
+    }
+
+    @Override
+    public Node visitBinaryExpr(Expr.Binary expr) {
+        Node left = compile(expr.left);
+        Node right = compile(expr.right);
+        Token operator = expr.operator;
+
+        Node specialized = null;
+        if (expr.operandType == TokenType.INT) {
+            Integer constant = intLiteral(expr.right);
+            specialized = constant != null && constant != 0
+                    ? intBinary(operator, left, constant)
+                    : intBinary(operator, left, right);
+        } else if (expr.operandType == TokenType.FLOAT) {
+            specialized = floatBinary(operator, left, right);
+        }
+        if (specialized != null) {
+            return specialized;
+        }
+
+        switch (operator.type) {
+            case AMPERSAND:
+                return environment -> {
+                    Object a = left.evaluate(environment);
+                    Object b = right.evaluate(environment);
+                    return a.toString() + b.toString();
+                };
+            case EQUAL_EQUAL:
+                return environment -> Interpreter.isEqual(left.evaluate(environment), right.evaluate(environment));
+            case NOT_EQUAL:
+                return environment -> !Interpreter.isEqual(left.evaluate(environment), right.evaluate(environment));
+            default:
+                boolean verified = expr.verified;
+                return environment -> Interpreter.binary(operator, verified, left.evaluate(environment),
+                        right.evaluate(environment));
+        }
+    }
+
+    private static Node intBinary(Token operator, Node left, Node right) {
+        switch (operator.type) {
+            case PLUS:
+                return environment -> (int) left.evaluate(environment) + (int) right.evaluate(environment);
+            case MINUS:
+                return environment -> (int) left.evaluate(environment) - (int) right.evaluate(environment);
+            case STAR:
+                return environment -> (int) left.evaluate(environment) * (int) right.evaluate(environment);
+            case SLASH:
+                return environment -> {
+                    int a = (int) left.evaluate(environment);
+                    int b = (int) right.evaluate(environment);
+                    if (b == 0) {
+                        throw new RuntimeError(operator, "Cannot divide by zero.");
+                    }
+                    return a / b;
+                };
+            case MODULO:
+                return environment -> (int) left.evaluate(environment) % (int) right.evaluate(environment);
+            case GREATER_THAN:
+                return environment -> (int) left.evaluate(environment) > (int) right.evaluate(environment);
+            case GREATER_THAN_EQUAL:
+                return environment -> (int) left.evaluate(environment) >= (int) right.evaluate(environment);
+            case LESS_THAN:
+                return environment -> (int) left.evaluate(environment) < (int) right.evaluate(environment);
+            case LESS_THAN_EQUAL:
+                return environment -> (int) left.evaluate(environment) <= (int) right.evaluate(environment);
+            default:
+                return null;
+        }
+    }
+
+    // A non-zero literal right operand, so division needs no check.
+    private static Node intBinary(Token operator, Node left, int right) {
+        switch (operator.type) {
+            case PLUS:
+                return environment -> (int) left.evaluate(environment) + right;
+            case MINUS:
+                return environment -> (int) left.evaluate(environment) - right;
+            case STAR:
+                return environment -> (int) left.evaluate(environment) * right;
+            case SLASH:
+                return environment -> (int) left.evaluate(environment) / right;
+            case MODULO:
+                return environment -> (int) left.evaluate(environment) % right;
+            case GREATER_THAN:
+                return environment -> (int) left.evaluate(environment) > right;
+            case GREATER_THAN_EQUAL:
+                return environment -> (int) left.evaluate(environment) >= right;
+            case LESS_THAN:
+                return environment -> (int) left.evaluate(environment) < right;
+            case LESS_THAN_EQUAL:
+                return environment -> (int) left.evaluate(environment) <= right;
+            default:
+                return null;
+        }
+    }
+
+    // Comparisons of FLOATs stay generic, where they fail as they always have.
+    private static Node floatBinary(Token operator, Node left, Node right) {
+        switch (operator.type) {
+            case PLUS:
+                // FLOAT + has always multiplied.
+                return environment -> (double) left.evaluate(environment) * (double) right.evaluate(environment);
+            case MINUS:
+                return environment -> (double) left.evaluate(environment) - (double) right.evaluate(environment);
+            case STAR:
+                return environment -> (double) left.evaluate(environment) * (double) right.evaluate(environment);
+            case SLASH:
+                return environment -> {
+                    double a = (double) left.evaluate(environment);
+                    double b = (double) right.evaluate(environment);
+                    if (b == 0) {
+                        throw new RuntimeError(operator, "Cannot divide by zero.");
+                    }
+                    return a / b;
+                };
+            case MODULO:
+                return environment -> (double) left.evaluate(environment) % (double) right.evaluate(environment);
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Node visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Node visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        return environment -> value;
+    }
+
+    @Override
+    public Node visitLogicalExpr(Expr.Logical expr) {
+        Node left = compile(expr.left);
+        Node right = compile(expr.right);
+        if (expr.operator.type == TokenType.OR) {
+            return environment -> {
+                Object value = left.evaluate(environment);
+                return Interpreter.isTruthy(value) ? value : right.evaluate(environment);
+            };
+        }
+        return environment -> {
+            Object value = left.evaluate(environment);
+            return !Interpreter.isTruthy(value) ? value : right.evaluate(environment);
+        };
+    }
+
+    @Override
+    public Node visitUnaryExpr(Expr.Unary expr) {
+        Node right = compile(expr.right);
+        Token operator = expr.operator;
+        if (operator.type == TokenType.NOT) {
+            return environment -> !Interpreter.isTruthy(right.evaluate(environment));
+        }
+        boolean verified = expr.verified;
+        return environment -> Interpreter.unary(operator, verified, right.evaluate(environment));
+    }
+
+    @Override
+    public Node visitVariableExpr(Expr.Variable expr) {
+        Token name = expr.name;
+        int slot = expr.slot;
+        if (expr.depth == globalDepth()) {
+            return environment -> globals.get(0, slot, name);
+        }
+        int depth = expr.depth;
+        return environment -> environment.get(depth, slot, name);
+    }
+
+    @Override
+    public Node visitAssignExpr(Expr.Assign expr) {
+        Node value = compile(expr.value);
+        Token name = expr.name;
+        int slot = expr.slot;
+        int depth = expr.depth;
+        boolean global = depth == globalDepth();
+        if (expr.verified && global) {
+            return environment -> {
+                Object result = value.evaluate(environment);
+                globals.set(0, slot, name, result);
+                return result;
+            };
+        } else if (expr.verified) {
+            return environment -> {
+                Object result = value.evaluate(environment);
+                environment.set(depth, slot, name, result);
+                return result;
+            };
+        }
+        return environment -> {
+            Object result = value.evaluate(environment);
+            environment.assign(depth, slot, name, result);
+            return result;
+        };
+    }
+
+    @Override
+    public Node visitCallExpr(Expr.Call expr) {
+        Node[] arguments = compileAll(expr.arguments);
+        if (expr.inlined != null) {
+            int[] slots = expr.argumentSlots;
+            Node inlined = compile(expr.inlined);
+            return environment -> {
+                for (int i = 0; i < slots.length; i++) {
+                    if (slots[i] >= 0) {
+                        environment.bind(slots[i], arguments[i].evaluate(environment));
+                    }
+                }
+                return inlined.evaluate(environment);
+            };
+        }
+
+        Node callee = compile(expr.callee);
+        if (expr.verified) {
+            return verifiedCall(callee, arguments);
+        }
+        Token paren = expr.paren;
+        return environment -> {
+            Object function = callee.evaluate(environment);
+            Object[] values = evaluate(arguments, environment);
+            if (!(function instanceof CodeCallable)) {
+                throw new RuntimeError(paren, "Can only call functions and classes.");
+            }
+            int arity = ((CodeCallable) function).arity();
+            if (values.length != arity) {
+                throw new RuntimeError(paren, "Expected " + arity + " arguments but got " + values.length + ".");
+            }
+            if (function instanceof CodeFunction) {
+                ((CodeFunction) function).checkArguments(paren, values);
+            }
+            return ((CodeCallable) function).call(interpreter, values);
+        };
+    }
+
+    // A call of up to three arguments passes them without collecting them.
+    private Node verifiedCall(Node callee, Node[] arguments) {
+        switch (arguments.length) {
+            case 0:
+                return environment -> ((CodeCallable) callee.evaluate(environment)).call0(interpreter);
+            case 1: {
+                Node first = arguments[0];
+                return environment -> ((CodeCallable) callee.evaluate(environment))
+                        .call1(interpreter, first.evaluate(environment));
+            }
+            case 2: {
+                Node first = arguments[0];
+                Node second = arguments[1];
+                return environment -> ((CodeCallable) callee.evaluate(environment))
+                        .call2(interpreter, first.evaluate(environment), second.evaluate(environment));
+            }
+            case 3: {
+                Node first = arguments[0];
+                Node second = arguments[1];
+                Node third = arguments[2];
+                return environment -> ((CodeCallable) callee.evaluate(environment))
+                        .call3(interpreter, first.evaluate(environment), second.evaluate(environment),
+                                third.evaluate(environment));
+            }
+            default:
+                return environment -> ((CodeCallable) callee.evaluate(environment))
+                        .call(interpreter, evaluate(arguments, environment));
+        }
+    }
+
+    private static Object[] evaluate(Node[] nodes, Environment environment) {
+        Object[] values = new Object[nodes.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = nodes[i].evaluate(environment);
+        }
+        return values;
+    }
+
+    @Override
+    public Action visitBlockStmt(Stmt.Block stmt) {
+        blocks++;
+        Action body = sequence(stmt.statements);
+        blocks--;
+        int locals = stmt.locals;
+        return environment -> body.execute(new Environment(environment, locals));
+    }
+
+    @Override
+    public Action visitExpressionStmt(Stmt.Expression stmt) {
+        Node expression = compile(stmt.expression);
+        return environment -> {
+            expression.evaluate(environment);
+            return null;
+        };
+    }
+
+    @Override
+    public Action visitFunctionStmt(Stmt.Function stmt) {
+        return environment -> {
+            environment.define(stmt.slot, new CompiledFunction(stmt));
+            return null;
+        };
+    }
+
+    @Override
+    public Action visitIfStmt(Stmt.If stmt) {
+        Node condition = compile(stmt.condition);
+        Action thenBranch = sequence(stmt.thenBranch);
+        Node[] elseIfConditions = compileAll(stmt.elseIfConditions);
+        // An ELSE IF runs only the first statement of its branch, and one
+        // with no statements lets the next arm be tried.
+        Action[] elseIfBranches = new Action[elseIfConditions.length];
+        for (int i = 0; i < elseIfBranches.length; i++) {
+            List<Stmt> branch = stmt.elseIfBranches.get(i);
+            elseIfBranches[i] = branch.isEmpty() ? null : branch.get(0).accept(this);
+        }
+        Action elseBranch = stmt.elseBranch == null ? NOTHING : sequence(stmt.elseBranch);
+        return environment -> {
+            if (Interpreter.isTruthy(condition.evaluate(environment))) {
+                return thenBranch.execute(environment);
+            }
+            for (int i = 0; i < elseIfConditions.length; i++) {
+                if (Interpreter.isTruthy(elseIfConditions[i].evaluate(environment)) && elseIfBranches[i] != null) {
+                    return elseIfBranches[i].execute(environment);
+                }
+            }
+            return elseBranch.execute(environment);
+        };
+    }
+
+    @Override
+    public Action visitPrintStmt(Stmt.Print stmt) {
+        Node expression = compile(stmt.expression);
+        return environment -> {
+            Interpreter.print(expression.evaluate(environment));
+            return null;
+        };
+    }
+
+    @Override
+    public Action visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) {
+            return environment -> VOID;
+        }
+        Node value = compile(stmt.value);
+        return environment -> {
+            Object returned = value.evaluate(environment);
+            return returned == null ? VOID : returned;
+        };
+    }
+
+    @Override
+    public Action visitScanStmt(Stmt.Scan stmt) {
+        return environment -> {
+            Interpreter.scan(environment, stmt.identifiers, stmt.depths, stmt.slots);
+            return null;
+        };
+    }
+
+    @Override
+    public Action visitWhileStmt(Stmt.While stmt) {
+        Node condition = compile(stmt.condition);
+        Action body = sequence(stmt.body);
+        if (stmt.hoisted == null) {
+            return environment -> {
+                while (Interpreter.isTruthy(condition.evaluate(environment))) {
+                    Object returned = body.execute(environment);
+                    if (returned != null) {
+                        return returned;
+                    }
+                }
+                return null;
+            };
+        }
+        Node[] hoisted = compileAll(stmt.hoisted);
+        int[] slots = stmt.hoistedSlots;
+        return environment -> {
+            for (int i = 0; i < slots.length; i++) {
+                environment.bind(slots[i], hoisted[i].evaluate(environment));
+            }
+            while (Interpreter.isTruthy(condition.evaluate(environment))) {
+                Object returned = body.execute(environment);
+                if (returned != null) {
+                    return returned;
+                }
+            }
+            return null;
+        };
+    }
+
+    private Action declare(Token name, TokenType type, Expr initializer, boolean mutable, int slot,
+            boolean verified) {
+        if (initializer == null) {
+            return environment -> {
+                environment.define(slot, null, type, mutable);
+                return null;
+            };
+        }
+        Node value = compile(initializer);
+        if (verified) {
+            return environment -> {
+                environment.define(slot, value.evaluate(environment), type, mutable);
+                return null;
+            };
+        }
+        return environment -> {
+            Object result = value.evaluate(environment);
+            if (!TypeChecker.hasType(result, type)) {
+                throw new RuntimeError(name, "Value '" + result + "' is not of type " + TypeChecker.typeName(type) + ".");
+            }
+            environment.define(slot, result, type, mutable);
+            return null;
+        };
+    }
+
+    @Override
+    public Action visitStringStmt(Stmt.String stmt) {
+        return declare(stmt.name, TokenType.STRING, stmt.initializer, stmt.mutable, stmt.slot, stmt.verified);
+    }
+
+    @Override
+    public Action visitIntStmt(Stmt.Int stmt) {
+        return declare(stmt.name, TokenType.INT, stmt.initializer, stmt.mutable, stmt.slot, stmt.verified);
+    }
+
+    @Override
+    public Action visitFloatStmt(Stmt.Float stmt) {
+        return declare(stmt.name, TokenType.FLOAT, stmt.initializer, stmt.mutable, stmt.slot, stmt.verified);
+    }
+
+    @Override
+    public Action visitCharStmt(Stmt.Char stmt) {
+        return declare(stmt.name, TokenType.CHAR, stmt.initializer, stmt.mutable, stmt.slot, stmt.verified);
+    }
+
+    @Override
+    public Action visitBoolStmt(Stmt.Bool stmt) {
+        return declare(stmt.name, TokenType.BOOL, stmt.initializer, stmt.mutable, stmt.slot, stmt.verified);
+    }
+
+    // A FN that runs its compiled body. Binding arguments and checking what
+    // comes back are the same as for any CodeFunction.
+    private class CompiledFunction extends CodeFunction {
+        private Action body = null;
+
+        CompiledFunction(Stmt.Function declaration) {
+            super(declaration);
+        }
+
+        @Override
+        Object run(Interpreter interpreter, Environment environment) {
+            if (body == null) {
+                body = body(declaration);
+            }
+            Object returned = body.execute(environment);
+            if (returned == null) {
+                return noReturn();
+            }
+            return returned(returned == VOID ? null : returned);
+        }
+    }
+}
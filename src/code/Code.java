@@ -3,30 +3,151 @@ package code;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class Code {
     private static final Interpreter interpreter = new Interpreter();
+    private static final SymbolTable symbols = new SymbolTable();
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
 
-    public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+    // --stream: lex the memory-mapped file on demand while parsing instead of
+    // reading the whole file and token list into memory first.
+    private static boolean streaming = false;
+    // --parallel-lex: scan large files in chunks on the common fork-join pool.
+    private static boolean parallelLex = false;
+    // --lazy: parse FN bodies the first time they are called.
+    private static boolean lazyFunctions = false;
+    // --parallel-parse: parse top level FN declarations on the common pool.
+    private static boolean parallelParse = false;
+    // --watch: run the script again whenever the file changes.
+    private static boolean watch = false;
+    // --emit: save the parsed script as a .codec file instead of running it.
+    private static boolean emit = false;
+    // --records: run with the SwitchInterpreter instead of the Interpreter.
+    private static boolean records = false;
+    // --closures: compile the program to a tree of lambdas and run that.
+    private static boolean closures = false;
+    // --vm: compile the program to bytecode and run that on the VM.
+    private static boolean vm = false;
+    // --jvm: compile the program to JVM bytecode and run that.
+    private static boolean jvm = false;
+    // --tiered: interpret, compiling hot FNs and WHILEs to JVM bytecode.
+    private static boolean tiered = false;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String script = null;
+        for (String arg : args) {
+            if (arg.equals("--stream")) {
+                streaming = true;
+            } else if (arg.equals("--parallel-lex")) {
+                parallelLex = true;
+            } else if (arg.equals("--lazy")) {
+                lazyFunctions = true;
+            } else if (arg.equals("--parallel-parse")) {
+                parallelParse = true;
+            } else if (arg.equals("--watch")) {
+                watch = true;
+            } else if (arg.equals("--emit")) {
+                emit = true;
+            } else if (arg.equals("--records")) {
+                records = true;
+            } else if (arg.equals("--closures")) {
+                closures = true;
+            } else if (arg.equals("--vm")) {
+                vm = true;
+            } else if (arg.equals("--jvm")) {
+                jvm = true;
+            } else if (arg.equals("--tiered")) {
+                tiered = true;
+            } else if (arg.startsWith("--tier-calls=")) {
+                // --tier-calls=N: compile a FN after N calls.
+                Tiering.callThreshold = number(arg.substring("--tier-calls=".length()));
+            } else if (arg.startsWith("--tier-loops=")) {
+                // --tier-loops=N: compile a WHILE after N iterations.
+                Tiering.loopThreshold = number(arg.substring("--tier-loops=".length()));
+            } else if (arg.equals("--tier-log")) {
+                Tiering.log = true;
+            } else if (arg.startsWith("--inline-budget=")) {
+                // --inline-budget=N: inline FNs whose bodies have at most N nodes.
+                Inliner.budget = number(arg.substring("--inline-budget=".length()));
+            } else if (arg.startsWith("--no-") && Optimizer.disable(arg.substring(5))) {
+                // --no-<pass>: the Optimizer skips that pass.
+            } else if (arg.startsWith("--") || script != null) {
+                usage();
+            } else {
+                script = arg;
+            }
+        }
+
+        if (watch && script != null) {
+            new Watcher(Paths.get(script)).watch();
+        } else if (script != null && script.endsWith(Codec.EXTENSION)) {
+            runArtifact(Paths.get(script));
+        } else if (script != null) {
+            runFile(script);
         } else {
             runPrompt();
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: jlox [--stream] [--parallel-lex] [--lazy] [--parallel-parse] [--watch] [--emit] [--records] [--closures] [--vm] [--jvm] [--tiered] [--tier-calls=N] [--tier-loops=N] [--tier-log] [--no-<pass>] [--inline-budget=N] [script]");
+        System.exit(64);
+    }
+
+    private static int number(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException error) {
+            usage();
+            return 0;
+        }
+    }
+
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        List<Stmt> statements;
+        if (streaming) {
+            try (FileChannel channel = FileChannel.open(Paths.get(path))) {
+                Scanner scanner = new Scanner(MappedSource.map(channel, Charset.defaultCharset()), symbols);
+                statements = parse(new Parser(new TokenWindow(scanner)));
+            }
+        } else {
+            byte[] bytes = Files.readAllBytes(Paths.get(path));
+            statements = parse(new String(bytes, Charset.defaultCharset()));
+        }
+
+        if (emit) {
+            Path script = Paths.get(path);
+            byte[] encoded = Codec.encode(statements, Files.readAllBytes(script), script.getFileName().toString());
+            // Writing forces any lazy FN bodies, which can report errors.
+            if (!hadError)
+                Files.write(Codec.artifactFor(script), encoded);
+        } else {
+            interpret(statements);
+        }
+        if (hadError)
+            System.exit(65);
+    }
+
+    // Runs a .codec file without scanning or parsing. If the script it was
+    // made from sits next to it and has changed since, the script is run
+    // instead.
+    private static void runArtifact(Path path) throws IOException {
+        Codec.Program program = Codec.read(path, symbols);
+        Path source = path.resolveSibling(program.sourceName);
+        if (Files.exists(source) && !program.matches(Files.readAllBytes(source))) {
+            System.err.println(path + " is out of date, running " + source + " instead.");
+            runFile(source.toString());
+            return;
+        }
+        interpret(program.statements);
         if (hadError)
             System.exit(65);
     }
@@ -45,21 +166,56 @@ public class Code {
     }
 
     private static void run(String source) {
-        Scanner scanner = new Scanner(source);
+        interpret(parse(source));
+    }
+
+    private static void interpret(List<Stmt> statements) {
+        interpret(interpreter, statements);
+    }
+
+    // Runs statements on a new Interpreter, so nothing is left over from an
+    // earlier run, with the engine and passes picked on the command line.
+    static void rerun(List<Stmt> statements) {
+        interpret(new Interpreter(), statements);
+    }
+
+    private static void interpret(Interpreter interpreter, List<Stmt> statements) {
+        if (tiered) {
+            new Tiering(interpreter).interpret(statements);
+        } else if (jvm) {
+            new JvmCompiler(interpreter).interpret(statements);
+        } else if (vm) {
+            new VM(interpreter).interpret(statements);
+        } else if (closures) {
+            new ClosureCompiler(interpreter).interpret(statements);
+        } else if (records) {
+            new SwitchInterpreter(interpreter).interpret(statements);
+        } else {
+            interpreter.interpret(statements);
+        }
+    }
+
+    private static List<Stmt> parse(String source) {
+        Scanner scanner = new Scanner(source, symbols);
 
         // List<Token> tokens = scanner.scanTokens();
         // for (Token token : tokens) {
         // System.out.println(token);
         // }
 
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
+        TokenBuffer tokens = parallelLex
+                ? scanner.scanTokensParallel(ForkJoinPool.commonPool())
+                : scanner.scanTokens();
+        return parse(new Parser(tokens, lazyFunctions, parallelParse ? ForkJoinPool.commonPool() : null));
+    }
+
+    private static List<Stmt> parse(Parser parser) {
         List<Stmt> statements = parser.parse();
         if (hadError)
             System.exit(65);
         if (hadRuntimeError)
             System.exit(70);
-        interpreter.interpret(statements);
+        return statements;
     }
 
     static void error(int line, int col, String message) {
@@ -68,9 +224,9 @@ public class Code {
 
     static void error(Token token, String message) {
         if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
+            report(token.line(), " at end", message);
         } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+            report(token.line(), " at '" + token.lexeme + "'", message);
         }
     }
 
@@ -88,7 +244,7 @@ public class Code {
 
     static void runtimeError(RuntimeError e) {
         System.err.println(e.getMessage() +
-                "\n[line " + e.token.line + "]");
+                "\n[line " + e.token.line() + "]");
         hadRuntimeError = true;
     }
 
@@ -1,8 +1,33 @@
 package code;
 
+import java.util.Arrays;
 import java.util.List;
 
 public interface CodeCallable {
     int arity();
     Object call(Interpreter interpreter, List<Object> arguments);
+
+    // Callers that know how many arguments they pass use these, with up to
+    // three passed directly and any more in an array. A callable overrides
+    // the ones it can run without collecting its arguments; the rest come
+    // down to call with a list.
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, new Object[0]);
+    }
+
+    default Object call1(Interpreter interpreter, Object first) {
+        return call(interpreter, new Object[] { first });
+    }
+
+    default Object call2(Interpreter interpreter, Object first, Object second) {
+        return call(interpreter, new Object[] { first, second });
+    }
+
+    default Object call3(Interpreter interpreter, Object first, Object second, Object third) {
+        return call(interpreter, new Object[] { first, second, third });
+    }
+
+    default Object call(Interpreter interpreter, Object[] arguments) {
+        return call(interpreter, Arrays.asList(arguments));
+    }
 }
@@ -3,7 +3,7 @@ package code;
 import java.util.List;
 
 public class CodeFunction implements CodeCallable {
-    private final Stmt.Function declaration;
+    final Stmt.Function declaration;
 
     CodeFunction(Stmt.Function declaration) {
         this.declaration = declaration;
@@ -14,80 +14,144 @@ public class CodeFunction implements CodeCallable {
         return declaration.params.size();
     }
 
+    // Calls the TypeChecker could not verify check their arguments here, so a
+    // FN body can rely on its parameters having their declared types.
+    void checkArguments(Token paren, Object[] arguments) {
+        for (int i = 0; i < arguments.length; i++) {
+            TokenType type = declaration.params.get(i).type.type;
+            if (TypeChecker.isValueType(type) && !TypeChecker.hasType(arguments[i], type)) {
+                throw new RuntimeError(paren, "Argument " + (i + 1) + " must be of type " + type + ".");
+            }
+        }
+    }
+
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(interpreter.globals);
+        return call(interpreter, arguments.toArray());
+    }
 
-        for (int i = 0; i < declaration.params.size(); i++) {
-            TokenType type = declaration.params.get(i).type.type;
-            Object value = arguments.get(i);
-            if (type == TokenType.STRING) {
-                environment.define(declaration.params.get(i).name.lexeme, value, declaration.params.get(i).type.type,
-                        true);
-            } else if (type == TokenType.CHAR) {
-                environment.define(declaration.params.get(i).name.lexeme, value, declaration.params.get(i).type.type,
-                        true);
-
-            } else if (type == TokenType.INT) {
-                environment.define(declaration.params.get(i).name.lexeme, value, declaration.params.get(i).type.type,
-                        true);
-
-            } else if (type == TokenType.FLOAT) {
-                environment.define(declaration.params.get(i).name.lexeme, value, declaration.params.get(i).type.type,
-                        true);
-
-            } else {
-                environment.define(declaration.params.get(i).name.lexeme, value, declaration.params.get(i).type.type,
-                        true);
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return run(interpreter, bind(interpreter, arguments));
+    }
 
-            }
-        }
+    // Calls of up to three arguments define them in the call's environment
+    // straight away.
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return run(interpreter, frame(interpreter));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object first) {
+        Environment environment = frame(interpreter);
+        parameter(environment, 0, first);
+        return run(interpreter, environment);
+    }
 
+    @Override
+    public Object call2(Interpreter interpreter, Object first, Object second) {
+        Environment environment = frame(interpreter);
+        parameter(environment, 0, first);
+        parameter(environment, 1, second);
+        return run(interpreter, environment);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object first, Object second, Object third) {
+        Environment environment = frame(interpreter);
+        parameter(environment, 0, first);
+        parameter(environment, 1, second);
+        parameter(environment, 2, third);
+        return run(interpreter, environment);
+    }
+
+    // Runs the body in a call's environment. Engines that run FN bodies
+    // their own way override this.
+    Object run(Interpreter interpreter, Environment environment) {
         try {
             interpreter.executeBlock(declaration.body, environment);
         } catch (Return returnValue) {
-            if (declaration.returnType != null && returnValue != null) {
-                if (declaration.returnType.type == TokenType.STRING) {
-                    if (returnValue.value instanceof String) {
-                        return returnValue.value;
-                    }
-                    return new RuntimeError(declaration.name, "Return value must be of type String");
-                } else if (declaration.returnType.type == TokenType.CHAR) {
-                    if (returnValue.value instanceof Character) {
-                        return returnValue.value;
-                    }
-                    return new RuntimeError(declaration.name, "Return value must be of type Character");
-
-                } else if (declaration.returnType.type == TokenType.INT) {
-                    if (returnValue.value instanceof Integer) {
-                        return returnValue.value;
-                    }
-                    return new RuntimeError(declaration.name, "Return value must be of type Integer");
-
-                } else if (declaration.returnType.type == TokenType.FLOAT) {
-                    if (returnValue.value instanceof Float) {
-                        return returnValue.value;
-                    }
-                    return new RuntimeError(declaration.name, "Return value must be of type Float");
-
-                } else if (declaration.returnType.type == TokenType.BOOL) {
-                    if (returnValue.value instanceof Boolean) {
-                        return returnValue.value;
-                    }
-                    return new RuntimeError(declaration.name, "Return value must be of type Boolean");
+            return returned(returnValue.value);
+        }
+        return noReturn();
+    }
+
+    // Resolves and checks a lazy body before its first call.
+    void prepare(Interpreter interpreter) {
+        if (declaration.locals < 0) {
+            interpreter.prepare(declaration);
+        }
+    }
+
+    // A call's environment, once a lazy body has been prepared.
+    private Environment frame(Interpreter interpreter) {
+        prepare(interpreter);
+        return new Environment(interpreter.globals, declaration.locals);
+    }
+
+    private void parameter(Environment environment, int index, Object value) {
+        environment.define(index, value, declaration.params.get(index).type.type, true);
+    }
+
+    // A call's environment with the parameters defined.
+    Environment bind(Interpreter interpreter, Object[] arguments) {
+        Environment environment = frame(interpreter);
+        for (int i = 0; i < arguments.length; i++) {
+            parameter(environment, i, arguments[i]);
+        }
+        return environment;
+    }
+
+    // What a call gives back when its body runs a RETURN.
+    Object returned(Object value) {
+        if (declaration.verified) {
+            return value;
+        }
+        if (declaration.returnType != null) {
+            if (declaration.returnType.type == TokenType.STRING) {
+                if (value instanceof String) {
+                    return value;
+                }
+                throw new RuntimeError(declaration.name, "Return value must be of type String");
+            } else if (declaration.returnType.type == TokenType.CHAR) {
+                if (value instanceof Character) {
+                    return value;
+                }
+                throw new RuntimeError(declaration.name, "Return value must be of type Character");
+
+            } else if (declaration.returnType.type == TokenType.INT) {
+                if (value instanceof Integer) {
+                    return value;
                 }
-            } 
+                throw new RuntimeError(declaration.name, "Return value must be of type Integer");
 
-            if(declaration.returnType == null) {
-                if(returnValue.value != null) {
-                    throw new RuntimeError(declaration.name, "Function with void return type shouldn't return anything. ");
+            } else if (declaration.returnType.type == TokenType.FLOAT) {
+                if (value instanceof Double) {
+                    return value;
                 }
+                throw new RuntimeError(declaration.name, "Return value must be of type Float");
 
-                return null;
+            } else if (declaration.returnType.type == TokenType.BOOL) {
+                if (value instanceof Boolean) {
+                    return value;
+                }
+                throw new RuntimeError(declaration.name, "Return value must be of type Boolean");
             }
+        }
 
+        if(declaration.returnType == null) {
+            if(value != null) {
+                throw new RuntimeError(declaration.name, "Function with void return type shouldn't return anything. ");
+            }
+
+            return null;
         }
+        return noReturn();
+    }
 
+    // What a call gives back when its body ends without a RETURN.
+    Object noReturn() {
         if (declaration.returnType != null) {
             throw new RuntimeError(declaration.returnType, "Function must return a value of type "
                     + declaration.returnType.lexeme + " or remove the return type of the function.");
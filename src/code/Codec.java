@@ -0,0 +1,698 @@
+package code;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Reads and writes .codec files, a parsed program saved so later runs can skip
+// the Scanner and Parser. Layout:
+//
+//   magic "CODC", version
+//   SHA-256 of the source and the source file name
+//   constant pool: every literal and lexeme, each stored once
+//   line table: the line of every token, delta encoded
+//   the statements, written depth first
+//
+// Numbers are unsigned LEB128 varints. A token is its type and the pool
+// indexes of its lexeme and literal; its line is the next entry in the line
+// table. Node, token and list fields write 0 for null.
+class Codec {
+    static final String EXTENSION = ".codec";
+
+    private static final int MAGIC = 0x434f4443;
+    private static final int VERSION = 1;
+    private static final TokenType[] TYPES = TokenType.values();
+
+    // Constant pool tags.
+    private static final int STRING = 1;
+    private static final int INTEGER = 2;
+    private static final int DOUBLE = 3;
+    private static final int CHARACTER = 4;
+    private static final int TRUE = 5;
+    private static final int FALSE = 6;
+
+    // Node tags, in the order of the visitor methods.
+    private static final int BLOCK = 1;
+    private static final int EXPRESSION = 2;
+    private static final int FUNCTION = 3;
+    private static final int IF = 4;
+    private static final int PRINT = 5;
+    private static final int RETURN = 6;
+    private static final int SCAN = 7;
+    private static final int WHILE = 8;
+    private static final int STRING_DECLARATION = 9;
+    private static final int INT_DECLARATION = 10;
+    private static final int FLOAT_DECLARATION = 11;
+    private static final int CHAR_DECLARATION = 12;
+    private static final int BOOL_DECLARATION = 13;
+
+    private static final int ASSIGN = 1;
+    private static final int BINARY = 2;
+    private static final int CALL = 3;
+    private static final int GROUPING = 4;
+    private static final int LITERAL = 5;
+    private static final int LOGICAL = 6;
+    private static final int UNARY = 7;
+    private static final int VARIABLE = 8;
+
+    static class Program {
+        final byte[] sourceHash;
+        final String sourceName;
+        final List<Stmt> statements;
+
+        Program(byte[] sourceHash, String sourceName, List<Stmt> statements) {
+            this.sourceHash = sourceHash;
+            this.sourceName = sourceName;
+            this.statements = statements;
+        }
+
+        boolean matches(byte[] source) {
+            return Arrays.equals(sourceHash, hash(source));
+        }
+    }
+
+    static byte[] hash(byte[] source) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(source);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Where --emit puts the artifact for a script: foo.code becomes foo.codec.
+    static Path artifactFor(Path script) {
+        String name = script.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return script.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + EXTENSION);
+    }
+
+    static void write(Path path, List<Stmt> statements, byte[] source, String sourceName) throws IOException {
+        Files.write(path, encode(statements, source, sourceName));
+    }
+
+    static byte[] encode(List<Stmt> statements, byte[] source, String sourceName) {
+        Writer writer = new Writer();
+        writer.statements(statements);
+
+        Output out = new Output();
+        out.int32(MAGIC);
+        out.varint(VERSION);
+        out.bytes(hash(source));
+        out.string(sourceName);
+
+        out.varint(writer.constants.size());
+        for (Object constant : writer.constants) {
+            if (constant instanceof String) {
+                out.varint(STRING);
+                out.string((String) constant);
+            } else if (constant instanceof Integer) {
+                out.varint(INTEGER);
+                int value = (Integer) constant;
+                out.varint((value << 1) ^ (value >> 31));
+            } else if (constant instanceof Double) {
+                out.varint(DOUBLE);
+                long bits = Double.doubleToRawLongBits((Double) constant);
+                out.int32((int) (bits >>> 32));
+                out.int32((int) bits);
+            } else if (constant instanceof Character) {
+                out.varint(CHARACTER);
+                out.varint((Character) constant);
+            } else {
+                out.varint((Boolean) constant ? TRUE : FALSE);
+            }
+        }
+
+        out.varint(writer.lines.size);
+        int previous = 0;
+        for (int i = 0; i < writer.lines.size; i++) {
+            int delta = writer.lines.data[i] - previous;
+            out.varint((delta << 1) ^ (delta >> 31));
+            previous = writer.lines.data[i];
+        }
+
+        out.bytes(writer.tree.toByteArray());
+        return out.toByteArray();
+    }
+
+    static Program read(Path path, SymbolTable symbols) throws IOException {
+        try (FileChannel channel = FileChannel.open(path)) {
+            return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), symbols);
+        }
+    }
+
+    static Program decode(ByteBuffer buffer, SymbolTable symbols) throws IOException {
+        return new Reader(buffer, symbols).program();
+    }
+
+    // Growable byte array for the output sections.
+    private static class Output {
+        private byte[] data = new byte[256];
+        private int size = 0;
+
+        void byte8(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = (byte) value;
+        }
+
+        void varint(int value) {
+            while ((value & ~0x7f) != 0) {
+                byte8((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            byte8(value);
+        }
+
+        void int32(int value) {
+            byte8(value >>> 24);
+            byte8(value >>> 16);
+            byte8(value >>> 8);
+            byte8(value);
+        }
+
+        void bytes(byte[] bytes) {
+            if (size + bytes.length > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + bytes.length));
+            }
+            System.arraycopy(bytes, 0, data, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void string(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length);
+            bytes(bytes);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+
+    private static class Lines {
+        int[] data = new int[64];
+        int size = 0;
+
+        void add(int line) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = line;
+        }
+    }
+
+    private static class Writer implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+        final Output tree = new Output();
+        final Lines lines = new Lines();
+        final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> pool = new HashMap<>();
+
+        // Pool indexes start at 1 so that 0 can stand for null.
+        private int constant(Object value) {
+            if (value == null) {
+                return 0;
+            }
+            Integer index = pool.get(value);
+            if (index == null) {
+                constants.add(value);
+                index = constants.size();
+                pool.put(value, index);
+            }
+            return index;
+        }
+
+        private void token(Token token) {
+            if (token == null) {
+                tree.varint(0);
+                return;
+            }
+            tree.varint(token.type.ordinal() + 1);
+            tree.varint(constant(token.lexeme));
+            tree.varint(constant(token.literal));
+            lines.add(token.line());
+        }
+
+        void statements(List<Stmt> statements) {
+            if (statements == null) {
+                tree.varint(0);
+                return;
+            }
+            tree.varint(statements.size() + 1);
+            for (Stmt statement : statements) {
+                statement(statement);
+            }
+        }
+
+        private void statement(Stmt statement) {
+            if (statement == null) {
+                tree.varint(0);
+            } else {
+                statement.accept(this);
+            }
+        }
+
+        private void expressions(List<Expr> expressions) {
+            tree.varint(expressions.size() + 1);
+            for (Expr expression : expressions) {
+                expression(expression);
+            }
+        }
+
+        private void expression(Expr expression) {
+            if (expression == null) {
+                tree.varint(0);
+            } else {
+                expression.accept(this);
+            }
+        }
+
+        private void declaration(int tag, Token name, Expr initializer, boolean mutable) {
+            tree.varint(tag);
+            token(name);
+            expression(initializer);
+            tree.varint(mutable ? 1 : 0);
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            tree.varint(BLOCK);
+            statements(stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            tree.varint(EXPRESSION);
+            expression(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            tree.varint(FUNCTION);
+            token(stmt.name);
+            tree.varint(stmt.params.size());
+            for (Parameter param : stmt.params) {
+                token(param.type);
+                token(param.name);
+            }
+            statements(stmt.body);
+            token(stmt.returnType);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            tree.varint(IF);
+            expression(stmt.condition);
+            statements(stmt.thenBranch);
+            expressions(stmt.elseIfConditions);
+            tree.varint(stmt.elseIfBranches.size());
+            for (List<Stmt> branch : stmt.elseIfBranches) {
+                statements(branch);
+            }
+            statements(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            tree.varint(PRINT);
+            expression(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            tree.varint(RETURN);
+            token(stmt.keyword);
+            expression(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitScanStmt(Stmt.Scan stmt) {
+            tree.varint(SCAN);
+            tree.varint(stmt.identifiers.size());
+            for (Token identifier : stmt.identifiers) {
+                token(identifier);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            tree.varint(WHILE);
+            expression(stmt.condition);
+            statements(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitStringStmt(Stmt.String stmt) {
+            declaration(STRING_DECLARATION, stmt.name, stmt.initializer, stmt.mutable);
+            return null;
+        }
+
+        @Override
+        public Void visitIntStmt(Stmt.Int stmt) {
+            declaration(INT_DECLARATION, stmt.name, stmt.initializer, stmt.mutable);
+            return null;
+        }
+
+        @Override
+        public Void visitFloatStmt(Stmt.Float stmt) {
+            declaration(FLOAT_DECLARATION, stmt.name, stmt.initializer, stmt.mutable);
+            return null;
+        }
+
+        @Override
+        public Void visitCharStmt(Stmt.Char stmt) {
+            declaration(CHAR_DECLARATION, stmt.name, stmt.initializer, stmt.mutable);
+            return null;
+        }
+
+        @Override
+        public Void visitBoolStmt(Stmt.Bool stmt) {
+            declaration(BOOL_DECLARATION, stmt.name, stmt.initializer, stmt.mutable);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            tree.varint(ASSIGN);
+            token(expr.name);
+            expression(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            tree.varint(BINARY);
+            expression(expr.left);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            tree.varint(CALL);
+            expression(expr.callee);
+            token(expr.paren);
+            expressions(expr.arguments);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            tree.varint(GROUPING);
+            expression(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            tree.varint(LITERAL);
+            tree.varint(constant(expr.value));
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            tree.varint(LOGICAL);
+            expression(expr.left);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            tree.varint(UNARY);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            tree.varint(VARIABLE);
+            token(expr.name);
+            return null;
+        }
+    }
+
+    private static class Reader {
+        private final ByteBuffer buffer;
+        private final SymbolTable symbols;
+        private Object[] constants;
+        // Symbol ID of each pool string, looked up the first time an
+        // identifier uses it.
+        private int[] symbolIds;
+        private int[] lines;
+        private int nextLine = 0;
+
+        Reader(ByteBuffer buffer, SymbolTable symbols) {
+            this.buffer = buffer;
+            this.symbols = symbols;
+        }
+
+        Program program() throws IOException {
+            if (buffer.remaining() < 4 || buffer.getInt() != MAGIC) {
+                throw new IOException("Not a .codec file.");
+            }
+            if (varint() != VERSION) {
+                throw new IOException("Unsupported .codec version.");
+            }
+            byte[] sourceHash = new byte[32];
+            buffer.get(sourceHash);
+            String sourceName = string();
+
+            constants = new Object[varint() + 1];
+            symbolIds = new int[constants.length];
+            Arrays.fill(symbolIds, -1);
+            for (int i = 1; i < constants.length; i++) {
+                int tag = varint();
+                switch (tag) {
+                    case STRING:
+                        constants[i] = string();
+                        break;
+                    case INTEGER:
+                        int value = varint();
+                        constants[i] = (value >>> 1) ^ -(value & 1);
+                        break;
+                    case DOUBLE:
+                        constants[i] = Double.longBitsToDouble(buffer.getLong());
+                        break;
+                    case CHARACTER:
+                        constants[i] = (char) varint();
+                        break;
+                    case TRUE:
+                        constants[i] = true;
+                        break;
+                    case FALSE:
+                        constants[i] = false;
+                        break;
+                    default:
+                        throw new IOException("Bad constant tag " + tag + ".");
+                }
+            }
+
+            lines = new int[varint()];
+            int line = 0;
+            for (int i = 0; i < lines.length; i++) {
+                int delta = varint();
+                line += (delta >>> 1) ^ -(delta & 1);
+                lines[i] = line;
+            }
+
+            List<Stmt> statements = statements();
+            return new Program(sourceHash, sourceName, statements);
+        }
+
+        private int varint() {
+            int value = 0;
+            for (int shift = 0;; shift += 7) {
+                byte b = buffer.get();
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        private String string() {
+            byte[] bytes = new byte[varint()];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private Token token() {
+            int type = varint();
+            if (type == 0) {
+                return null;
+            }
+            int lexeme = varint();
+            Object literal = constants[varint()];
+            int symbol = -1;
+            if (TYPES[type - 1] == TokenType.IDENTIFIER) {
+                if (symbolIds[lexeme] < 0) {
+                    symbolIds[lexeme] = symbols.intern((String) constants[lexeme]);
+                }
+                symbol = symbolIds[lexeme];
+            }
+            return new Token(TYPES[type - 1], (String) constants[lexeme], literal, lines[nextLine++], symbol);
+        }
+
+        private List<Stmt> statements() throws IOException {
+            int size = varint();
+            if (size == 0) {
+                return null;
+            }
+            List<Stmt> statements = new ArrayList<>(size - 1);
+            for (int i = 1; i < size; i++) {
+                statements.add(statement());
+            }
+            return statements;
+        }
+
+        private List<Expr> expressions() throws IOException {
+            int size = varint();
+            List<Expr> expressions = new ArrayList<>(size - 1);
+            for (int i = 1; i < size; i++) {
+                expressions.add(expression());
+            }
+            return expressions;
+        }
+
+        private Stmt statement() throws IOException {
+            int tag = varint();
+            switch (tag) {
+                case 0:
+                    return null;
+                case BLOCK:
+                    return new Stmt.Block(statements());
+                case EXPRESSION:
+                    return new Stmt.Expression(expression());
+                case FUNCTION: {
+                    Token name = token();
+                    int count = varint();
+                    List<Parameter> params = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        Token type = token();
+                        params.add(new Parameter(type, token()));
+                    }
+                    List<Stmt> body = statements();
+                    return new Stmt.Function(name, params, body, token());
+                }
+                case IF: {
+                    Expr condition = expression();
+                    List<Stmt> thenBranch = statements();
+                    List<Expr> elseIfConditions = expressions();
+                    int count = varint();
+                    List<List<Stmt>> elseIfBranches = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        elseIfBranches.add(statements());
+                    }
+                    return new Stmt.If(condition, thenBranch, elseIfConditions, elseIfBranches, statements());
+                }
+                case PRINT:
+                    return new Stmt.Print(expression());
+                case RETURN: {
+                    Token keyword = token();
+                    return new Stmt.Return(keyword, expression());
+                }
+                case SCAN: {
+                    int count = varint();
+                    List<Token> identifiers = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        identifiers.add(token());
+                    }
+                    return new Stmt.Scan(identifiers);
+                }
+                case WHILE: {
+                    Expr condition = expression();
+                    return new Stmt.While(condition, statements());
+                }
+                case STRING_DECLARATION: {
+                    Token name = token();
+                    Expr initializer = expression();
+                    return new Stmt.String(name, initializer, varint() != 0);
+                }
+                case INT_DECLARATION: {
+                    Token name = token();
+                    Expr initializer = expression();
+                    return new Stmt.Int(name, initializer, varint() != 0);
+                }
+                case FLOAT_DECLARATION: {
+                    Token name = token();
+                    Expr initializer = expression();
+                    return new Stmt.Float(name, initializer, varint() != 0);
+                }
+                case CHAR_DECLARATION: {
+                    Token name = token();
+                    Expr initializer = expression();
+                    return new Stmt.Char(name, initializer, varint() != 0);
+                }
+                case BOOL_DECLARATION: {
+                    Token name = token();
+                    Expr initializer = expression();
+                    return new Stmt.Bool(name, initializer, varint() != 0);
+                }
+                default:
+                    throw new IOException("Bad statement tag " + tag + ".");
+            }
+        }
+
+        private Expr expression() throws IOException {
+            int tag = varint();
+            switch (tag) {
+                case 0:
+                    return null;
+                case ASSIGN: {
+                    Token name = token();
+                    return new Expr.Assign(name, expression());
+                }
+                case BINARY: {
+                    Expr left = expression();
+                    Token operator = token();
+                    return new Expr.Binary(left, operator, expression());
+                }
+                case CALL: {
+                    Expr callee = expression();
+                    Token paren = token();
+                    return new Expr.Call(callee, paren, expressions());
+                }
+                case GROUPING:
+                    return new Expr.Grouping(expression());
+                case LITERAL:
+                    return new Expr.Literal(constants[varint()]);
+                case LOGICAL: {
+                    Expr left = expression();
+                    Token operator = token();
+                    return new Expr.Logical(left, operator, expression());
+                }
+                case UNARY: {
+                    Token operator = token();
+                    return new Expr.Unary(operator, expression());
+                }
+                case VARIABLE:
+                    return new Expr.Variable(token());
+                default:
+                    throw new IOException("Bad expression tag " + tag + ".");
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package code;
+
+// Replaces operators whose operands are all literals with the literal they
+// evaluate to. The Interpreter does the evaluating, so folded values are
+// exactly what the program would have computed. Anything that fails, like a
+// division by zero, is left in place to fail at run time.
+class ConstantFolder extends AstRewriter {
+    private final Interpreter interpreter;
+
+    ConstantFolder(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    private Expr fold(Expr expr) {
+        try {
+            return new Expr.Literal(interpreter.evaluate(expr));
+        } catch (RuntimeException error) {
+            return expr;
+        }
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr folded = super.visitBinaryExpr(expr);
+        Expr.Binary binary = (Expr.Binary) folded;
+        if (binary.left instanceof Expr.Literal && binary.right instanceof Expr.Literal) {
+            return fold(binary);
+        }
+        return folded;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = rewrite(expr.expression);
+        if (expression instanceof Expr.Literal) {
+            return expression;
+        }
+        return expression == expr.expression ? expr : new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr folded = super.visitLogicalExpr(expr);
+        Expr.Logical logical = (Expr.Logical) folded;
+        if (!(logical.left instanceof Expr.Literal)) {
+            return folded;
+        }
+
+        // The result is one of the operands, and the left one decides which.
+        boolean truthy = Interpreter.isTruthy(((Expr.Literal) logical.left).value);
+        if (logical.operator.type == TokenType.OR) {
+            return truthy ? logical.left : logical.right;
+        }
+        return truthy ? logical.right : logical.left;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr folded = super.visitUnaryExpr(expr);
+        if (((Expr.Unary) folded).right instanceof Expr.Literal) {
+            return fold(folded);
+        }
+        return folded;
+    }
+}
@@ -0,0 +1,21 @@
+package code;
+
+import java.util.List;
+
+// Drops the statements that follow a RETURN in the same statement list.
+class DeadCodeEliminator extends AstRewriter {
+    @Override
+    List<Stmt> rewrite(List<Stmt> statements) {
+        List<Stmt> rewritten = super.rewrite(statements);
+        if (rewritten == null || (rewritten instanceof LazyBody && !((LazyBody) rewritten).isParsed())) {
+            return rewritten;
+        }
+
+        for (int i = 0; i < rewritten.size() - 1; i++) {
+            if (rewritten.get(i) instanceof Stmt.Return) {
+                return rewritten.subList(0, i + 1);
+            }
+        }
+        return rewritten;
+    }
+}
@@ -1,119 +1,187 @@
 package code;
 
-import java.util.HashMap;
-import java.util.Map;
-
+import java.util.Arrays;
+
+// Variables live in slots. The Resolver gives every variable reference a
+// (depth, slot) pair: the number of enclosing links to follow and the index in
+// that environment's array. No names are looked up at run time.
+//
+// A slot's declaration is a shared Variable, and its value sits beside it in
+// values, so defining a variable and assigning to it allocate nothing. Code
+// that works on unboxed values stores them as Tagged longs in primitives
+// instead, leaving a marker in values, and reads them back without boxing.
+// That array is made on the first such store.
 public class Environment {
+    // The marker of a value held in primitives.
+    private static final Object UNBOXED = new Object();
+
     final Environment enclosing;
-    private final Map<String, Variable> values = new HashMap<>();
+    private Variable[] variables;
+    private Object[] values;
+    private long[] primitives = null;
 
     Environment() {
-        enclosing = null;
+        this(null, 16);
     }
 
-    Environment(Environment enclosing) {
+    Environment(Environment enclosing, int size) {
         this.enclosing = enclosing;
+        variables = new Variable[size];
+        values = new Object[size];
     }
 
-    void define(String name, Object value, TokenType type, boolean isImmutable) {
-        if (!values.containsKey(name)) {
-            values.put(name, new Variable(type, value, isImmutable));
+    // The global environment grows as the Resolver meets new global names.
+    void reserve(int size) {
+        if (size > variables.length) {
+            size = Math.max(size, variables.length * 2);
+            variables = Arrays.copyOf(variables, size);
+            values = Arrays.copyOf(values, size);
+            if (primitives != null) {
+                primitives = Arrays.copyOf(primitives, size);
+            }
         }
     }
 
-    void define(String name, Object value) {
-        values.put(name, new Variable(null, value, true));
+    boolean isDefined(int slot) {
+        return slot < variables.length && variables[slot] != null;
     }
 
-    Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme).getValue();
+    void define(int slot, Object value, TokenType type, boolean mutable) {
+        if (variables[slot] == null) {
+            variables[slot] = Variable.of(type, mutable);
+            values[slot] = value;
         }
+    }
 
-        if (enclosing != null)
-            return enclosing.get(name);
+    // Replacing a FN is the only way a callable in a slot changes, so call
+    // sites cache global callables for as long as this stays the same.
+    int version = 0;
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    void define(int slot, Object value) {
+        variables[slot] = Variable.of(null, true);
+        values[slot] = value;
+        version++;
     }
 
-    TokenType getType(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme).getType();
+    Environment ancestor(int depth) {
+        Environment environment = this;
+        for (int i = 0; i < depth; i++) {
+            environment = environment.enclosing;
         }
+        return environment;
+    }
+
+    // Stores a value in a hidden slot the Optimizer added: an argument of an
+    // inlined call or a value hoisted out of a loop.
+    void bind(int slot, Object value) {
+        if (variables[slot] == null) {
+            variables[slot] = Variable.of(null, false);
+        }
+        values[slot] = value;
+    }
 
-        if (enclosing != null)
-            return enclosing.getType(name);
+    Object get(int depth, int slot, Token name) {
+        Environment environment = lookup(depth, slot, name);
+        Object value = environment.values[slot];
+        return value == UNBOXED ? environment.box(slot) : value;
+    }
+
+    // Boxes a value held unboxed, keeping the box for the reads after.
+    private Object box(int slot) {
+        Object value = Tagged.box(primitives[slot]);
+        values[slot] = value;
+        return value;
+    }
+
+    // Reads of a variable the TypeChecker verified to have a value type.
+    long getTagged(int depth, int slot, Token name) {
+        Environment environment = lookup(depth, slot, name);
+        Object value = environment.values[slot];
+        return value == UNBOXED ? environment.primitives[slot] : Tagged.unbox(value);
+    }
+
+    int getInt(int depth, int slot, Token name) {
+        Environment environment = lookup(depth, slot, name);
+        Object value = environment.values[slot];
+        return value == UNBOXED ? Tagged.asInt(environment.primitives[slot]) : (Integer) value;
+    }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    double getDouble(int depth, int slot, Token name) {
+        Environment environment = lookup(depth, slot, name);
+        Object value = environment.values[slot];
+        return value == UNBOXED ? Tagged.asDouble(environment.primitives[slot]) : (Double) value;
     }
 
-    Boolean getMutability(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme).isMutable();
+    // Assignment the TypeChecker has verified: the variable is mutable and
+    // the value has its type.
+    void set(int depth, int slot, Token name, Object value) {
+        lookup(depth, slot, name).values[slot] = value;
+    }
+
+    void setTagged(int depth, int slot, Token name, long value) {
+        Environment environment = lookup(depth, slot, name);
+        long[] primitives = environment.primitives;
+        if (primitives == null) {
+            primitives = environment.primitives = new long[environment.values.length];
         }
+        primitives[slot] = value;
+        environment.values[slot] = UNBOXED;
+    }
+
+    void setInt(int depth, int slot, Token name, int value) {
+        setTagged(depth, slot, name, Tagged.ofInt(value));
+    }
+
+    void setDouble(int depth, int slot, Token name, double value) {
+        setTagged(depth, slot, name, Tagged.ofDouble(value));
+    }
 
-        if (enclosing != null)
-            return enclosing.getMutability(name);
+    // The environment a defined variable lives in.
+    private Environment lookup(int depth, int slot, Token name) {
+        Environment environment = ancestor(depth);
+        Variable[] variables = environment.variables;
+        if (slot < variables.length && variables[slot] != null) {
+            return environment;
+        }
+        throw undefined(name);
+    }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    private static RuntimeError undefined(Token name) {
+        return new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
     @SuppressWarnings("incomplete-switch")
-    void assign(Token name, Object value) {
-        TokenType type = getType(name);
-        boolean mutable = getMutability(name);
-        if (mutable) {
-            switch (type) {
-                case STRING:
-                    if (value instanceof String) {
-                        values.put(name.lexeme, new Variable(TokenType.STRING, value, mutable));
-                        return;
-                    } else {
-                        throw new RuntimeError(name,
-                                "Cannot assign the value '" + value + "' to variable of type " + type + ".");
-                    }
-                case CHAR:
-                    if (value instanceof Character) {
-                        values.put(name.lexeme, new Variable(TokenType.CHAR, value, mutable));
-                        return;
-                    } else {
-                        throw new RuntimeError(name,
-                                "Cannot assign the value '" + value + "' to variable of type " + type + ".");
-                    }
-                case INT:
-                    if (value instanceof Integer) {
-                        values.put(name.lexeme, new Variable(TokenType.INT, value, mutable));
-                        return;
-                    } else {
-                        throw new RuntimeError(name,
-                                "Cannot assign the value '" + value + "' to variable of type " + type + ".");
-                    }
-                case FLOAT:
-                    if (value instanceof Double) {
-                        values.put(name.lexeme, new Variable(TokenType.FLOAT, value, mutable));
-                        return;
-                    } else {
-                        throw new RuntimeError(name,
-                                "Cannot assign the value '" + value + "' to variable of type " + type + ".");
-                    }
-                case BOOL:
-                    if (value instanceof Boolean) {
-                        values.put(name.lexeme, new Variable(TokenType.BOOL, value, mutable));
-                        return;
-                    } else {
-                        throw new RuntimeError(name,
-                                "Cannot assign the value '" + value + "' to variable of type " + type + ".");
-                    }
-            }
-            if (enclosing != null) {
-                enclosing.assign(name, value);
-                return;
-            }
-        } else {
+    void assign(int depth, int slot, Token name, Object value) {
+        Environment environment = lookup(depth, slot, name);
+        Variable variable = environment.variables[slot];
+        TokenType type = variable.getType();
+        if (!variable.isMutable()) {
             throw new RuntimeError(name,
                     "Cannot assign the value '" + value + "' to an immutable variable");
         }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        boolean matches = false;
+        switch (type) {
+            case STRING:
+                matches = value instanceof String;
+                break;
+            case CHAR:
+                matches = value instanceof Character;
+                break;
+            case INT:
+                matches = value instanceof Integer;
+                break;
+            case FLOAT:
+                matches = value instanceof Double;
+                break;
+            case BOOL:
+                matches = value instanceof Boolean;
+                break;
+        }
+        if (!matches) {
+            throw new RuntimeError(name,
+                    "Cannot assign the value '" + value + "' to variable of type " + type + ".");
+        }
+        environment.values[slot] = value;
     }
 }
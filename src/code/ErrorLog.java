@@ -0,0 +1,43 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Holds on to the errors found by work that runs off the main thread, so they
+// can be reported in source order once the pieces are put back together.
+class ErrorLog {
+    private final List<Integer> lines = new ArrayList<>();
+    private final List<Integer> columns = new ArrayList<>();
+    private final List<Token> tokens = new ArrayList<>();
+    private final List<String> messages = new ArrayList<>();
+
+    void error(int line, int col, String message) {
+        lines.add(line);
+        columns.add(col);
+        tokens.add(null);
+        messages.add(message);
+    }
+
+    void error(Token token, String message) {
+        lines.add(token.line());
+        columns.add(-1);
+        tokens.add(token);
+        messages.add(message);
+    }
+
+    boolean isEmpty() {
+        return messages.isEmpty();
+    }
+
+    // Passes every logged error on to Code. Errors logged by line and column
+    // are moved down by lineOffset lines.
+    void report(int lineOffset) {
+        for (int i = 0; i < messages.size(); i++) {
+            if (tokens.get(i) != null) {
+                Code.error(tokens.get(i), messages.get(i));
+            } else {
+                Code.error(lines.get(i) + lineOffset, columns.get(i), messages.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package code;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compares the Interpreter's visitor dispatch with the SwitchInterpreter's
+// sealed records, the ClosureCompiler's lambdas, the VM's bytecode and the
+// JvmCompiler's hidden classes. Runs the given CODE files, or a generated
+// arithmetic heavy loop and a call heavy recursive FN when no file is given. Only running is timed: each round
+// resolves and optimizes the parsed program for a new Interpreter first. Each
+// engine runs in its own JVM, since sharing one JIT profile between them blurs
+// the numbers.
+//
+// Usage: java code.EvaluatorBenchmark [file...]
+public class EvaluatorBenchmark {
+    private static final int WARMUP_ROUNDS = 15;
+    private static final int MEASURED_ROUNDS = 20;
+    private static final String[] MODES = { "--visitor", "--records", "--closures", "--vm", "--jvm" };
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && Arrays.asList(MODES).contains(args[0])) {
+            for (Map.Entry<String, String> program : programs(Arrays.copyOfRange(args, 1, args.length)).entrySet()) {
+                System.out.printf("%s: %s %.1f ms%n", program.getKey(), args[0].substring(2),
+                        measure(program.getValue(), args[0]));
+            }
+            return;
+        }
+
+        for (String mode : MODES) {
+            List<String> command = new ArrayList<>(Arrays.asList(
+                    Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"), EvaluatorBenchmark.class.getName(), mode));
+            command.addAll(Arrays.asList(args));
+            new ProcessBuilder(command).inheritIO().start().waitFor();
+        }
+    }
+
+    private static Map<String, String> programs(String[] paths) throws IOException {
+        Map<String, String> programs = new LinkedHashMap<>();
+        if (paths.length == 0) {
+            programs.put("arithmetic", arithmetic(300000));
+            programs.put("calls", calls(24));
+        }
+        for (String path : paths) {
+            programs.put(path, new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset()));
+        }
+        return programs;
+    }
+
+    // Reports the fastest measured round, which is the least disturbed by GC
+    // and other work on the machine.
+    private static double measure(String source, String mode) {
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        if (Code.hadError) {
+            throw new IllegalStateException("The program does not parse.");
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < WARMUP_ROUNDS + MEASURED_ROUNDS; i++) {
+            Interpreter interpreter = new Interpreter();
+            List<Stmt> compiled = interpreter.compile(statements);
+            if (compiled == null) {
+                throw new IllegalStateException("The program has type errors.");
+            }
+            SwitchInterpreter records = null;
+            List<SealedStmt> converted = null;
+            ClosureCompiler closures = null;
+            ClosureCompiler.Action program = null;
+            VM vm = null;
+            Chunk chunk = null;
+            JvmCompiler jvm = null;
+            JvmCompiler.Body body = null;
+            if (mode.equals("--records")) {
+                records = new SwitchInterpreter(interpreter);
+                converted = SwitchInterpreter.convert(compiled);
+            } else if (mode.equals("--closures")) {
+                closures = new ClosureCompiler(interpreter);
+                program = closures.compile(compiled);
+            } else if (mode.equals("--vm")) {
+                vm = new VM(interpreter);
+                chunk = BytecodeCompiler.compile(compiled);
+            } else if (mode.equals("--jvm")) {
+                jvm = new JvmCompiler(interpreter);
+                body = jvm.compile(compiled);
+            }
+
+            long started = System.nanoTime();
+            if (records != null) {
+                records.run(converted);
+            } else if (closures != null) {
+                closures.run(program);
+            } else if (vm != null) {
+                vm.run(chunk);
+            } else if (jvm != null) {
+                jvm.run(body);
+            } else {
+                interpreter.run(compiled);
+            }
+            if (i >= WARMUP_ROUNDS) {
+                best = Math.min(best, System.nanoTime() - started);
+            }
+        }
+        return best / 1e6;
+    }
+
+    static String arithmetic(int iterations) {
+        StringBuilder source = new StringBuilder();
+        source.append("BEGIN CODE\n");
+        source.append("INT i = 0, total = 0\n");
+        source.append("FLOAT x = 1.0\n");
+        source.append("WHILE (i < ").append(iterations).append(")\n");
+        source.append("BEGIN WHILE\n");
+        source.append("    total = total + (i * 7 - 3) % 11 + i / 5\n");
+        source.append("    IF (total > 100000)\n");
+        source.append("    BEGIN IF\n");
+        source.append("        total = total - 100000\n");
+        source.append("    END IF\n");
+        source.append("    x = x - 0.5 * 2.0\n");
+        source.append("    i = i + 1\n");
+        source.append("END WHILE\n");
+        source.append("END CODE\n");
+        return source.toString();
+    }
+
+    static String calls(int n) {
+        StringBuilder source = new StringBuilder();
+        source.append("FN INT fib(INT n)\n");
+        source.append("BEGIN FN\n");
+        source.append("    IF (n < 2)\n");
+        source.append("    BEGIN IF\n");
+        source.append("        RETURN n\n");
+        source.append("    END IF\n");
+        source.append("    RETURN fib(n - 1) + fib(n - 2)\n");
+        source.append("END FN\n");
+        source.append("BEGIN CODE\n");
+        source.append("INT result = fib(").append(n).append(")\n");
+        source.append("END CODE\n");
+        return source.toString();
+    }
+}
@@ -26,6 +26,11 @@ return visitor.visitAssignExpr(this);
 
 final Token name;
 final Expr value;
+// Set by the Resolver: how many environments up the variable lives, and its slot there.
+int depth = -1;
+int slot = -1;
+// Set by the TypeChecker when the value always has the variable's type.
+boolean verified = false;
 }
 static class Binary extends Expr {
    Binary(Expr left, Token operator, Expr right) {
@@ -42,6 +47,12 @@ return visitor.visitBinaryExpr(this);
 final Expr left;
 final Token operator;
 final Expr right;
+// Set by the TypeChecker when the operand types are known to be valid.
+boolean verified = false;
+// Set by the TypeChecker with verified: the type both operands have.
+TokenType operandType = null;
+// Set by the Interpreter from the operand types seen at run time.
+SpecializedBinary specialized = null;
 }
 static class Call extends Expr {
    Call(Expr callee, Token paren, List<Expr> arguments) {
@@ -58,6 +69,19 @@ return visitor.visitCallExpr(this);
 final Expr callee;
 final Token paren;
 final List<Expr> arguments;
+// Set by the TypeChecker when the callee, arity and argument types are known to be valid.
+boolean verified = false;
+// Set by the Inliner: the callee's body rewritten to run in the caller's
+// environment, and the caller slots that hold the arguments (-1 when an
+// argument is a literal the body uses directly).
+Expr inlined = null;
+int[] argumentSlots = null;
+// Set by the Interpreter: the global callable this call found, valid while
+// the global environment is cachedGlobals at version cachedVersion. The
+// Watcher runs unchanged calls again with new globals.
+CodeCallable cachedCallee = null;
+Environment cachedGlobals = null;
+int cachedVersion;
 }
 static class Grouping extends Expr {
    Grouping(Expr expression) {
@@ -112,6 +136,8 @@ return visitor.visitUnaryExpr(this);
 
 final Token operator;
 final Expr right;
+// Set by the TypeChecker when the operand type is known to be valid.
+boolean verified = false;
 }
 static class Variable extends Expr {
    Variable(Token name) {
@@ -124,6 +150,9 @@ return visitor.visitVariableExpr(this);
 }
 
 final Token name;
+// Set by the Resolver: how many environments up the variable lives, and its slot there.
+int depth = -1;
+int slot = -1;
 }
 
 abstract <R> R accept(Visitor<R> visitor);
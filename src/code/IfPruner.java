@@ -0,0 +1,64 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Removes IF arms whose conditions are literals, and replaces the IF with the
+// statements that run when that is known. An ELSE IF arm only runs the first
+// statement of its branch, and an arm with an empty branch lets the next arm
+// be tried, so arms are pruned with that in mind.
+class IfPruner extends AstRewriter {
+    @Override
+    void rewrite(Stmt statement, List<Stmt> out) {
+        if (!(statement instanceof Stmt.If)) {
+            super.rewrite(statement, out);
+            return;
+        }
+
+        Stmt.If stmt = (Stmt.If) statement.accept(this);
+        boolean constant = stmt.condition instanceof Expr.Literal;
+        if (constant && Interpreter.isTruthy(((Expr.Literal) stmt.condition).value)) {
+            out.addAll(stmt.thenBranch);
+            return;
+        }
+
+        List<Expr> elseIfConditions = new ArrayList<>();
+        List<List<Stmt>> elseIfBranches = new ArrayList<>();
+        List<Stmt> elseBranch = stmt.elseBranch;
+        for (int i = 0; i < stmt.elseIfConditions.size(); i++) {
+            Expr condition = stmt.elseIfConditions.get(i);
+            List<Stmt> branch = stmt.elseIfBranches.get(i);
+            if (!(condition instanceof Expr.Literal)) {
+                elseIfConditions.add(condition);
+                elseIfBranches.add(branch);
+            } else if (Interpreter.isTruthy(((Expr.Literal) condition).value) && !branch.isEmpty()) {
+                // This arm is taken whenever it is reached, so nothing after
+                // it can run.
+                elseIfConditions.add(condition);
+                elseIfBranches.add(branch.subList(0, 1));
+                elseBranch = null;
+                break;
+            }
+        }
+
+        if (constant) {
+            if (elseIfConditions.isEmpty()) {
+                if (elseBranch != null) {
+                    out.addAll(elseBranch);
+                }
+                return;
+            }
+            if (elseIfConditions.size() == 1 && elseIfConditions.get(0) instanceof Expr.Literal) {
+                out.add(elseIfBranches.get(0).get(0));
+                return;
+            }
+        }
+
+        if (elseIfConditions.size() == stmt.elseIfConditions.size() && elseBranch == stmt.elseBranch
+                && elseIfBranches.equals(stmt.elseIfBranches)) {
+            out.add(stmt);
+        } else {
+            out.add(new Stmt.If(stmt.condition, stmt.thenBranch, elseIfConditions, elseIfBranches, elseBranch));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Replaces reads of IMMUT variables with their values when the initializer
+// folds to a literal, so IMMUT INT N = 10 * 1024 costs nothing to use.
+//
+// A read is only replaced where the declaration is sure to have run: later in
+// the same statement list, or inside a FN body for top level constants that
+// no earlier initializer could have called into. A variable only counts if
+// its IMMUT declaration is the first one for its slot, as later ones are
+// ignored at run time, and no FN shares its slot.
+class ImmutPropagator extends AstRewriter {
+    private static class Scope {
+        final Map<Integer, Expr.Literal> constants = new HashMap<>();
+        final Set<Integer> declared = new HashSet<>();
+        final Set<Integer> functions = new HashSet<>();
+        final boolean global;
+        // Whether an initializer in this scope may have called a FN.
+        boolean called = false;
+
+        Scope(boolean global) {
+            this.global = global;
+        }
+    }
+
+    private final Interpreter interpreter;
+    private final ConstantFolder folder;
+    // Top level constants that FN bodies can use.
+    private final Map<Integer, Expr.Literal> globalsForFunctions = new HashMap<>();
+    // Constants of each environment a variable can live in, outermost first.
+    private List<Map<Integer, Expr.Literal>> chain = new ArrayList<>();
+    private Scope scope = null;
+
+    ImmutPropagator(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.folder = new ConstantFolder(interpreter);
+    }
+
+    List<Stmt> propagate(List<Stmt> statements) {
+        return rewriteScope(statements, new Scope(true));
+    }
+
+    private List<Stmt> rewriteScope(List<Stmt> statements, Scope inner) {
+        Scope enclosing = scope;
+        scope = inner;
+        chain.add(scope.constants);
+
+        List<Integer> functions = new ArrayList<>();
+        List<Stmt> rewritten = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Function) {
+                scope.functions.add(((Stmt.Function) statement).slot);
+            }
+        }
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Function) {
+                // Bodies are done once every constant in this scope is known.
+                scope.declared.add(((Stmt.Function) statement).slot);
+                functions.add(rewritten.size());
+                rewritten.add(statement);
+            } else {
+                rewrite(statement, rewritten);
+            }
+        }
+
+        chain.remove(chain.size() - 1);
+        scope = enclosing;
+        for (int index : functions) {
+            rewritten.set(index, rewriteFunction((Stmt.Function) rewritten.get(index)));
+        }
+        return rewritten;
+    }
+
+    private Stmt rewriteFunction(Stmt.Function stmt) {
+        if (stmt.body instanceof LazyBody && !((LazyBody) stmt.body).isParsed()) {
+            return stmt;
+        }
+
+        // A call's environment always has the global one as its parent.
+        List<Map<Integer, Expr.Literal>> enclosing = chain;
+        chain = new ArrayList<>();
+        chain.add(globalsForFunctions);
+        List<Stmt> body = rewriteScope(stmt.body, new Scope(false));
+        chain = enclosing;
+
+        Stmt.Function copy = new Stmt.Function(stmt.name, stmt.params, body, stmt.returnType);
+        copy.slot = stmt.slot;
+        copy.locals = stmt.locals;
+        copy.verified = stmt.verified;
+        return copy;
+    }
+
+    private void declare(int slot, Expr initializer, boolean mutable, TokenType type) {
+        boolean first = scope.declared.add(slot);
+        scope.called |= initializer != null && containsCall(initializer);
+        if (!first || mutable || initializer == null || scope.functions.contains(slot)
+                || (scope.global && interpreter.globals.isDefined(slot))) {
+            return;
+        }
+
+        Expr value = folder.rewrite(initializer);
+        if (value instanceof Expr.Literal && TypeChecker.hasType(((Expr.Literal) value).value, type)) {
+            scope.constants.put(slot, (Expr.Literal) value);
+            if (scope.global && !scope.called) {
+                globalsForFunctions.put(slot, (Expr.Literal) value);
+            }
+        }
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = rewriteScope(stmt.statements, new Scope(false));
+        Stmt.Block copy = new Stmt.Block(statements);
+        copy.locals = stmt.locals;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        return rewriteFunction(stmt);
+    }
+
+    @Override
+    public Stmt visitStringStmt(Stmt.String stmt) {
+        Stmt.String rewritten = (Stmt.String) super.visitStringStmt(stmt);
+        declare(stmt.slot, rewritten.initializer, stmt.mutable, TokenType.STRING);
+        return rewritten;
+    }
+
+    @Override
+    public Stmt visitIntStmt(Stmt.Int stmt) {
+        Stmt.Int rewritten = (Stmt.Int) super.visitIntStmt(stmt);
+        declare(stmt.slot, rewritten.initializer, stmt.mutable, TokenType.INT);
+        return rewritten;
+    }
+
+    @Override
+    public Stmt visitFloatStmt(Stmt.Float stmt) {
+        Stmt.Float rewritten = (Stmt.Float) super.visitFloatStmt(stmt);
+        declare(stmt.slot, rewritten.initializer, stmt.mutable, TokenType.FLOAT);
+        return rewritten;
+    }
+
+    @Override
+    public Stmt visitCharStmt(Stmt.Char stmt) {
+        Stmt.Char rewritten = (Stmt.Char) super.visitCharStmt(stmt);
+        declare(stmt.slot, rewritten.initializer, stmt.mutable, TokenType.CHAR);
+        return rewritten;
+    }
+
+    @Override
+    public Stmt visitBoolStmt(Stmt.Bool stmt) {
+        Stmt.Bool rewritten = (Stmt.Bool) super.visitBoolStmt(stmt);
+        declare(stmt.slot, rewritten.initializer, stmt.mutable, TokenType.BOOL);
+        return rewritten;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth < chain.size()) {
+            Expr.Literal constant = chain.get(chain.size() - 1 - expr.depth).get(expr.slot);
+            if (constant != null) {
+                return constant;
+            }
+        }
+        return expr;
+    }
+}
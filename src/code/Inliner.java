@@ -0,0 +1,289 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Copies the bodies of small top level FNs into their call sites, so a call
+// no longer looks up the callee, builds an argument list, makes an
+// Environment or throws a Return.
+//
+// A FN can be inlined when its body is a single RETURN of an expression of at
+// most budget nodes (counting what gets inlined into it), the TypeChecker
+// verified it, it assigns none of its parameters, and it cannot reach itself
+// through calls. Only calls the TypeChecker verified are replaced. Each
+// argument gets a slot of its own in the caller's environment, a new global or
+// one more local, and is evaluated into it in order before the body runs,
+// just like a call. Literal arguments are used in place instead.
+class Inliner extends AstRewriter {
+    static int budget = 24;
+
+    private final Interpreter interpreter;
+    private final Map<Integer, Stmt.Function> functions = new HashMap<>();
+    private final Map<Integer, Integer> sizes = new HashMap<>();
+    private final Set<Integer> recursive = new HashSet<>();
+
+    // The FN being rewritten, or null at top level.
+    private Stmt.Function function = null;
+    private int locals;
+    private int inlined = 0;
+
+    Inliner(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    List<Stmt> inline(List<Stmt> statements) {
+        Map<Integer, Set<Integer>> calls = new HashMap<>();
+        Set<Integer> declared = new HashSet<>();
+        for (Stmt statement : statements) {
+            if (!(statement instanceof Stmt.Function)) {
+                continue;
+            }
+            Stmt.Function declaration = (Stmt.Function) statement;
+            if (!declared.add(declaration.slot)) {
+                functions.remove(declaration.slot);
+                continue;
+            }
+            calls.put(declaration.slot, callees(declaration));
+            if (body(declaration) != null) {
+                functions.put(declaration.slot, declaration);
+            }
+        }
+
+        for (int slot : functions.keySet()) {
+            if (reaches(slot, slot, calls, new HashSet<>())) {
+                recursive.add(slot);
+            }
+        }
+        return rewrite(statements);
+    }
+
+    // The returned expression, if the body is nothing but a RETURN of one.
+    private static Expr body(Stmt.Function declaration) {
+        if (!declaration.verified || declaration.returnType == null || declaration.body.size() != 1
+                || (declaration.body instanceof LazyBody && !((LazyBody) declaration.body).isParsed())
+                || !(declaration.body.get(0) instanceof Stmt.Return)) {
+            return null;
+        }
+        Expr value = ((Stmt.Return) declaration.body.get(0)).value;
+        return assignsParameter(value) ? null : value;
+    }
+
+    // Parameters are mutable, and an inlined body has no slots of its own to
+    // assign them in: a literal argument has none at all.
+    private static boolean assignsParameter(Expr expr) {
+        boolean[] assigns = {false};
+        new AstRewriter() {
+            @Override
+            public Expr visitAssignExpr(Expr.Assign expr) {
+                if (expr.depth == 0) {
+                    assigns[0] = true;
+                }
+                return super.visitAssignExpr(expr);
+            }
+        }.rewrite(expr);
+        return assigns[0];
+    }
+
+    // Slots of the globals called anywhere in a FN, nested FNs included.
+    private static Set<Integer> callees(Stmt.Function declaration) {
+        Set<Integer> callees = new HashSet<>();
+        new AstRewriter() {
+            @Override
+            public Expr visitCallExpr(Expr.Call expr) {
+                if (expr.callee instanceof Expr.Variable && ((Expr.Variable) expr.callee).depth == 1) {
+                    callees.add(((Expr.Variable) expr.callee).slot);
+                }
+                return super.visitCallExpr(expr);
+            }
+        }.rewrite(declaration.body);
+        return callees;
+    }
+
+    private static boolean reaches(int from, int to, Map<Integer, Set<Integer>> calls, Set<Integer> seen) {
+        Set<Integer> callees = calls.get(from);
+        if (callees == null || !seen.add(from)) {
+            return false;
+        }
+        for (int callee : callees) {
+            if (callee == to || reaches(callee, to, calls, seen)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The FN a call would be inlined from, or null.
+    private Stmt.Function target(Expr.Call expr, int globalDepth) {
+        if (!expr.verified || !(expr.callee instanceof Expr.Variable)) {
+            return null;
+        }
+        Expr.Variable callee = (Expr.Variable) expr.callee;
+        if (callee.depth != globalDepth || recursive.contains(callee.slot)) {
+            return null;
+        }
+        Stmt.Function declaration = functions.get(callee.slot);
+        if (declaration == null || size(declaration) > budget) {
+            return null;
+        }
+        return declaration;
+    }
+
+    // Number of nodes in a FN's body once calls in it have been inlined.
+    private int size(Stmt.Function declaration) {
+        Integer size = sizes.get(declaration.slot);
+        if (size == null) {
+            size = size(body(declaration));
+            sizes.put(declaration.slot, size);
+        }
+        return size;
+    }
+
+    private int size(Expr expr) {
+        int[] size = {0};
+        new AstRewriter() {
+            @Override
+            Expr rewrite(Expr expr) {
+                if (expr != null) {
+                    size[0]++;
+                }
+                return super.rewrite(expr);
+            }
+
+            @Override
+            public Expr visitCallExpr(Expr.Call expr) {
+                Stmt.Function declaration = target(expr, 1);
+                if (declaration != null) {
+                    size[0] += size(declaration);
+                }
+                return super.visitCallExpr(expr);
+            }
+        }.rewrite(expr);
+        return size[0];
+    }
+
+    private int argumentSlot() {
+        if (function == null) {
+            return interpreter.globalSlot("inline#" + inlined++);
+        }
+        return locals++;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        // Only .codec files have blocks, and none are worth a frame of their
+        // own here.
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        Stmt.Function enclosing = function;
+        int enclosingLocals = locals;
+        function = stmt;
+        locals = stmt.locals;
+        List<Stmt> body = rewrite(stmt.body);
+        Stmt.Function copy = stmt;
+        if (body != stmt.body) {
+            copy = new Stmt.Function(stmt.name, stmt.params, body, stmt.returnType);
+            copy.slot = stmt.slot;
+            copy.locals = locals;
+            copy.verified = stmt.verified;
+        }
+        function = enclosing;
+        locals = enclosingLocals;
+        return copy;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr.Call call = (Expr.Call) super.visitCallExpr(expr);
+        int globalDepth = function == null ? 0 : 1;
+        Stmt.Function declaration = call.inlined == null ? target(call, globalDepth) : null;
+        if (declaration == null) {
+            return call;
+        }
+
+        int[] argumentSlots = new int[call.arguments.size()];
+        Expr[] arguments = new Expr[argumentSlots.length];
+        boolean constant = true;
+        for (int i = 0; i < argumentSlots.length; i++) {
+            Expr argument = call.arguments.get(i);
+            if (argument instanceof Expr.Literal) {
+                argumentSlots[i] = -1;
+                arguments[i] = argument;
+            } else {
+                constant = false;
+                argumentSlots[i] = argumentSlot();
+                Expr.Variable parameter = new Expr.Variable(declaration.params.get(i).name);
+                parameter.depth = 0;
+                parameter.slot = argumentSlots[i];
+                arguments[i] = parameter;
+            }
+        }
+
+        Expr body = rewrite(new Relocator(arguments, globalDepth).rewrite(body(declaration)));
+        if (constant) {
+            // With nothing but literals passed in, the call may fold away.
+            body = new ConstantFolder(interpreter).rewrite(body);
+            if (body instanceof Expr.Literal) {
+                return body;
+            }
+        }
+
+        Expr.Call copy = call == expr ? new Expr.Call(call.callee, call.paren, call.arguments) : call;
+        copy.inlined = body;
+        copy.argumentSlots = argumentSlots;
+        return copy;
+    }
+
+    // Moves a FN body into the caller's environment: parameters become the
+    // expressions that hold the arguments and globals are found at the
+    // caller's depth. Calls are copied without anything inlined into them,
+    // so the Inliner can inline them again for the caller.
+    private static class Relocator extends AstRewriter {
+        private final Expr[] arguments;
+        private final int globalDepth;
+
+        Relocator(Expr[] arguments, int globalDepth) {
+            this.arguments = arguments;
+            this.globalDepth = globalDepth;
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr) {
+            if (expr.depth == 0) {
+                return arguments[expr.slot];
+            }
+            Expr.Variable copy = new Expr.Variable(expr.name);
+            copy.depth = globalDepth;
+            copy.slot = expr.slot;
+            return copy;
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr) {
+            // Bodies that assign a parameter are not inlined, so only globals
+            // are assigned.
+            Expr.Assign copy = new Expr.Assign(expr.name, rewrite(expr.value));
+            copy.depth = globalDepth;
+            copy.slot = expr.slot;
+            copy.verified = expr.verified;
+            return copy;
+        }
+
+        @Override
+        public Expr visitCallExpr(Expr.Call expr) {
+            List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+            for (Expr argument : expr.arguments) {
+                arguments.add(rewrite(argument));
+            }
+            Expr.Call copy = new Expr.Call(rewrite(expr.callee), expr.paren, arguments);
+            copy.verified = expr.verified;
+            return copy;
+        }
+    }
+}
@@ -1,7 +1,8 @@
 package code;
 
 import java.util.List;
-import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
 
 import code.Expr.Assign;
 import code.Expr.Binary;
@@ -28,140 +29,163 @@ import java.util.Scanner;
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
     final Environment globals = new Environment();
+    private final Map<String, Integer> globalSlots = new HashMap<>();
+    private final TypeChecker checker = new TypeChecker(this);
     private Environment environment = globals;
+    // Set while running with --tiered: counts calls and loops, and takes
+    // over the hot ones with compiled code.
+    Tiering tiering = null;
 
     Interpreter() {
-        globals.define("clock", new CodeCallable() {
+        globals.define(globalSlot("clock"), new Native(0) {
             @Override
-            public int arity() {
-                return 0;
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
+            public Object call0(Interpreter interpreter) {
                 return (double) System.currentTimeMillis() / 1000.0;
             }
-
-            @Override
-            public String toString() {
-                return "<native fn>";
-            }
         });
 
-        globals.define("ceil", new CodeCallable() {
-
-            @Override
-            public int arity() {
-                return 1;
-            }
-
+        globals.define(globalSlot("ceil"), new Native(1) {
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return Math.ceil((double) arguments.get(0));
+            public Object call1(Interpreter interpreter, Object argument) {
+                return Math.ceil((double) argument);
             }
+        });
 
+        globals.define(globalSlot("floor"), new Native(1) {
             @Override
-            public String toString() {
-                return "<native fn>";
+            public Object call1(Interpreter interpreter, Object argument) {
+                return Math.floor((double) argument);
             }
         });
 
-        globals.define("floor", new CodeCallable() {
-
+        globals.define(globalSlot("sqrt"), new Native(1) {
             @Override
-            public int arity() {
-                return 1;
+            public Object call1(Interpreter interpreter, Object argument) {
+                return Math.sqrt((double) argument);
             }
+        });
 
+        globals.define(globalSlot("abs"), new Native(1) {
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return Math.floor((double) arguments.get(0));
+            public Object call1(Interpreter interpreter, Object argument) {
+                return Math.abs((double) argument);
             }
+        });
 
+        globals.define(globalSlot("pow"), new Native(2) {
             @Override
-            public String toString() {
-                return "<native fn>";
+            public Object call2(Interpreter interpreter, Object base, Object exponent) {
+                return Math.pow((double) base, (double) exponent);
             }
         });
 
-        globals.define("sqrt", new CodeCallable() {
-
+        globals.define(globalSlot("scanString"), new Native(1) {
             @Override
-            public int arity() {
-                return 1;
+            public Object call1(Interpreter interpreter, Object prompt) {
+                Scanner scanner = new Scanner(System.in);
+                System.out.println(prompt);
+                String input = scanner.nextLine();
+                scanner.close();
+                return input;
             }
+        });
+    }
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return Math.sqrt((double) arguments.get(0));
-            }
+    // A native FN. Each overrides the call of its own arity, and calls made
+    // with a list or an array come to that one. Callers check the arity
+    // first, so any other count is a bug in the caller.
+    private abstract static class Native implements CodeCallable {
+        private final int arity;
 
-            @Override
-            public String toString() {
-                return "<native fn>";
-            }
-        });
+        Native(int arity) {
+            this.arity = arity;
+        }
 
-        globals.define("abs", new CodeCallable() {
+        @Override
+        public int arity() {
+            return arity;
+        }
 
-            @Override
-            public int arity() {
-                return 1;
-            }
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return call(interpreter, arguments.toArray());
+        }
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return Math.abs((double) arguments.get(0));
+        @Override
+        public Object call(Interpreter interpreter, Object[] arguments) {
+            switch (arguments.length) {
+                case 0:
+                    return call0(interpreter);
+                case 1:
+                    return call1(interpreter, arguments[0]);
+                case 2:
+                    return call2(interpreter, arguments[0], arguments[1]);
+                case 3:
+                    return call3(interpreter, arguments[0], arguments[1], arguments[2]);
+                default:
+                    throw wrongArity(arguments.length);
             }
+        }
 
-            @Override
-            public String toString() {
-                return "<native fn>";
-            }
-        });
+        @Override
+        public Object call0(Interpreter interpreter) {
+            throw wrongArity(0);
+        }
 
-        globals.define("pow", new CodeCallable() {
+        @Override
+        public Object call1(Interpreter interpreter, Object first) {
+            throw wrongArity(1);
+        }
 
-            @Override
-            public int arity() {
-                return 2;
-            }
+        @Override
+        public Object call2(Interpreter interpreter, Object first, Object second) {
+            throw wrongArity(2);
+        }
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return Math.pow((double) arguments.get(0), (double) arguments.get(1));
-            }
+        @Override
+        public Object call3(Interpreter interpreter, Object first, Object second, Object third) {
+            throw wrongArity(3);
+        }
 
-            @Override
-            public String toString() {
-                return "<native fn>";
-            }
-        });
+        private IllegalStateException wrongArity(int count) {
+            return new IllegalStateException("Expected " + arity + " arguments but got " + count + ".");
+        }
 
-        globals.define("scanString", new CodeCallable() {
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
 
-            @Override
-            public int arity() {
-                return 1;
-            }
+    // Slot of a global name, handed out the first time the name is seen.
+    int globalSlot(String name) {
+        Integer slot = globalSlots.get(name);
+        if (slot == null) {
+            slot = globalSlots.size();
+            globalSlots.put(name, slot);
+            globals.reserve(slot + 1);
+        }
+        return slot;
+    }
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                Scanner scanner = new Scanner(System.in);
-                System.out.println(arguments.get(0));
-                String input = scanner.nextLine();
-                scanner.close();
-                return input;
-            }
+    void interpret(List<Stmt> statements) {
+        statements = compile(statements);
+        if (statements != null) {
+            run(statements);
+        }
+    }
 
-            @Override
-            public String toString() {
-                return "<native fn>";
-            }
-        });
+    // Resolves, checks and optimizes a program, or returns null if it has
+    // type errors.
+    List<Stmt> compile(List<Stmt> statements) {
+        new Resolver(this).resolve(statements);
+        if (!checker.check(statements)) {
+            return null;
+        }
+        return Optimizer.optimize(statements, this);
     }
 
-    void interpret(List<Stmt> statements) {
+    void run(List<Stmt> statements) {
         try {
             for (Stmt statement : statements) {
                 execute(statement);
@@ -173,40 +197,64 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
     @Override
     public Object visitBinaryExpr(Binary expr) {
+        if (isPrimitive(expr) && (readsUnboxed(expr.left) || readsUnboxed(expr.right))) {
+            return Tagged.box(tagged(expr));
+        }
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
 
-        switch (expr.operator.type) {
+        SpecializedBinary specialized = expr.specialized;
+        if (specialized != SpecializedBinary.GENERIC) {
+            if (specialized == null) {
+                specialized = SpecializedBinary.of(expr, left, right);
+                expr.specialized = specialized;
+            }
+            Object result = specialized.apply(left, right);
+            if (result != SpecializedBinary.MISS) {
+                return result;
+            }
+            expr.specialized = SpecializedBinary.GENERIC;
+        }
+        return binary(expr.operator, expr.verified, left, right);
+    }
+
+    static Object binary(Token operator, boolean verified, Object left, Object right) {
+        switch (operator.type) {
             case GREATER_THAN:
-                checkNumberOperands(expr.operator, left, right);
+                if (!verified)
+                    checkNumberOperands(operator, left, right);
                 if (left instanceof Integer && right instanceof Integer) {
                     return (int) left > (int) right;
                 } else {
                     return (int) left < (int) right;
                 }
             case GREATER_THAN_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                if (!verified)
+                    checkNumberOperands(operator, left, right);
                 if (left instanceof Integer && right instanceof Integer) {
                     return (int) left >= (int) right;
                 } else {
                     return (int) left >= (int) right;
                 }
             case LESS_THAN:
-                checkNumberOperands(expr.operator, left, right);
+                if (!verified)
+                    checkNumberOperands(operator, left, right);
                 if (left instanceof Integer && right instanceof Integer) {
                     return (int) left < (int) right;
                 } else {
                     return (int) left < (int) right;
                 }
             case LESS_THAN_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                if (!verified)
+                    checkNumberOperands(operator, left, right);
                 if (left instanceof Integer && right instanceof Integer) {
                     return (int) left <= (int) right;
                 } else {
                     return (int) left <= (int) right;
                 }
             case MINUS:
-                checkNumberOperands(expr.operator, left, right);
+                if (!verified)
+                    checkNumberOperands(operator, left, right);
 
                 if (left instanceof Integer && right instanceof Integer) {
                     return (int) left - (int) right;
@@ -214,29 +262,32 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
                     return (double) left - (double) right;
                 }
             case SLASH:
-                checkNumberOperands(expr.operator, left, right);
+                if (!verified)
+                    checkNumberOperands(operator, left, right);
                 if (left instanceof Integer && right instanceof Integer) {
                     if ((int) right == 0) {
-                        throw new RuntimeError(expr.operator, "Cannot divide by zero.");
+                        throw new RuntimeError(operator, "Cannot divide by zero.");
                     } else {
                         return (int) left / (int) right;
                     }
                 } else {
                     if ((double) right == 0) {
-                        throw new RuntimeError(expr.operator, "Cannot divide by zero.");
+                        throw new RuntimeError(operator, "Cannot divide by zero.");
                     } else {
                         return (double) left / (double) right;
                     }
                 }
             case STAR:
-                checkNumberOperands(expr.operator, left, right);
+                if (!verified)
+                    checkNumberOperands(operator, left, right);
                 if (left instanceof Integer && right instanceof Integer) {
                     return (int) left * (int) right;
                 } else {
                     return (double) left * (double) right;
                 }
             case PLUS:
-                checkNumberOperands(expr.operator, left, right);
+                if (!verified)
+                    checkNumberOperands(operator, left, right);
                 if (left instanceof Integer && right instanceof Integer) {
                     return (int) left + (int) right;
                 } else if (left instanceof Double && right instanceof Double) {
@@ -246,7 +297,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
             case AMPERSAND:
                 return left.toString() + right.toString();
             case MODULO:
-                checkNumberOperands(expr.operator, left, right);
+                if (!verified)
+                    checkNumberOperands(operator, left, right);
                 if (left instanceof Integer && right instanceof Integer) {
                     return (int) left % (int) right;
                 } else {
@@ -275,20 +327,143 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
     @Override
     public Object visitUnaryExpr(Unary expr) {
-        Object right = evaluate(expr.right);
+        if (isPrimitive(expr) && readsUnboxed(expr.right)) {
+            return Tagged.box(tagged(expr));
+        }
+        return unary(expr.operator, expr.verified, evaluate(expr.right));
+    }
+
+    // Whether an expression is INT or FLOAT arithmetic, or an INT comparison,
+    // the TypeChecker verified. Those are evaluated as Tagged values when an
+    // operand is a variable, which may be held unboxed, or another of them,
+    // so only the result is boxed, if anything is. Other operands come boxed
+    // anyway, and keep the SpecializedBinary path. FLOAT comparisons are not
+    // verified, so they are left to binary, where they have always failed.
+    private static boolean isPrimitive(Expr expr) {
+        if (expr instanceof Binary) {
+            Binary binary = (Binary) expr;
+            return binary.operandType == TokenType.INT || binary.operandType == TokenType.FLOAT;
+        } else if (expr instanceof Unary) {
+            return ((Unary) expr).verified;
+        } else if (expr instanceof Grouping) {
+            return isPrimitive(((Grouping) expr).expression);
+        } else if (expr instanceof Literal) {
+            Object value = ((Literal) expr).value;
+            return value instanceof Integer || value instanceof Double;
+        }
+        return false;
+    }
+
+    private static boolean readsUnboxed(Expr expr) {
+        return expr instanceof Variable || !(expr instanceof Literal) && isPrimitive(expr);
+    }
+
+    private static boolean isComparison(TokenType operator) {
+        return operator == TokenType.GREATER_THAN || operator == TokenType.GREATER_THAN_EQUAL
+                || operator == TokenType.LESS_THAN || operator == TokenType.LESS_THAN_EQUAL;
+    }
 
-        switch (expr.operator.type) {
+    // Evaluates an operand of a primitive expression. Its type is known, so
+    // it is never null, and anything that is not primitive itself is
+    // evaluated as usual and unboxed.
+    private long tagged(Expr expr) {
+        if (expr instanceof Variable) {
+            Variable variable = (Variable) expr;
+            return environment.getTagged(variable.depth, variable.slot, variable.name);
+        } else if (expr instanceof Literal) {
+            return Tagged.unbox(((Literal) expr).value);
+        } else if (expr instanceof Binary && isPrimitive(expr)) {
+            Binary binary = (Binary) expr;
+            long left = tagged(binary.left);
+            long right = tagged(binary.right);
+            if (binary.operandType == TokenType.INT) {
+                return intBinary(binary.operator, Tagged.asInt(left), Tagged.asInt(right));
+            }
+            return floatBinary(binary.operator, Tagged.asDouble(left), Tagged.asDouble(right));
+        } else if (expr instanceof Grouping) {
+            return tagged(((Grouping) expr).expression);
+        } else if (expr instanceof Unary && isPrimitive(expr)) {
+            Unary unary = (Unary) expr;
+            long right = tagged(unary.right);
+            if (unary.operator.type == TokenType.PLUS) {
+                return right;
+            }
+            return Tagged.isInt(right) ? Tagged.ofInt(-Tagged.asInt(right)) : Tagged.ofDouble(-Tagged.asDouble(right));
+        }
+        return Tagged.unbox(evaluate(expr));
+    }
+
+    // The same operations as binary, on verified INTs and FLOATs.
+    private static long intBinary(Token operator, int left, int right) {
+        switch (operator.type) {
+            case PLUS:
+                return Tagged.ofInt(left + right);
+            case MINUS:
+                return Tagged.ofInt(left - right);
+            case STAR:
+                return Tagged.ofInt(left * right);
+            case SLASH:
+                if (right == 0) {
+                    throw new RuntimeError(operator, "Cannot divide by zero.");
+                }
+                return Tagged.ofInt(left / right);
+            case MODULO:
+                return Tagged.ofInt(left % right);
+            case GREATER_THAN:
+                return Tagged.ofBool(left > right);
+            case GREATER_THAN_EQUAL:
+                return Tagged.ofBool(left >= right);
+            case LESS_THAN:
+                return Tagged.ofBool(left < right);
+            default:
+                return Tagged.ofBool(left <= right);
+        }
+    }
+
+    private static long floatBinary(Token operator, double left, double right) {
+        switch (operator.type) {
+            case PLUS:
+                // FLOAT + has always multiplied.
+            case STAR:
+                return Tagged.ofDouble(left * right);
+            case MINUS:
+                return Tagged.ofDouble(left - right);
+            case SLASH:
+                if (right == 0) {
+                    throw new RuntimeError(operator, "Cannot divide by zero.");
+                }
+                return Tagged.ofDouble(left / right);
+            default:
+                return Tagged.ofDouble(left % right);
+        }
+    }
+
+    // A WHILE or IF condition, with INT comparisons made without boxing.
+    private boolean condition(Expr expr) {
+        if (expr instanceof Binary) {
+            Binary binary = (Binary) expr;
+            if (binary.operandType == TokenType.INT && isComparison(binary.operator.type)) {
+                return Tagged.asBool(tagged(expr));
+            }
+        }
+        return isTruthy(evaluate(expr));
+    }
+
+    static Object unary(Token operator, boolean verified, Object right) {
+        switch (operator.type) {
             case NOT:
                 return !isTruthy(right);
             case MINUS:
-                checkNumberOperand(expr.operator, right);
+                if (!verified)
+                    checkNumberOperand(operator, right);
                 if (right instanceof Integer) {
                     return -(int) right;
                 } else {
                     return -(double) right;
                 }
             case PLUS:
-                checkNumberOperand(expr.operator, right);
+                if (!verified)
+                    checkNumberOperand(operator, right);
                 if (right instanceof Integer) {
                     return +(int) right;
                 } else {
@@ -301,7 +476,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
         return null;
     }
 
-    private Object evaluate(Expr expr) {
+    // Resolves and checks a lazy FN body before its first call. Type errors
+    // are reported, and the nodes they are in keep their run time checks.
+    void prepare(Stmt.Function declaration) {
+        new Resolver(this).resolve(declaration);
+        checker.check(declaration);
+    }
+
+    Object evaluate(Expr expr) {
         return expr.accept(this);
     }
 
@@ -322,7 +504,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null)
             return false;
         if (object instanceof Boolean)
@@ -330,7 +512,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null)
             return true;
         if (a == null)
@@ -339,20 +521,20 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
         return a.equals(b);
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
+    private static void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double || operand instanceof Integer)
             return;
         throw new RuntimeError(operator, "Operand must be an integer or a float nuimber.");
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
         if ((left instanceof Integer && right instanceof Integer)
                 || (left instanceof Double && right instanceof Double))
             return;
         throw new RuntimeError(operator, "Operand must be an integer or a float nuimber.");
     }
 
-    private String stringify(Object object) {
+    private static String stringify(Object object) {
         if (object == null)
             return "null";
 
@@ -370,19 +552,26 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
     @Override
     public Void visitExpressionStmt(Expression stmt) {
-        evaluate(stmt.expression);
+        if (stmt.expression instanceof Assign && isPrimitiveAssignment((Assign) stmt.expression)) {
+            assignTagged((Assign) stmt.expression);
+        } else {
+            evaluate(stmt.expression);
+        }
         return null;
     }
 
     @Override
     public Void visitPrintStmt(Print stmt) {
-        Object value = evaluate(stmt.expression);
+        print(evaluate(stmt.expression));
+        return null;
+    }
+
+    static void print(Object value) {
         if (value instanceof Boolean) {
             System.out.println(value.toString().toUpperCase());
         } else {
             System.out.println(stringify(value));
         }
-        return null;
     }
 
     @Override
@@ -390,13 +579,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
-            if (value instanceof String) {
-                environment.define(stmt.name.lexeme, value, TokenType.STRING, stmt.mutable);
-            } else {
+            if (!stmt.verified && !(value instanceof String)) {
                 throw new RuntimeError(stmt.name, "Value '" + value + "' is not of type String.");
             }
         }
-        environment.define(stmt.name.lexeme, value, TokenType.STRING, stmt.mutable);
+        environment.define(stmt.slot, value, TokenType.STRING, stmt.mutable);
         return null;
     }
 
@@ -405,13 +592,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
-            if (value instanceof Integer) {
-                environment.define(stmt.name.lexeme, value, TokenType.INT, stmt.mutable);
-            } else {
+            if (!stmt.verified && !(value instanceof Integer)) {
                 throw new RuntimeError(stmt.name, "Value '" + value + "' is not of type Integer.");
             }
         }
-        environment.define(stmt.name.lexeme, value, TokenType.INT, stmt.mutable);
+        environment.define(stmt.slot, value, TokenType.INT, stmt.mutable);
         return null;
     }
 
@@ -420,13 +605,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
-            if (value instanceof Double) {
-                environment.define(stmt.name.lexeme, value, TokenType.FLOAT, stmt.mutable);
-            } else {
+            if (!stmt.verified && !(value instanceof Double)) {
                 throw new RuntimeError(stmt.name, "Value '" + value + "' is not of type Float.");
             }
         }
-        environment.define(stmt.name.lexeme, value, TokenType.FLOAT, stmt.mutable);
+        environment.define(stmt.slot, value, TokenType.FLOAT, stmt.mutable);
         return null;
     }
 
@@ -435,13 +618,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
-            if (value instanceof Character) {
-                environment.define(stmt.name.lexeme, value, TokenType.CHAR, stmt.mutable);
-            } else {
+            if (!stmt.verified && !(value instanceof Character)) {
                 throw new RuntimeError(stmt.name, "Value '" + value + "' is not of type Character.");
             }
         }
-        environment.define(stmt.name.lexeme, value, TokenType.CHAR, stmt.mutable);
+        environment.define(stmt.slot, value, TokenType.CHAR, stmt.mutable);
         return null;
     }
 
@@ -450,44 +631,61 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
-            if (value instanceof Boolean) {
-                environment.define(stmt.name.lexeme, value, TokenType.BOOL, stmt.mutable);
-            } else {
+            if (!stmt.verified && !(value instanceof Boolean)) {
                 throw new RuntimeError(stmt.name, "Value '" + value + "' is not of type Boolean.");
             }
         }
-        environment.define(stmt.name.lexeme, value, TokenType.BOOL, stmt.mutable);
+        environment.define(stmt.slot, value, TokenType.BOOL, stmt.mutable);
         return null;
     }
 
     @Override
     public Object visitVariableExpr(Variable expr) {
-        return environment.get(expr.name);
+        return environment.get(expr.depth, expr.slot, expr.name);
     }
 
     @Override
     public Object visitAssignExpr(Assign expr) {
+        if (isPrimitiveAssignment(expr)) {
+            return Tagged.box(assignTagged(expr));
+        }
         Object value = evaluate(expr.value);
-        environment.assign(expr.name, value);
+        if (expr.verified) {
+            environment.set(expr.depth, expr.slot, expr.name, value);
+        } else {
+            environment.assign(expr.depth, expr.slot, expr.name, value);
+        }
+        return value;
+    }
+
+    // A verified assignment of a primitive value, which the variable keeps
+    // unboxed.
+    private static boolean isPrimitiveAssignment(Assign expr) {
+        return expr.verified && isPrimitive(expr.value);
+    }
+
+    private long assignTagged(Assign expr) {
+        long value = tagged(expr.value);
+        environment.setTagged(expr.depth, expr.slot, expr.name, value);
         return value;
     }
 
     @Override
     public Object visitBlockStmt(Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
+        executeBlock(stmt.statements, new Environment(environment, stmt.locals));
 
         return null;
     }
 
     @Override
     public Object visitIfStmt(If stmt) {
-        if (isTruthy(evaluate(stmt.condition))) {
+        if (condition(stmt.condition)) {
             for (Stmt statement : stmt.thenBranch) {
                 execute(statement);
             }
         } else {
             for (int i = 0; i < stmt.elseIfBranches.size(); i++) {
-                if (isTruthy(evaluate(stmt.elseIfConditions.get(i)))) {
+                if (condition(stmt.elseIfConditions.get(i))) {
                     for (Stmt statement : stmt.elseIfBranches.get(i)) {
                         execute(statement);
                         return null;
@@ -521,10 +719,18 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
     @Override
     public Object visitWhileStmt(While stmt) {
-        while (isTruthy(evaluate(stmt.condition))) {
+        if (stmt.hoisted != null) {
+            for (int i = 0; i < stmt.hoistedSlots.length; i++) {
+                environment.bind(stmt.hoistedSlots[i], evaluate(stmt.hoisted.get(i)));
+            }
+        }
+        while (condition(stmt.condition)) {
             for (Stmt statement : stmt.body) {
                 execute(statement);
             }
+            if (tiering != null && tiering.backEdge(stmt, environment)) {
+                break;
+            }
         }
 
         return null;
@@ -532,57 +738,119 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
     @Override
     public Object visitFunctionStmt(Function stmt) {
-        CodeFunction function = new CodeFunction(stmt);
-        environment.define(stmt.name.lexeme, function);
+        CodeFunction function = tiering != null ? tiering.function(stmt) : new CodeFunction(stmt);
+        environment.define(stmt.slot, function);
         return null;
     }
 
     @Override
     public Object visitScanStmt(Scan stmt) {
+        scan(environment, stmt.identifiers, stmt.depths, stmt.slots);
+        return null;
+    }
+
+    static void scan(Environment environment, List<Token> identifiers, int[] depths, int[] slots) {
         @SuppressWarnings("resource")
         Scanner scanner = new java.util.Scanner(System.in);
         String line = scanner.nextLine();
 
         code.Scanner tokenizer = new code.Scanner(line);
-        List<Token> tokens = tokenizer.scanTokens();
+        TokenBuffer tokens = tokenizer.scanTokens();
 
         int current = 0;
         int current2 = 0;
-        while (current2 < stmt.identifiers.size()) {
-            Object value = tokens.get(current).literal;
+        while (current2 < identifiers.size()) {
+            Object value = tokens.literal(current);
             if (value == "TRUE") {
-                environment.assign(stmt.identifiers.get(current2), true);
+                environment.assign(depths[current2], slots[current2], identifiers.get(current2), true);
             } else if (value == "FALSE") {
-                environment.assign(stmt.identifiers.get(current2), false);
+                environment.assign(depths[current2], slots[current2], identifiers.get(current2), false);
             } else {
-                environment.assign(stmt.identifiers.get(current2), value);
+                environment.assign(depths[current2], slots[current2], identifiers.get(current2), value);
             }
             current += 2;
             current2++;
         }
-        return null;
     }
 
     @Override
     public Object visitCallExpr(Call expr) {
-        Object callee = evaluate(expr.callee);
+        if (expr.inlined != null) {
+            for (int i = 0; i < expr.argumentSlots.length; i++) {
+                if (expr.argumentSlots[i] >= 0) {
+                    environment.bind(expr.argumentSlots[i], evaluate(expr.arguments.get(i)));
+                }
+            }
+            return evaluate(expr.inlined);
+        }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+        CodeCallable cached = expr.cachedGlobals == globals && expr.cachedVersion == globals.version
+                ? expr.cachedCallee
+                : null;
+        Object callee = cached != null ? cached : evaluate(expr.callee);
+
+        if (expr.verified) {
+            if (cached == null) {
+                cache(expr, (CodeCallable) callee);
+            }
+            CodeCallable function = (CodeCallable) callee;
+            List<Expr> arguments = expr.arguments;
+            switch (arguments.size()) {
+                case 0:
+                    return function.call0(this);
+                case 1:
+                    return function.call1(this, evaluate(arguments.get(0)));
+                case 2: {
+                    Object first = evaluate(arguments.get(0));
+                    return function.call2(this, first, evaluate(arguments.get(1)));
+                }
+                case 3: {
+                    Object first = evaluate(arguments.get(0));
+                    Object second = evaluate(arguments.get(1));
+                    return function.call3(this, first, second, evaluate(arguments.get(2)));
+                }
+                default:
+                    return function.call(this, evaluate(arguments));
+            }
         }
 
-        if (!(callee instanceof CodeCallable)) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+        Object[] arguments = evaluate(expr.arguments);
+        if (cached == null) {
+            if (!(callee instanceof CodeCallable)) {
+                throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+            }
+
+            CodeCallable function = (CodeCallable) callee;
+            if (arguments.length != function.arity()) {
+                throw new RuntimeError(expr.paren,
+                        "Expected " + function.arity() + " arguments but got " + arguments.length + ".");
+            }
+            cache(expr, function);
+        }
+        if (callee instanceof CodeFunction) {
+            ((CodeFunction) callee).checkArguments(expr.paren, arguments);
         }
 
-        CodeCallable function = (CodeCallable) callee;
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren,
-                    "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+        return ((CodeCallable) callee).call(this, arguments);
+    }
+
+    private Object[] evaluate(List<Expr> exprs) {
+        Object[] values = new Object[exprs.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = evaluate(exprs.get(i));
         }
+        return values;
+    }
 
-        return function.call(this, arguments);
+    // Remembers a callee found in the global environment. Locals are not
+    // cached, as a FN declared in a body is a new one on every call.
+    private void cache(Call expr, CodeCallable callee) {
+        if (expr.callee instanceof Variable
+                && environment.ancestor(((Variable) expr.callee).depth) == globals) {
+            expr.cachedCallee = callee;
+            expr.cachedGlobals = globals;
+            expr.cachedVersion = globals.version;
+        }
     }
 
     @Override
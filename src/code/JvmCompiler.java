@@ -0,0 +1,1365 @@
+package code;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static code.ClassWriter.*;
+
+// Compiles the program's top level and each FN body to JVM bytecode, defines
+// it as a hidden class and runs that, so the JIT optimizes CODE programs like
+// ordinary Java. Operators are picked from the TypeChecker's operand types as
+// in the other compilers, and the variables of a FN body are kept in JVM
+// locals where that cannot change what the program does: INTs and FLOATs
+// whose every write is known to give one stay unboxed in int and double
+// locals. Everything else lives in Environments, so globals, IMMUT, the run
+// time checks of unverified nodes and the natives are the Interpreter's.
+//
+// Compiled FNs are CodeCallables like any other, and FN bodies are compiled on
+// their first call, so lazy bodies still parse late. A body too large for one
+// JVM method is run by the Interpreter. A WHILE the Interpreter is running can
+// also be compiled on its own, for the Tiering to take over.
+class JvmCompiler {
+    // What a compiled body gives back when it ends without a RETURN.
+    static final Object NO_RETURN = new Object();
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    // Constructors of the classes defined so far, by their class files. The
+    // constants a body uses are given to each instance, so the same program
+    // compiled again, as when the Watcher runs it anew, reuses its classes
+    // and the JIT's work on them. The oldest are dropped past the limit.
+    private static final int CLASS_LIMIT = 256;
+    private static final Map<ByteBuffer, MethodHandle> CLASSES = new LinkedHashMap<ByteBuffer, MethodHandle>(16,
+            0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, MethodHandle> eldest) {
+            return size() > CLASS_LIMIT;
+        }
+    };
+    private static final String BODY = "code/JvmCompiler$Body";
+    private static final String COMPILER = "code/JvmCompiler";
+    private static final String ENVIRONMENT = "code/Environment";
+    private static final String INTERPRETER = "code/Interpreter";
+    private static final String TOKEN = "code/Token";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String RUN = "(Lcode/Environment;[Ljava/lang/Object;)Ljava/lang/Object;";
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
+    // The class every compiled body is an instance of. run takes the
+    // environment of a call, or null for a body that keeps all its variables
+    // in JVM locals, and the call's arguments.
+    abstract static class Body {
+        Object[] constants;
+        Environment globals;
+        Interpreter interpreter;
+        JvmCompiler compiler;
+        boolean needsEnvironment;
+        // Parameters kept unboxed, which a null argument cannot be.
+        int[] unboxed;
+
+        abstract Object run(Environment environment, Object[] arguments);
+
+        boolean accepts(Object[] arguments) {
+            for (int parameter : unboxed) {
+                if (arguments[parameter] == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Runs a FN body for a call of function.
+        Object call(CodeFunction function, Interpreter interpreter, Object[] arguments) {
+            Environment environment = needsEnvironment ? function.bind(interpreter, arguments) : null;
+            Object returned = run(environment, arguments);
+            return returned == NO_RETURN ? function.noReturn() : function.returned(returned);
+        }
+    }
+
+    private final Interpreter interpreter;
+    private final Environment globals;
+    // Compiled FN bodies, null for those too large to compile.
+    private final Map<Stmt.Function, Body> bodies = new IdentityHashMap<>();
+
+    JvmCompiler(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+    }
+
+    void interpret(List<Stmt> statements) {
+        statements = interpreter.compile(statements);
+        if (statements == null) {
+            return;
+        }
+        Body program = compile(statements);
+        if (program == null) {
+            interpreter.run(statements);
+        } else {
+            run(program);
+        }
+    }
+
+    // The compiled top level, or null if it is too large to compile.
+    Body compile(List<Stmt> statements) {
+        return define(new Generator(0, false, 0).compile(statements));
+    }
+
+    Body compile(Stmt.Function declaration) {
+        return define(new Generator(1, true, declaration.params.size()).compile(declaration));
+    }
+
+    // A WHILE that is already running, compiled to take over at the top of
+    // its next iteration. Every variable stays in the Environment it runs
+    // in, globalDepth links from the globals, so nothing has to be moved
+    // over, and a RETURN in it gives back its value to throw.
+    Body compile(Stmt.While loop, int globalDepth) {
+        return define(new Generator(globalDepth, true, 0).compile(loop));
+    }
+
+    void run(Body program) {
+        try {
+            program.run(globals, null);
+        } catch (RuntimeError e) {
+            Code.runtimeError(e);
+        }
+    }
+
+    private Body define(Generator generator) {
+        if (generator == null) {
+            return null;
+        }
+        Body body;
+        try {
+            body = (Body) constructor(generator.writer.toByteArray()).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not define a compiled body.", e);
+        }
+        body.constants = generator.constants.toArray();
+        body.globals = globals;
+        body.interpreter = interpreter;
+        body.compiler = this;
+        body.needsEnvironment = generator.needsEnvironment;
+        body.unboxed = generator.unboxed();
+        return body;
+    }
+
+    private static MethodHandle constructor(byte[] bytes) throws ReflectiveOperationException {
+        synchronized (CLASSES) {
+            MethodHandle constructor = CLASSES.get(ByteBuffer.wrap(bytes));
+            if (constructor == null) {
+                MethodHandles.Lookup lookup = LOOKUP.defineHiddenClass(bytes, true);
+                constructor = lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class));
+                CLASSES.put(ByteBuffer.wrap(bytes), constructor);
+            }
+            return constructor;
+        }
+    }
+
+    private Body body(Stmt.Function declaration) {
+        if (!bodies.containsKey(declaration)) {
+            bodies.put(declaration, compile(declaration));
+        }
+        return bodies.get(declaration);
+    }
+
+    // Called by compiled code for a FN statement.
+    void define(Environment environment, Stmt.Function declaration) {
+        CodeFunction function = interpreter.tiering != null ? interpreter.tiering.function(declaration)
+                : new CompiledFunction(declaration);
+        environment.define(declaration.slot, function);
+    }
+
+    static int divide(int left, int right, Token operator) {
+        if (right == 0) {
+            throw new RuntimeError(operator, "Cannot divide by zero.");
+        }
+        return left / right;
+    }
+
+    static double divide(double left, double right, Token operator) {
+        if (right == 0) {
+            throw new RuntimeError(operator, "Cannot divide by zero.");
+        }
+        return left / right;
+    }
+
+    // Stores in an Environment, with the value first so compiled code can
+    // push it before the rest, and gives the value back.
+    static Object set(Object value, Environment environment, int depth, int slot, Token name) {
+        environment.set(depth, slot, name, value);
+        return value;
+    }
+
+    static Object assign(Object value, Environment environment, int depth, int slot, Token name) {
+        environment.assign(depth, slot, name, value);
+        return value;
+    }
+
+    static void declare(Object value, Environment environment, int slot, TokenType type, boolean mutable,
+            boolean check, Token name) {
+        if (check && !TypeChecker.hasType(value, type)) {
+            throw new RuntimeError(name, "Value '" + value + "' is not of type " + TypeChecker.typeName(type) + ".");
+        }
+        environment.define(slot, value, type, mutable);
+    }
+
+    static void scan(Environment environment, Stmt.Scan stmt) {
+        Interpreter.scan(environment, stmt.identifiers, stmt.depths, stmt.slots);
+    }
+
+    // A call the TypeChecker could not verify.
+    static Object call(Object callee, Interpreter interpreter, Object[] arguments, Token paren) {
+        if (!(callee instanceof CodeCallable)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+        int arity = ((CodeCallable) callee).arity();
+        if (arguments.length != arity) {
+            throw new RuntimeError(paren, "Expected " + arity + " arguments but got " + arguments.length + ".");
+        }
+        if (callee instanceof CodeFunction) {
+            ((CodeFunction) callee).checkArguments(paren, arguments);
+        }
+        return ((CodeCallable) callee).call(interpreter, arguments);
+    }
+
+    // A FN that can run a compiled body. Binding arguments and checking what
+    // comes back are the same as for any CodeFunction, and a call with no body
+    // to run, or with a null argument for an unboxed parameter, is left to the
+    // Interpreter. Compiled bodies take their arguments in an array, so calls
+    // of up to three arguments only collect them once there is a body.
+    abstract static class BodyFunction extends CodeFunction {
+        BodyFunction(Stmt.Function declaration) {
+            super(declaration);
+        }
+
+        // The body for a call about to be made, or null.
+        abstract Body body(Interpreter interpreter);
+
+        private Object call(Body body, Interpreter interpreter, Object[] arguments) {
+            if (body == null || !body.accepts(arguments)) {
+                return super.call(interpreter, arguments);
+            }
+            return body.call(this, interpreter, arguments);
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, Object[] arguments) {
+            return call(body(interpreter), interpreter, arguments);
+        }
+
+        @Override
+        public Object call0(Interpreter interpreter) {
+            Body body = body(interpreter);
+            return body == null ? super.call0(interpreter) : call(body, interpreter, NO_ARGUMENTS);
+        }
+
+        @Override
+        public Object call1(Interpreter interpreter, Object first) {
+            Body body = body(interpreter);
+            return body == null ? super.call1(interpreter, first)
+                    : call(body, interpreter, new Object[] { first });
+        }
+
+        @Override
+        public Object call2(Interpreter interpreter, Object first, Object second) {
+            Body body = body(interpreter);
+            return body == null ? super.call2(interpreter, first, second)
+                    : call(body, interpreter, new Object[] { first, second });
+        }
+
+        @Override
+        public Object call3(Interpreter interpreter, Object first, Object second, Object third) {
+            Body body = body(interpreter);
+            return body == null ? super.call3(interpreter, first, second, third)
+                    : call(body, interpreter, new Object[] { first, second, third });
+        }
+    }
+
+    // A FN whose body is compiled on its first call.
+    private class CompiledFunction extends BodyFunction {
+        private Body body = null;
+        private boolean compiled = false;
+
+        CompiledFunction(Stmt.Function declaration) {
+            super(declaration);
+        }
+
+        @Override
+        Body body(Interpreter interpreter) {
+            if (!compiled) {
+                prepare(interpreter);
+                body = JvmCompiler.this.body(declaration);
+                compiled = true;
+            }
+            return body;
+        }
+    }
+
+    // Generates the class of one body.
+    private static class Generator {
+        // Where a variable of a FN body lives.
+        private static final int IN_ENVIRONMENT = 0;
+        private static final int IN_LOCAL = 1;
+        private static final int IN_INT = 2;
+        private static final int IN_DOUBLE = 3;
+
+        // Fixed JVM locals of run.
+        private static final int THIS = 0;
+        private static final int ENVIRONMENT_LOCAL = 1;
+        private static final int ARGUMENTS = 2;
+        private static final int CONSTANTS = 3;
+        private static final int GLOBALS = 4;
+
+        final ClassWriter writer = new ClassWriter("code/JvmCode", BODY);
+        final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> constantIndexes = new HashMap<>();
+        boolean needsEnvironment = false;
+        private ClassWriter.Code code;
+
+        // How many links from the environment run gets to the globals, and
+        // whether a RETURN gives back its value rather than ending the
+        // program.
+        private final int globalDepth;
+        private final boolean inFunction;
+        private final int parameters;
+        // Blocks the code being compiled is inside.
+        private int blocks = 0;
+        // For each slot of a FN body: where it lives, and its JVM local.
+        private int[] kinds = new int[0];
+        private int[] locals = new int[0];
+
+        Generator(int globalDepth, boolean inFunction, int parameters) {
+            this.globalDepth = globalDepth;
+            this.inFunction = inFunction;
+            this.parameters = parameters;
+        }
+
+        Generator compile(List<Stmt> statements) {
+            start();
+            statements(statements);
+            return finish();
+        }
+
+        Generator compile(Stmt.Function declaration) {
+            new Placement(declaration).place();
+            start();
+            statements(declaration.body);
+            return finish();
+        }
+
+        Generator compile(Stmt.While loop) {
+            start();
+            loop(loop);
+            return finish();
+        }
+
+        private void start() {
+            ClassWriter.Code constructor = writer.method("<init>", "()V");
+            constructor.local(ALOAD, THIS);
+            constructor.invoke(INVOKESPECIAL, BODY, "<init>", "()V");
+            constructor.insn(RETURN, 0);
+
+            code = writer.method("run", RUN);
+            code.local(2);
+            code.local(ALOAD, THIS);
+            code.field(GETFIELD, BODY, "constants", "[Ljava/lang/Object;");
+            code.local(ASTORE, CONSTANTS);
+            code.local(ALOAD, THIS);
+            code.field(GETFIELD, BODY, "globals", "Lcode/Environment;");
+            code.local(ASTORE, GLOBALS);
+
+            for (int slot = 0; slot < kinds.length; slot++) {
+                if (kinds[slot] == IN_ENVIRONMENT) {
+                    continue;
+                }
+                locals[slot] = code.local(kinds[slot] == IN_DOUBLE ? 2 : 1);
+                if (slot < parameters) {
+                    code.local(ALOAD, ARGUMENTS);
+                    code.push(slot);
+                    code.insn(AALOAD, -1);
+                    if (kinds[slot] == IN_LOCAL) {
+                        code.local(ASTORE, locals[slot]);
+                    } else {
+                        unbox(kinds[slot]);
+                        store(slot);
+                    }
+                } else if (kinds[slot] == IN_INT) {
+                    code.push(0);
+                    store(slot);
+                } else if (kinds[slot] == IN_DOUBLE) {
+                    code.push(0.0);
+                    store(slot);
+                } else {
+                    code.insn(ACONST_NULL, 1);
+                    store(slot);
+                }
+            }
+        }
+
+        private Generator finish() {
+            code.field(GETSTATIC, COMPILER, "NO_RETURN", "Ljava/lang/Object;");
+            code.insn(ARETURN, -1);
+            if (code.tooLarge()) {
+                return null;
+            }
+            return this;
+        }
+
+        int[] unboxed() {
+            List<Integer> unboxed = new ArrayList<>();
+            for (int slot = 0; slot < parameters && slot < kinds.length; slot++) {
+                if (kinds[slot] == IN_INT || kinds[slot] == IN_DOUBLE) {
+                    unboxed.add(slot);
+                }
+            }
+            return unboxed.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        private int constant(Object value) {
+            Integer index = constantIndexes.get(value);
+            if (index == null) {
+                index = constants.size();
+                constants.add(value);
+                constantIndexes.put(value, index);
+            }
+            return index;
+        }
+
+        private void loadConstant(Object value, String type) {
+            code.local(ALOAD, CONSTANTS);
+            code.push(constant(value));
+            code.insn(AALOAD, -1);
+            if (!type.equals(OBJECT)) {
+                code.type(CHECKCAST, type);
+            }
+        }
+
+        private int globalDepth() {
+            return globalDepth + blocks;
+        }
+
+        // The kind of a variable reference: a JVM local of the FN body, or
+        // IN_ENVIRONMENT.
+        private int kind(int depth, int slot) {
+            return depth == blocks && slot < kinds.length ? kinds[slot] : IN_ENVIRONMENT;
+        }
+
+        private void loadEnvironment(int depth) {
+            if (depth == globalDepth()) {
+                code.local(ALOAD, GLOBALS);
+                code.push(0);
+            } else {
+                needsEnvironment = true;
+                code.local(ALOAD, ENVIRONMENT_LOCAL);
+                code.push(depth);
+            }
+        }
+
+        private void load(int slot) {
+            int kind = kinds[slot];
+            code.local(kind == IN_INT ? ILOAD : kind == IN_DOUBLE ? DLOAD : ALOAD, locals[slot]);
+        }
+
+        private void store(int slot) {
+            int kind = kinds[slot];
+            code.local(kind == IN_INT ? ISTORE : kind == IN_DOUBLE ? DSTORE : ASTORE, locals[slot]);
+        }
+
+        private void box(int kind) {
+            if (kind == IN_INT) {
+                code.invoke(INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;");
+            } else if (kind == IN_DOUBLE) {
+                code.invoke(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+            }
+        }
+
+        private void unbox(int kind) {
+            if (kind == IN_INT) {
+                code.type(CHECKCAST, "java/lang/Integer");
+                code.invoke(INVOKEVIRTUAL, "java/lang/Integer", "intValue", "()I");
+            } else {
+                code.type(CHECKCAST, "java/lang/Double");
+                code.invoke(INVOKEVIRTUAL, "java/lang/Double", "doubleValue", "()D");
+            }
+        }
+
+        private static Expr unwrap(Expr expr) {
+            while (expr instanceof Expr.Grouping) {
+                expr = ((Expr.Grouping) expr).expression;
+            }
+            return expr;
+        }
+
+        private static boolean isArithmetic(TokenType operator) {
+            switch (operator) {
+                case PLUS:
+                case MINUS:
+                case STAR:
+                case SLASH:
+                case MODULO:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        // IN_INT or IN_DOUBLE for an expression known to give an unboxed INT
+        // or FLOAT, IN_LOCAL for anything else.
+        private int primitive(Expr expr) {
+            expr = unwrap(expr);
+            if (expr instanceof Expr.Literal) {
+                Object value = ((Expr.Literal) expr).value;
+                return value instanceof Integer ? IN_INT : value instanceof Double ? IN_DOUBLE : IN_LOCAL;
+            } else if (expr instanceof Expr.Binary) {
+                Expr.Binary binary = (Expr.Binary) expr;
+                if (isArithmetic(binary.operator.type)) {
+                    return binary.operandType == TokenType.INT ? IN_INT
+                            : binary.operandType == TokenType.FLOAT ? IN_DOUBLE : IN_LOCAL;
+                }
+            } else if (expr instanceof Expr.Unary) {
+                Expr.Unary unary = (Expr.Unary) expr;
+                if (unary.operator.type != TokenType.NOT) {
+                    return primitive(unary.right);
+                }
+            } else if (expr instanceof Expr.Variable) {
+                Expr.Variable variable = (Expr.Variable) expr;
+                int kind = kind(variable.depth, variable.slot);
+                return kind == IN_ENVIRONMENT ? IN_LOCAL : kind;
+            }
+            return IN_LOCAL;
+        }
+
+        private boolean inEnvironment(Expr expr) {
+            return expr instanceof Expr.Variable
+                    && kind(((Expr.Variable) expr).depth, ((Expr.Variable) expr).slot) == IN_ENVIRONMENT;
+        }
+
+        // Reads a variable from its Environment, with get or with getInt and
+        // getDouble, which give it unboxed.
+        private void environmentVariable(Expr.Variable expr, String method, String type) {
+            loadEnvironment(expr.depth);
+            code.push(expr.slot);
+            loadConstant(expr.name, TOKEN);
+            code.invoke(INVOKEVIRTUAL, ENVIRONMENT, method, "(IILcode/Token;)" + type);
+        }
+
+        // Compiles an expression to an unboxed INT.
+        private void integer(Expr expr) {
+            expr = unwrap(expr);
+            if (inEnvironment(expr)) {
+                environmentVariable((Expr.Variable) expr, "getInt", "I");
+            } else if (primitive(expr) != IN_INT) {
+                object(expr);
+                unbox(IN_INT);
+            } else if (expr instanceof Expr.Literal) {
+                code.push((int) (Integer) ((Expr.Literal) expr).value);
+            } else if (expr instanceof Expr.Variable) {
+                load(((Expr.Variable) expr).slot);
+            } else if (expr instanceof Expr.Unary) {
+                Expr.Unary unary = (Expr.Unary) expr;
+                integer(unary.right);
+                if (unary.operator.type == TokenType.MINUS) {
+                    code.insn(INEG, 0);
+                }
+            } else {
+                Expr.Binary binary = (Expr.Binary) expr;
+                integer(binary.left);
+                integer(binary.right);
+                switch (binary.operator.type) {
+                    case PLUS:
+                        code.insn(IADD, -1);
+                        break;
+                    case MINUS:
+                        code.insn(ISUB, -1);
+                        break;
+                    case STAR:
+                        code.insn(IMUL, -1);
+                        break;
+                    case SLASH:
+                        loadConstant(binary.operator, TOKEN);
+                        code.invoke(INVOKESTATIC, COMPILER, "divide", "(IILcode/Token;)I");
+                        break;
+                    default:
+                        // Modulo by zero has always thrown Java's own exception.
+                        code.insn(IREM, -1);
+                        break;
+                }
+            }
+        }
+
+        // Compiles an expression to an unboxed FLOAT.
+        private void real(Expr expr) {
+            expr = unwrap(expr);
+            if (inEnvironment(expr)) {
+                environmentVariable((Expr.Variable) expr, "getDouble", "D");
+            } else if (primitive(expr) != IN_DOUBLE) {
+                object(expr);
+                unbox(IN_DOUBLE);
+            } else if (expr instanceof Expr.Literal) {
+                code.push((double) (Double) ((Expr.Literal) expr).value);
+            } else if (expr instanceof Expr.Variable) {
+                load(((Expr.Variable) expr).slot);
+            } else if (expr instanceof Expr.Unary) {
+                Expr.Unary unary = (Expr.Unary) expr;
+                real(unary.right);
+                if (unary.operator.type == TokenType.MINUS) {
+                    code.insn(DNEG, 0);
+                }
+            } else {
+                Expr.Binary binary = (Expr.Binary) expr;
+                real(binary.left);
+                real(binary.right);
+                switch (binary.operator.type) {
+                    case PLUS:
+                        // FLOAT + has always multiplied.
+                    case STAR:
+                        code.insn(DMUL, -2);
+                        break;
+                    case MINUS:
+                        code.insn(DSUB, -2);
+                        break;
+                    case SLASH:
+                        loadConstant(binary.operator, TOKEN);
+                        code.invoke(INVOKESTATIC, COMPILER, "divide", "(DDLcode/Token;)D");
+                        break;
+                    default:
+                        code.insn(DREM, -2);
+                        break;
+                }
+            }
+        }
+
+        // The jump for a comparison of two INTs that holds, or -1.
+        private static int comparison(TokenType operator) {
+            switch (operator) {
+                case LESS_THAN:
+                    return IF_ICMPLT;
+                case LESS_THAN_EQUAL:
+                    return IF_ICMPLE;
+                case GREATER_THAN:
+                    return IF_ICMPGT;
+                case GREATER_THAN_EQUAL:
+                    return IF_ICMPGE;
+                case EQUAL_EQUAL:
+                    return IF_ICMPEQ;
+                case NOT_EQUAL:
+                    return IF_ICMPNE;
+                default:
+                    return -1;
+            }
+        }
+
+        private static int negate(int jump) {
+            switch (jump) {
+                case IF_ICMPLT:
+                    return IF_ICMPGE;
+                case IF_ICMPGE:
+                    return IF_ICMPLT;
+                case IF_ICMPGT:
+                    return IF_ICMPLE;
+                case IF_ICMPLE:
+                    return IF_ICMPGT;
+                case IF_ICMPEQ:
+                    return IF_ICMPNE;
+                default:
+                    return IF_ICMPEQ;
+            }
+        }
+
+        // Whether a comparison can run on unboxed INTs. Equality only can when
+        // neither side can be null.
+        private boolean comparesInts(Expr.Binary expr) {
+            TokenType operator = expr.operator.type;
+            if (operator == TokenType.EQUAL_EQUAL || operator == TokenType.NOT_EQUAL) {
+                return primitive(expr.left) == IN_INT && primitive(expr.right) == IN_INT;
+            }
+            return comparison(operator) >= 0 && expr.operandType == TokenType.INT;
+        }
+
+        // Compiles a condition that jumps to target when its truth is when.
+        private void jump(Expr expr, ClassWriter.Label target, boolean when) {
+            expr = unwrap(expr);
+            if (expr instanceof Expr.Logical) {
+                Expr.Logical logical = (Expr.Logical) expr;
+                boolean decides = logical.operator.type == TokenType.OR;
+                if (decides == when) {
+                    jump(logical.left, target, when);
+                    jump(logical.right, target, when);
+                } else {
+                    ClassWriter.Label skip = new ClassWriter.Label();
+                    jump(logical.left, skip, !when);
+                    jump(logical.right, target, when);
+                    code.mark(skip);
+                }
+                return;
+            }
+            if (expr instanceof Expr.Unary && ((Expr.Unary) expr).operator.type == TokenType.NOT) {
+                jump(((Expr.Unary) expr).right, target, !when);
+                return;
+            }
+            if (expr instanceof Expr.Binary && comparesInts((Expr.Binary) expr)) {
+                Expr.Binary binary = (Expr.Binary) expr;
+                int jump = comparison(binary.operator.type);
+                integer(binary.left);
+                integer(binary.right);
+                code.jump(when ? jump : negate(jump), target);
+                return;
+            }
+            object(expr);
+            code.invoke(INVOKESTATIC, INTERPRETER, "isTruthy", "(Ljava/lang/Object;)Z");
+            code.jump(when ? IFNE : IFEQ, target);
+        }
+
+        // Compiles an expression to its boxed value, as the Interpreter has it.
+        private void object(Expr expr) {
+            expr = unwrap(expr);
+            if (expr instanceof Expr.Literal) {
+                Object value = ((Expr.Literal) expr).value;
+                if (value == null) {
+                    code.insn(ACONST_NULL, 1);
+                } else {
+                    loadConstant(value, OBJECT);
+                }
+            } else if (expr instanceof Expr.Variable) {
+                variable((Expr.Variable) expr);
+            } else if (expr instanceof Expr.Assign) {
+                assign((Expr.Assign) expr, false);
+            } else if (expr instanceof Expr.Binary) {
+                binary((Expr.Binary) expr);
+            } else if (expr instanceof Expr.Unary) {
+                unary((Expr.Unary) expr);
+            } else if (expr instanceof Expr.Logical) {
+                logical((Expr.Logical) expr);
+            } else {
+                call((Expr.Call) expr);
+            }
+        }
+
+        private void variable(Expr.Variable expr) {
+            int kind = kind(expr.depth, expr.slot);
+            if (kind != IN_ENVIRONMENT) {
+                load(expr.slot);
+                box(kind);
+                return;
+            }
+            environmentVariable(expr, "get", "Ljava/lang/Object;");
+        }
+
+        // Stores an assignment's value, and leaves it boxed unless it is a
+        // statement.
+        private void assign(Expr.Assign expr, boolean statement) {
+            int kind = kind(expr.depth, expr.slot);
+            if (kind == IN_INT || kind == IN_DOUBLE) {
+                if (kind == IN_INT) {
+                    integer(expr.value);
+                } else {
+                    real(expr.value);
+                }
+                if (!statement) {
+                    code.insn(kind == IN_INT ? DUP : DUP2, kind == IN_INT ? 1 : 2);
+                }
+                store(expr.slot);
+                if (!statement) {
+                    box(kind);
+                }
+                return;
+            }
+
+            // A verified INT or FLOAT statement stores into the Environment
+            // unboxed.
+            int value = primitive(expr.value);
+            if (kind == IN_ENVIRONMENT && expr.verified && statement && value != IN_LOCAL) {
+                loadEnvironment(expr.depth);
+                code.push(expr.slot);
+                loadConstant(expr.name, TOKEN);
+                if (value == IN_INT) {
+                    integer(expr.value);
+                    code.invoke(INVOKEVIRTUAL, ENVIRONMENT, "setInt", "(IILcode/Token;I)V");
+                } else {
+                    real(expr.value);
+                    code.invoke(INVOKEVIRTUAL, ENVIRONMENT, "setDouble", "(IILcode/Token;D)V");
+                }
+                return;
+            }
+
+            object(expr.value);
+            if (kind == IN_LOCAL) {
+                if (!statement) {
+                    code.insn(DUP, 1);
+                }
+                store(expr.slot);
+                return;
+            }
+            loadEnvironment(expr.depth);
+            code.push(expr.slot);
+            loadConstant(expr.name, TOKEN);
+            code.invoke(INVOKESTATIC, COMPILER, expr.verified ? "set" : "assign",
+                    "(Ljava/lang/Object;Lcode/Environment;IILcode/Token;)Ljava/lang/Object;");
+            if (statement) {
+                code.insn(POP, -1);
+            }
+        }
+
+        private void binary(Expr.Binary expr) {
+            TokenType operator = expr.operator.type;
+            if (isArithmetic(operator) && expr.operandType == TokenType.INT) {
+                integer(expr);
+                box(IN_INT);
+                return;
+            }
+            if (isArithmetic(operator) && expr.operandType == TokenType.FLOAT) {
+                real(expr);
+                box(IN_DOUBLE);
+                return;
+            }
+            if (comparesInts(expr)) {
+                ClassWriter.Label otherwise = new ClassWriter.Label();
+                ClassWriter.Label end = new ClassWriter.Label();
+                jump(expr, otherwise, false);
+                code.field(GETSTATIC, "java/lang/Boolean", "TRUE", "Ljava/lang/Boolean;");
+                code.jump(GOTO, end);
+                code.mark(otherwise);
+                code.field(GETSTATIC, "java/lang/Boolean", "FALSE", "Ljava/lang/Boolean;");
+                code.mark(end);
+                return;
+            }
+
+            if (operator == TokenType.AMPERSAND) {
+                object(expr.left);
+                code.invoke(INVOKEVIRTUAL, OBJECT, "toString", "()Ljava/lang/String;");
+                object(expr.right);
+                code.invoke(INVOKEVIRTUAL, OBJECT, "toString", "()Ljava/lang/String;");
+                code.invoke(INVOKEVIRTUAL, "java/lang/String", "concat", "(Ljava/lang/String;)Ljava/lang/String;");
+            } else if (operator == TokenType.EQUAL_EQUAL || operator == TokenType.NOT_EQUAL) {
+                object(expr.left);
+                object(expr.right);
+                code.invoke(INVOKESTATIC, INTERPRETER, "isEqual", "(Ljava/lang/Object;Ljava/lang/Object;)Z");
+                if (operator == TokenType.NOT_EQUAL) {
+                    code.push(1);
+                    code.insn(IXOR, -1);
+                }
+                code.invoke(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+            } else {
+                loadConstant(expr.operator, TOKEN);
+                code.push(expr.verified ? 1 : 0);
+                object(expr.left);
+                object(expr.right);
+                code.invoke(INVOKESTATIC, INTERPRETER, "binary",
+                        "(Lcode/Token;ZLjava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+            }
+        }
+
+        private void unary(Expr.Unary expr) {
+            if (expr.operator.type == TokenType.NOT) {
+                object(expr.right);
+                code.invoke(INVOKESTATIC, INTERPRETER, "isTruthy", "(Ljava/lang/Object;)Z");
+                code.push(1);
+                code.insn(IXOR, -1);
+                code.invoke(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+                return;
+            }
+            int kind = primitive(expr);
+            if (kind == IN_INT) {
+                integer(expr);
+                box(kind);
+            } else if (kind == IN_DOUBLE) {
+                real(expr);
+                box(kind);
+            } else {
+                loadConstant(expr.operator, TOKEN);
+                code.push(expr.verified ? 1 : 0);
+                object(expr.right);
+                code.invoke(INVOKESTATIC, INTERPRETER, "unary",
+                        "(Lcode/Token;ZLjava/lang/Object;)Ljava/lang/Object;");
+            }
+        }
+
+        private void logical(Expr.Logical expr) {
+            ClassWriter.Label end = new ClassWriter.Label();
+            object(expr.left);
+            code.insn(DUP, 1);
+            code.invoke(INVOKESTATIC, INTERPRETER, "isTruthy", "(Ljava/lang/Object;)Z");
+            code.jump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, end);
+            code.insn(POP, -1);
+            object(expr.right);
+            code.mark(end);
+        }
+
+        private void call(Expr.Call expr) {
+            if (expr.inlined != null) {
+                for (int i = 0; i < expr.argumentSlots.length; i++) {
+                    if (expr.argumentSlots[i] >= 0) {
+                        bind(expr.argumentSlots[i], expr.arguments.get(i));
+                    }
+                }
+                object(expr.inlined);
+                return;
+            }
+
+            object(expr.callee);
+            if (expr.verified) {
+                code.type(CHECKCAST, "code/CodeCallable");
+            }
+            code.local(ALOAD, THIS);
+            code.field(GETFIELD, BODY, "interpreter", "Lcode/Interpreter;");
+            int count = expr.arguments.size();
+            if (expr.verified && count <= 3) {
+                StringBuilder descriptor = new StringBuilder("(Lcode/Interpreter;");
+                for (Expr argument : expr.arguments) {
+                    object(argument);
+                    descriptor.append("Ljava/lang/Object;");
+                }
+                code.invoke(INVOKEINTERFACE, "code/CodeCallable", "call" + count,
+                        descriptor.append(")Ljava/lang/Object;").toString());
+                return;
+            }
+            code.push(count);
+            code.type(ANEWARRAY, OBJECT);
+            for (int i = 0; i < count; i++) {
+                code.insn(DUP, 1);
+                code.push(i);
+                object(expr.arguments.get(i));
+                code.insn(AASTORE, -3);
+            }
+            if (expr.verified) {
+                code.invoke(INVOKEINTERFACE, "code/CodeCallable", "call",
+                        "(Lcode/Interpreter;[Ljava/lang/Object;)Ljava/lang/Object;");
+            } else {
+                loadConstant(expr.paren, TOKEN);
+                code.invoke(INVOKESTATIC, COMPILER, "call",
+                        "(Ljava/lang/Object;Lcode/Interpreter;[Ljava/lang/Object;Lcode/Token;)Ljava/lang/Object;");
+            }
+        }
+
+        // Stores a value in a slot the Optimizer added.
+        private void bind(int slot, Expr value) {
+            if (kind(blocks, slot) == IN_LOCAL) {
+                object(value);
+                store(slot);
+                return;
+            }
+            needsEnvironment = true;
+            code.local(ALOAD, ENVIRONMENT_LOCAL);
+            code.push(slot);
+            object(value);
+            code.invoke(INVOKEVIRTUAL, ENVIRONMENT, "bind", "(ILjava/lang/Object;)V");
+        }
+
+        private void statements(List<Stmt> statements) {
+            for (Stmt statement : statements) {
+                statement(statement);
+            }
+        }
+
+        private void statement(Stmt stmt) {
+            if (stmt instanceof Stmt.Expression) {
+                Expr expr = ((Stmt.Expression) stmt).expression;
+                if (expr instanceof Expr.Assign) {
+                    assign((Expr.Assign) expr, true);
+                } else {
+                    object(expr);
+                    code.insn(POP, -1);
+                }
+            } else if (stmt instanceof Stmt.Print) {
+                object(((Stmt.Print) stmt).expression);
+                code.invoke(INVOKESTATIC, INTERPRETER, "print", "(Ljava/lang/Object;)V");
+            } else if (stmt instanceof Stmt.If) {
+                ifStatement((Stmt.If) stmt);
+            } else if (stmt instanceof Stmt.While) {
+                whileStatement((Stmt.While) stmt);
+            } else if (stmt instanceof Stmt.Return) {
+                returnStatement((Stmt.Return) stmt);
+            } else if (stmt instanceof Stmt.Block) {
+                block((Stmt.Block) stmt);
+            } else if (stmt instanceof Stmt.Function) {
+                needsEnvironment = true;
+                code.local(ALOAD, THIS);
+                code.field(GETFIELD, BODY, "compiler", "Lcode/JvmCompiler;");
+                code.local(ALOAD, ENVIRONMENT_LOCAL);
+                loadConstant(stmt, "code/Stmt$Function");
+                code.invoke(INVOKEVIRTUAL, COMPILER, "define", "(Lcode/Environment;Lcode/Stmt$Function;)V");
+            } else if (stmt instanceof Stmt.Scan) {
+                needsEnvironment = true;
+                code.local(ALOAD, ENVIRONMENT_LOCAL);
+                loadConstant(stmt, "code/Stmt$Scan");
+                code.invoke(INVOKESTATIC, COMPILER, "scan", "(Lcode/Environment;Lcode/Stmt$Scan;)V");
+            } else {
+                Declaration declaration = new Declaration(stmt);
+                declare(declaration);
+            }
+        }
+
+        private void declare(Declaration declaration) {
+            int kind = kind(blocks, declaration.slot);
+            if (kind == IN_INT) {
+                integer(declaration.initializer);
+                store(declaration.slot);
+                return;
+            } else if (kind == IN_DOUBLE) {
+                real(declaration.initializer);
+                store(declaration.slot);
+                return;
+            }
+
+            if (declaration.initializer != null) {
+                object(declaration.initializer);
+            } else {
+                code.insn(ACONST_NULL, 1);
+            }
+            if (kind == IN_LOCAL) {
+                store(declaration.slot);
+                return;
+            }
+            needsEnvironment = true;
+            code.local(ALOAD, ENVIRONMENT_LOCAL);
+            code.push(declaration.slot);
+            loadConstant(declaration.type, "code/TokenType");
+            code.push(declaration.mutable ? 1 : 0);
+            code.push(declaration.initializer != null && !declaration.verified ? 1 : 0);
+            loadConstant(declaration.name, TOKEN);
+            code.invoke(INVOKESTATIC, COMPILER, "declare",
+                    "(Ljava/lang/Object;Lcode/Environment;ILcode/TokenType;ZZLcode/Token;)V");
+        }
+
+        private void ifStatement(Stmt.If stmt) {
+            ClassWriter.Label end = new ClassWriter.Label();
+            ClassWriter.Label next = new ClassWriter.Label();
+            jump(stmt.condition, next, false);
+            statements(stmt.thenBranch);
+            code.jump(GOTO, end);
+            code.mark(next);
+
+            for (int i = 0; i < stmt.elseIfConditions.size(); i++) {
+                List<Stmt> branch = stmt.elseIfBranches.get(i);
+                if (branch.isEmpty()) {
+                    // With nothing to run, the next arm is tried either way.
+                    object(stmt.elseIfConditions.get(i));
+                    code.insn(POP, -1);
+                    continue;
+                }
+                next = new ClassWriter.Label();
+                jump(stmt.elseIfConditions.get(i), next, false);
+                // An ELSE IF runs only the first statement of its branch.
+                statement(branch.get(0));
+                code.jump(GOTO, end);
+                code.mark(next);
+            }
+
+            if (stmt.elseBranch != null) {
+                statements(stmt.elseBranch);
+            }
+            code.mark(end);
+        }
+
+        private void whileStatement(Stmt.While stmt) {
+            if (stmt.hoisted != null) {
+                for (int i = 0; i < stmt.hoistedSlots.length; i++) {
+                    bind(stmt.hoistedSlots[i], stmt.hoisted.get(i));
+                }
+            }
+            loop(stmt);
+        }
+
+        private void loop(Stmt.While stmt) {
+            ClassWriter.Label start = new ClassWriter.Label();
+            ClassWriter.Label end = new ClassWriter.Label();
+            code.mark(start);
+            jump(stmt.condition, end, false);
+            statements(stmt.body);
+            code.jump(GOTO, start);
+            code.mark(end);
+        }
+
+        private void returnStatement(Stmt.Return stmt) {
+            if (inFunction) {
+                if (stmt.value != null) {
+                    object(stmt.value);
+                } else {
+                    code.insn(ACONST_NULL, 1);
+                }
+                code.insn(ARETURN, -1);
+                return;
+            }
+            // A RETURN outside any FN ends the program as in the Interpreter.
+            code.type(NEW, "code/Return");
+            code.insn(DUP, 1);
+            if (stmt.value != null) {
+                object(stmt.value);
+            } else {
+                code.insn(ACONST_NULL, 1);
+            }
+            code.invoke(INVOKESPECIAL, "code/Return", "<init>", "(Ljava/lang/Object;)V");
+            code.insn(ATHROW, -1);
+        }
+
+        private void block(Stmt.Block stmt) {
+            needsEnvironment = true;
+            code.type(NEW, ENVIRONMENT);
+            code.insn(DUP, 1);
+            code.local(ALOAD, ENVIRONMENT_LOCAL);
+            code.push(stmt.locals);
+            code.invoke(INVOKESPECIAL, ENVIRONMENT, "<init>", "(Lcode/Environment;I)V");
+            code.local(ASTORE, ENVIRONMENT_LOCAL);
+            blocks++;
+            statements(stmt.statements);
+            blocks--;
+            code.local(ALOAD, ENVIRONMENT_LOCAL);
+            code.field(GETFIELD, ENVIRONMENT, "enclosing", "Lcode/Environment;");
+            code.local(ASTORE, ENVIRONMENT_LOCAL);
+        }
+
+        // The five typed declarations, seen alike.
+        private static class Declaration {
+            final Token name;
+            final TokenType type;
+            final Expr initializer;
+            final boolean mutable;
+            final int slot;
+            final boolean verified;
+
+            Declaration(Stmt stmt) {
+                if (stmt instanceof Stmt.Int) {
+                    Stmt.Int declaration = (Stmt.Int) stmt;
+                    name = declaration.name;
+                    type = TokenType.INT;
+                    initializer = declaration.initializer;
+                    mutable = declaration.mutable;
+                    slot = declaration.slot;
+                    verified = declaration.verified;
+                } else if (stmt instanceof Stmt.Float) {
+                    Stmt.Float declaration = (Stmt.Float) stmt;
+                    name = declaration.name;
+                    type = TokenType.FLOAT;
+                    initializer = declaration.initializer;
+                    mutable = declaration.mutable;
+                    slot = declaration.slot;
+                    verified = declaration.verified;
+                } else if (stmt instanceof Stmt.Char) {
+                    Stmt.Char declaration = (Stmt.Char) stmt;
+                    name = declaration.name;
+                    type = TokenType.CHAR;
+                    initializer = declaration.initializer;
+                    mutable = declaration.mutable;
+                    slot = declaration.slot;
+                    verified = declaration.verified;
+                } else if (stmt instanceof Stmt.Bool) {
+                    Stmt.Bool declaration = (Stmt.Bool) stmt;
+                    name = declaration.name;
+                    type = TokenType.BOOL;
+                    initializer = declaration.initializer;
+                    mutable = declaration.mutable;
+                    slot = declaration.slot;
+                    verified = declaration.verified;
+                } else {
+                    Stmt.String declaration = (Stmt.String) stmt;
+                    name = declaration.name;
+                    type = TokenType.STRING;
+                    initializer = declaration.initializer;
+                    mutable = declaration.mutable;
+                    slot = declaration.slot;
+                    verified = declaration.verified;
+                }
+            }
+        }
+
+        // Decides where each variable of a FN body lives. A variable gets a
+        // JVM local when it is a parameter, a slot the Optimizer binds, or
+        // declared once, verified, among the body's own statements and not
+        // used before that: then it is defined exactly when the Interpreter
+        // would define it. Variables a SCAN or an unverified assignment
+        // writes, nested FNs and anything in a block stay in the Environment.
+        // An INT or FLOAT local is unboxed when each value written to it is
+        // known to be one.
+        private class Placement {
+            private final Stmt.Function function;
+            private final Set<Integer> declared = new HashSet<>();
+            private final Set<Integer> hidden = new HashSet<>();
+            private final Map<Integer, List<Expr>> writes = new HashMap<>();
+            private boolean hasBlock = false;
+
+            Placement(Stmt.Function function) {
+                this.function = function;
+            }
+
+            void place() {
+                int slots = Math.max(function.locals, parameters);
+                kinds = new int[slots];
+                locals = new int[slots];
+                for (int slot = 0; slot < parameters; slot++) {
+                    TokenType type = function.params.get(slot).type.type;
+                    kinds[slot] = type == TokenType.INT ? IN_INT : type == TokenType.FLOAT ? IN_DOUBLE : IN_LOCAL;
+                    declared.add(slot);
+                }
+                for (int slot = parameters; slot < slots; slot++) {
+                    kinds[slot] = -1;
+                }
+
+                for (Stmt stmt : function.body) {
+                    visit(stmt, true);
+                }
+                for (int slot = 0; slot < slots; slot++) {
+                    if (kinds[slot] == -1) {
+                        kinds[slot] = hidden.contains(slot) ? IN_LOCAL : IN_ENVIRONMENT;
+                    }
+                    if (hasBlock) {
+                        kinds[slot] = IN_ENVIRONMENT;
+                    }
+                }
+
+                // Unboxing one local can make the values written to another
+                // unboxed, so repeat until nothing changes.
+                boolean changed = true;
+                while (changed) {
+                    changed = false;
+                    for (Map.Entry<Integer, List<Expr>> entry : writes.entrySet()) {
+                        int slot = entry.getKey();
+                        if (kinds[slot] != IN_INT && kinds[slot] != IN_DOUBLE) {
+                            continue;
+                        }
+                        for (Expr value : entry.getValue()) {
+                            if (value == null || primitive(value) != kinds[slot]) {
+                                kinds[slot] = IN_LOCAL;
+                                changed = true;
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+
+            private void environment(int slot) {
+                if (slot < kinds.length) {
+                    kinds[slot] = IN_ENVIRONMENT;
+                }
+            }
+
+            private void write(int slot, Expr value) {
+                writes.computeIfAbsent(slot, key -> new ArrayList<>()).add(value);
+            }
+
+            private void use(int depth, int slot) {
+                if (depth == 0 && slot < kinds.length && !declared.contains(slot) && !hidden.contains(slot)) {
+                    environment(slot);
+                }
+            }
+
+            private void visit(List<Stmt> statements) {
+                for (Stmt stmt : statements) {
+                    visit(stmt, false);
+                }
+            }
+
+            private void visit(Stmt stmt, boolean top) {
+                if (stmt instanceof Stmt.Expression) {
+                    visit(((Stmt.Expression) stmt).expression);
+                } else if (stmt instanceof Stmt.Print) {
+                    visit(((Stmt.Print) stmt).expression);
+                } else if (stmt instanceof Stmt.Return) {
+                    visit(((Stmt.Return) stmt).value);
+                } else if (stmt instanceof Stmt.If) {
+                    Stmt.If ifStmt = (Stmt.If) stmt;
+                    visit(ifStmt.condition);
+                    visit(ifStmt.thenBranch);
+                    for (int i = 0; i < ifStmt.elseIfConditions.size(); i++) {
+                        visit(ifStmt.elseIfConditions.get(i));
+                        visit(ifStmt.elseIfBranches.get(i));
+                    }
+                    if (ifStmt.elseBranch != null) {
+                        visit(ifStmt.elseBranch);
+                    }
+                } else if (stmt instanceof Stmt.While) {
+                    Stmt.While whileStmt = (Stmt.While) stmt;
+                    if (whileStmt.hoisted != null) {
+                        for (int i = 0; i < whileStmt.hoistedSlots.length; i++) {
+                            visit(whileStmt.hoisted.get(i));
+                            hidden.add(whileStmt.hoistedSlots[i]);
+                        }
+                    }
+                    visit(whileStmt.condition);
+                    visit(whileStmt.body);
+                } else if (stmt instanceof Stmt.Block) {
+                    hasBlock = true;
+                } else if (stmt instanceof Stmt.Function) {
+                    environment(((Stmt.Function) stmt).slot);
+                } else if (stmt instanceof Stmt.Scan) {
+                    Stmt.Scan scan = (Stmt.Scan) stmt;
+                    for (int i = 0; i < scan.slots.length; i++) {
+                        if (scan.depths[i] == 0) {
+                            environment(scan.slots[i]);
+                        }
+                    }
+                } else {
+                    Declaration declaration = new Declaration(stmt);
+                    visit(declaration.initializer);
+                    int slot = declaration.slot;
+                    if (slot >= kinds.length) {
+                        return;
+                    }
+                    if (top && declaration.verified && kinds[slot] == -1 && !declared.contains(slot)) {
+                        kinds[slot] = declaration.type == TokenType.INT ? IN_INT
+                                : declaration.type == TokenType.FLOAT ? IN_DOUBLE : IN_LOCAL;
+                        write(slot, declaration.initializer);
+                    } else {
+                        environment(slot);
+                    }
+                    declared.add(slot);
+                }
+            }
+
+            private void visit(Expr expr) {
+                if (expr == null) {
+                    return;
+                }
+                if (expr instanceof Expr.Variable) {
+                    use(((Expr.Variable) expr).depth, ((Expr.Variable) expr).slot);
+                } else if (expr instanceof Expr.Assign) {
+                    Expr.Assign assign = (Expr.Assign) expr;
+                    visit(assign.value);
+                    use(assign.depth, assign.slot);
+                    if (assign.depth == 0 && assign.slot < kinds.length) {
+                        if (assign.verified) {
+                            write(assign.slot, assign.value);
+                        } else {
+                            environment(assign.slot);
+                        }
+                    }
+                } else if (expr instanceof Expr.Binary) {
+                    visit(((Expr.Binary) expr).left);
+                    visit(((Expr.Binary) expr).right);
+                } else if (expr instanceof Expr.Grouping) {
+                    visit(((Expr.Grouping) expr).expression);
+                } else if (expr instanceof Expr.Logical) {
+                    visit(((Expr.Logical) expr).left);
+                    visit(((Expr.Logical) expr).right);
+                } else if (expr instanceof Expr.Unary) {
+                    visit(((Expr.Unary) expr).right);
+                } else if (expr instanceof Expr.Call) {
+                    Expr.Call call = (Expr.Call) expr;
+                    if (call.inlined != null) {
+                        for (int i = 0; i < call.argumentSlots.length; i++) {
+                            if (call.argumentSlots[i] >= 0) {
+                                visit(call.arguments.get(i));
+                                hidden.add(call.argumentSlots[i]);
+                            }
+                        }
+                        visit(call.inlined);
+                    } else {
+                        visit(call.callee);
+                        for (Expr argument : call.arguments) {
+                            visit(argument);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package code;
+
+import java.util.AbstractList;
+import java.util.List;
+
+// Body of an FN declaration that has not been parsed yet. The Parser only
+// records where the body starts; the statements are parsed the first time
+// anything reads them, normally the first call of the function.
+class LazyBody extends AbstractList<Stmt> {
+    private final TokenStream tokens;
+    private final int start;
+    private List<Stmt> statements = null;
+
+    LazyBody(TokenStream tokens, int start) {
+        this.tokens = tokens;
+        this.start = start;
+    }
+
+    boolean isParsed() {
+        return statements != null;
+    }
+
+    List<Stmt> statements() {
+        if (statements == null) {
+            statements = new Parser(tokens, true, start).functionBody();
+        }
+        return statements;
+    }
+
+    @Override
+    public Stmt get(int index) {
+        return statements().get(index);
+    }
+
+    @Override
+    public int size() {
+        return statements().size();
+    }
+}
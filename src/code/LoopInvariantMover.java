@@ -0,0 +1,339 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Moves expressions that give the same value on every iteration of a WHILE
+// out of it. They are evaluated once before the loop into hidden slots, and
+// the loop reads those instead.
+//
+// An expression is only moved when moving it cannot be noticed: it reads
+// variables that are defined before the loop and never written in it, and it
+// cannot fail or have side effects. That covers verified arithmetic, NOT,
+// AND/OR, == and != and the math natives. Division needs a non-zero literal
+// divisor, and comparisons are left alone as they fail on FLOATs. Such an
+// expression is safe to evaluate even if the loop would never have reached
+// it. scanString and clock always stay where they are.
+class LoopInvariantMover extends AstRewriter {
+    private static final String[] PURE_NATIVES = { "sqrt", "abs", "ceil", "floor", "pow" };
+    private static final String[] NATIVES = { "clock", "ceil", "floor", "sqrt", "abs", "pow", "scanString" };
+
+    private static final Token HOISTED = new Token(TokenType.IDENTIFIER, "hoisted", null, 0);
+
+    private final Interpreter interpreter;
+    private final Set<Integer> pureNatives = new HashSet<>();
+    private final Set<Integer> natives = new HashSet<>();
+    // Globals defined before any statement runs, and those defined before any
+    // FN body can run.
+    private final Set<Integer> globals = new HashSet<>();
+    private final Set<Integer> globalsForFunctions = new HashSet<>();
+
+    // The FN being rewritten, or null at top level.
+    private Stmt.Function function = null;
+    private int locals;
+    private Set<Integer> definedLocals;
+    private int hoistedGlobals = 0;
+
+    // What the loop being hoisted from writes, or null when not hoisting.
+    private Set<Integer> writtenLocals = null;
+    private Set<Integer> writtenGlobals;
+    private boolean writesAnyGlobal;
+    private List<Expr> hoisted;
+    private List<Integer> hoistedSlots;
+
+    LoopInvariantMover(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        for (String name : PURE_NATIVES) {
+            pureNatives.add(interpreter.globalSlot(name));
+        }
+        for (String name : NATIVES) {
+            natives.add(interpreter.globalSlot(name));
+        }
+    }
+
+    List<Stmt> move(List<Stmt> statements) {
+        boolean called = false;
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Function) {
+                globals.add(((Stmt.Function) statement).slot);
+                globalsForFunctions.add(((Stmt.Function) statement).slot);
+            } else if (isDeclaration(statement)) {
+                Expr initializer = initializer(statement);
+                called |= initializer != null && containsCall(initializer);
+                globals.add(declaredSlot(statement));
+                if (!called) {
+                    globalsForFunctions.add(declaredSlot(statement));
+                }
+            }
+        }
+        return rewrite(statements);
+    }
+
+    private static boolean isDeclaration(Stmt stmt) {
+        return stmt instanceof Stmt.String || stmt instanceof Stmt.Int || stmt instanceof Stmt.Float
+                || stmt instanceof Stmt.Char || stmt instanceof Stmt.Bool;
+    }
+
+    private static Expr initializer(Stmt stmt) {
+        if (stmt instanceof Stmt.String) {
+            return ((Stmt.String) stmt).initializer;
+        } else if (stmt instanceof Stmt.Int) {
+            return ((Stmt.Int) stmt).initializer;
+        } else if (stmt instanceof Stmt.Float) {
+            return ((Stmt.Float) stmt).initializer;
+        } else if (stmt instanceof Stmt.Char) {
+            return ((Stmt.Char) stmt).initializer;
+        }
+        return ((Stmt.Bool) stmt).initializer;
+    }
+
+    private static int declaredSlot(Stmt stmt) {
+        if (stmt instanceof Stmt.String) {
+            return ((Stmt.String) stmt).slot;
+        } else if (stmt instanceof Stmt.Int) {
+            return ((Stmt.Int) stmt).slot;
+        } else if (stmt instanceof Stmt.Float) {
+            return ((Stmt.Float) stmt).slot;
+        } else if (stmt instanceof Stmt.Char) {
+            return ((Stmt.Char) stmt).slot;
+        }
+        return ((Stmt.Bool) stmt).slot;
+    }
+
+    private int globalDepth() {
+        return function == null ? 0 : 1;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        // Only .codec files have blocks, and none are worth a frame of their
+        // own here.
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        if (stmt.locals < 0) {
+            return stmt;
+        }
+
+        Stmt.Function enclosing = function;
+        int enclosingLocals = locals;
+        Set<Integer> enclosingDefined = definedLocals;
+        function = stmt;
+        locals = stmt.locals;
+        // Declarations come first in a body, so they have all run before any
+        // loop does.
+        definedLocals = new HashSet<>();
+        for (int i = 0; i < stmt.params.size(); i++) {
+            definedLocals.add(i);
+        }
+        for (Stmt statement : stmt.body) {
+            if (statement instanceof Stmt.Function) {
+                definedLocals.add(((Stmt.Function) statement).slot);
+            } else if (isDeclaration(statement)) {
+                definedLocals.add(declaredSlot(statement));
+            }
+        }
+
+        List<Stmt> body = rewrite(stmt.body);
+        Stmt.Function copy = stmt;
+        if (body != stmt.body) {
+            copy = new Stmt.Function(stmt.name, stmt.params, body, stmt.returnType);
+            copy.slot = stmt.slot;
+            copy.locals = locals;
+            copy.verified = stmt.verified;
+        }
+        function = enclosing;
+        locals = enclosingLocals;
+        definedLocals = enclosingDefined;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        if (writtenLocals != null) {
+            // Inside a loop being hoisted from: this one is done already.
+            return super.visitWhileStmt(stmt);
+        }
+
+        // Inner loops first, so what they hoist can move further out.
+        Stmt.While loop = (Stmt.While) super.visitWhileStmt(stmt);
+        findWrites(loop);
+        hoisted = new ArrayList<>();
+        hoistedSlots = new ArrayList<>();
+        Expr condition = rewrite(loop.condition);
+        List<Stmt> body = rewrite(loop.body);
+        writtenLocals = null;
+        if (hoisted.isEmpty()) {
+            return loop;
+        }
+
+        Stmt.While copy = new Stmt.While(condition, body);
+        copy.hoisted = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        if (loop.hoisted != null) {
+            copy.hoisted.addAll(loop.hoisted);
+            for (int slot : loop.hoistedSlots) {
+                slots.add(slot);
+            }
+        }
+        copy.hoisted.addAll(hoisted);
+        slots.addAll(hoistedSlots);
+        copy.hoistedSlots = slots.stream().mapToInt(Integer::intValue).toArray();
+        return copy;
+    }
+
+    private void findWrites(Stmt.While loop) {
+        writtenLocals = new HashSet<>();
+        writtenGlobals = new HashSet<>();
+        writesAnyGlobal = false;
+        new AstRewriter() {
+            private void write(int depth, int slot) {
+                if (depth == 0) {
+                    writtenLocals.add(slot);
+                }
+                if (depth == globalDepth()) {
+                    writtenGlobals.add(slot);
+                }
+            }
+
+            @Override
+            public Stmt visitScanStmt(Stmt.Scan stmt) {
+                for (int i = 0; i < stmt.slots.length; i++) {
+                    write(stmt.depths[i], stmt.slots[i]);
+                }
+                return stmt;
+            }
+
+            @Override
+            public Stmt visitWhileStmt(Stmt.While stmt) {
+                if (stmt.hoistedSlots != null) {
+                    for (int slot : stmt.hoistedSlots) {
+                        write(0, slot);
+                    }
+                }
+                return super.visitWhileStmt(stmt);
+            }
+
+            @Override
+            public Expr visitAssignExpr(Expr.Assign expr) {
+                write(expr.depth, expr.slot);
+                return super.visitAssignExpr(expr);
+            }
+
+            @Override
+            public Expr visitCallExpr(Expr.Call expr) {
+                if (expr.inlined != null) {
+                    for (int slot : expr.argumentSlots) {
+                        if (slot >= 0) {
+                            write(0, slot);
+                        }
+                    }
+                } else if (!isNative(expr, natives)) {
+                    // A FN can assign any global.
+                    writesAnyGlobal = true;
+                }
+                return super.visitCallExpr(expr);
+            }
+        }.visitWhileStmt(loop);
+    }
+
+    private boolean isNative(Expr.Call expr, Set<Integer> slots) {
+        // A FN with a native's name makes calls to it unverified.
+        return expr.verified && expr.inlined == null && expr.callee instanceof Expr.Variable
+                && ((Expr.Variable) expr.callee).depth == globalDepth()
+                && slots.contains(((Expr.Variable) expr.callee).slot);
+    }
+
+    private boolean isInvariant(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            return true;
+        } else if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) expr;
+            if (variable.depth == 0 && function != null) {
+                return definedLocals.contains(variable.slot) && !writtenLocals.contains(variable.slot);
+            }
+            if (variable.depth != globalDepth() || writesAnyGlobal || writtenGlobals.contains(variable.slot)) {
+                return false;
+            }
+            return interpreter.globals.isDefined(variable.slot)
+                    || (function == null ? globals : globalsForFunctions).contains(variable.slot);
+        } else if (expr instanceof Expr.Grouping) {
+            return isInvariant(((Expr.Grouping) expr).expression);
+        } else if (expr instanceof Expr.Logical) {
+            return isInvariant(((Expr.Logical) expr).left) && isInvariant(((Expr.Logical) expr).right);
+        } else if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            return (unary.verified || unary.operator.type == TokenType.NOT) && isInvariant(unary.right);
+        } else if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            switch (binary.operator.type) {
+                case PLUS:
+                case MINUS:
+                case STAR:
+                    if (!binary.verified) {
+                        return false;
+                    }
+                    break;
+                case SLASH:
+                case MODULO:
+                    if (!binary.verified || !isNonZero(binary.right)) {
+                        return false;
+                    }
+                    break;
+                case EQUAL_EQUAL:
+                case NOT_EQUAL:
+                    break;
+                default:
+                    return false;
+            }
+            return isInvariant(binary.left) && isInvariant(binary.right);
+        } else if (expr instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call) expr;
+            if (!isNative(call, pureNatives)) {
+                return false;
+            }
+            for (Expr argument : call.arguments) {
+                if (!isInvariant(argument)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isNonZero(Expr expr) {
+        if (!(expr instanceof Expr.Literal)) {
+            return false;
+        }
+        Object value = ((Expr.Literal) expr).value;
+        return (value instanceof Integer && (int) value != 0) || (value instanceof Double && (double) value != 0);
+    }
+
+    // Whether an expression does any work worth hoisting.
+    private static boolean isTrivial(Expr expr) {
+        if (expr instanceof Expr.Grouping) {
+            return isTrivial(((Expr.Grouping) expr).expression);
+        }
+        return expr instanceof Expr.Literal || expr instanceof Expr.Variable;
+    }
+
+    @Override
+    Expr rewrite(Expr expr) {
+        if (writtenLocals == null || expr == null || isTrivial(expr) || !isInvariant(expr)) {
+            return super.rewrite(expr);
+        }
+
+        int slot = function == null ? interpreter.globalSlot("hoisted#" + hoistedGlobals++) : locals++;
+        hoisted.add(expr);
+        hoistedSlots.add(slot);
+        Expr.Variable variable = new Expr.Variable(HOISTED);
+        variable.depth = 0;
+        variable.slot = slot;
+        return variable;
+    }
+}
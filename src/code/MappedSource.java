@@ -0,0 +1,89 @@
+package code;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+// Read-only view of a memory-mapped source file. Characters are handed to the
+// Scanner one byte at a time, which is fine for CODE since every keyword,
+// identifier and operator is ASCII. Only the lexemes that the Scanner actually
+// keeps are decoded, so non-ASCII text inside string literals still comes out
+// right.
+public class MappedSource implements CharSequence {
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private final ByteBuffer buffer;
+    private final Charset charset;
+
+    private MappedSource(ByteBuffer buffer, Charset charset) {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.charset = charset;
+    }
+
+    static MappedSource map(FileChannel channel, Charset charset) throws IOException {
+        return map(channel, 0, channel.size(), charset);
+    }
+
+    static MappedSource map(FileChannel channel, long position, long size, Charset charset) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Source files larger than 2GB are not supported.");
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        return new MappedSource(buffer, charset);
+    }
+
+    @Override
+    public int length() {
+        return buffer.limit();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (buffer.get(index) & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return decode(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return decode(0, length());
+    }
+
+    // Finds c in [from, to) eight bytes at a time: XOR-ing a word with c in
+    // every byte turns matches into zero bytes, and the classic "has zero byte"
+    // test flags them. In little-endian order the lowest flagged byte is always
+    // a real match.
+    int indexOf(char c, int from, int to) {
+        if (c > 0xff) {
+            return -1;
+        }
+        long pattern = c * ONES;
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long word = buffer.getLong(i) ^ pattern;
+            long found = (word - ONES) & ~word & HIGH_BITS;
+            if (found != 0) {
+                return i + Long.numberOfTrailingZeros(found) / Byte.SIZE;
+            }
+        }
+        for (; i < to; i++) {
+            if (buffer.get(i) == (byte) c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String decode(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, charset);
+    }
+}
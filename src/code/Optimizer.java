@@ -0,0 +1,50 @@
+package code;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Runs the optimization passes over a resolved and type checked program,
+// right before the Interpreter executes it. Passes run in the order they are
+// registered, and each one can be turned off with --no-<name> so results can
+// be compared with and without it. Unparsed lazy FN bodies are left alone.
+class Optimizer {
+    interface Pass {
+        List<Stmt> run(List<Stmt> statements, Interpreter interpreter);
+    }
+
+    private static final Map<String, Pass> passes = new LinkedHashMap<>();
+    private static final Map<String, Boolean> enabled = new LinkedHashMap<>();
+
+    static {
+        register("immut", (statements, interpreter) -> new ImmutPropagator(interpreter).propagate(statements));
+        register("fold", (statements, interpreter) -> new ConstantFolder(interpreter).rewrite(statements));
+        register("prune-if", (statements, interpreter) -> new IfPruner().rewrite(statements));
+        register("dead-code", (statements, interpreter) -> new DeadCodeEliminator().rewrite(statements));
+        register("inline", (statements, interpreter) -> new Inliner(interpreter).inline(statements));
+        register("licm", (statements, interpreter) -> new LoopInvariantMover(interpreter).move(statements));
+    }
+
+    private static void register(String name, Pass pass) {
+        passes.put(name, pass);
+        enabled.put(name, true);
+    }
+
+    // Returns false if there is no pass with that name.
+    static boolean disable(String name) {
+        if (!passes.containsKey(name)) {
+            return false;
+        }
+        enabled.put(name, false);
+        return true;
+    }
+
+    static List<Stmt> optimize(List<Stmt> statements, Interpreter interpreter) {
+        for (Map.Entry<String, Pass> entry : passes.entrySet()) {
+            if (enabled.get(entry.getKey())) {
+                statements = entry.getValue().run(statements, interpreter);
+            }
+        }
+        return statements;
+    }
+}
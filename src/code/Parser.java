@@ -2,38 +2,180 @@ package code;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import code.Stmt.Function;
 
 public class Parser {
 
-    private static class ParseError extends RuntimeException {
+    static class ParseError extends RuntimeException {
     }
 
-    private final List<Token> tokens;
+    // One top level FN declaration, declaration line or statement, with the
+    // range of tokens it was parsed from and the Token.Shift its tokens share,
+    // if any.
+    static class Item {
+        enum Kind {
+            FUNCTION, DECLARATION, STATEMENT
+        }
+
+        final Kind kind;
+        final int start;
+        final int end;
+        final List<Stmt> statements;
+        final Token.Shift shift;
+
+        Item(Kind kind, int start, int end, List<Stmt> statements, Token.Shift shift) {
+            this.kind = kind;
+            this.start = start;
+            this.end = end;
+            this.statements = statements;
+            this.shift = shift;
+        }
+    }
+
+    private interface PrefixRule {
+        Expr parse(Parser parser);
+    }
+
+    private interface InfixRule {
+        Expr parse(Parser parser, Expr left, Token operator);
+    }
+
+    private static final int ASSIGNMENT = 1;
+    private static final int OR = 2;
+    private static final int AND = 3;
+    private static final int EQUALITY = 4;
+    private static final int COMPARISON = 5;
+    private static final int TERM = 6;
+    private static final int FACTOR = 7;
+
+    // Handler for every token that can start an expression, and binding power
+    // and handler of every infix operator, indexed by token type. Tokens that
+    // cannot continue an expression have precedence zero.
+    private static final PrefixRule[] PREFIX = new PrefixRule[TokenType.values().length];
+    private static final int[] PRECEDENCE = new int[TokenType.values().length];
+    private static final InfixRule[] INFIX = new InfixRule[TokenType.values().length];
+
+    static {
+        prefix(Parser::prefixOperator, TokenType.NOT, TokenType.MINUS, TokenType.PLUS);
+        prefix(Parser::literal, TokenType.TRUE_LITERAL, TokenType.FALSE_LITERAL, TokenType.NULL,
+                TokenType.STRING_LITERAL, TokenType.CHAR_LITERAL, TokenType.INT_LITERAL, TokenType.FLOAT_LITERAL,
+                TokenType.DOLLAR_SIGN);
+        prefix(Parser::grouping, TokenType.LEFT_PARENTHESIS);
+        prefix(Parser::variable, TokenType.IDENTIFIER);
+
+        infix(ASSIGNMENT, Parser::assignment, TokenType.EQUAL);
+        infix(OR, Parser::logical, TokenType.OR);
+        infix(AND, Parser::logical, TokenType.AND);
+        infix(EQUALITY, Parser::binary, TokenType.NOT_EQUAL, TokenType.EQUAL_EQUAL);
+        infix(COMPARISON, Parser::binary, TokenType.GREATER_THAN, TokenType.GREATER_THAN_EQUAL,
+                TokenType.LESS_THAN, TokenType.LESS_THAN_EQUAL);
+        infix(TERM, Parser::binary, TokenType.MINUS, TokenType.PLUS, TokenType.AMPERSAND);
+        infix(FACTOR, Parser::binary, TokenType.SLASH, TokenType.STAR, TokenType.MODULO);
+    }
+
+    private static void prefix(PrefixRule rule, TokenType... types) {
+        for (TokenType type : types) {
+            PREFIX[type.ordinal()] = rule;
+        }
+    }
+
+    private static void infix(int precedence, InfixRule rule, TokenType... types) {
+        for (TokenType type : types) {
+            PRECEDENCE[type.ordinal()] = precedence;
+            INFIX[type.ordinal()] = rule;
+        }
+    }
+
+    private final TokenStream tokens;
+    // Only record where FN bodies are and parse them on first use.
+    private final boolean lazyFunctions;
+    // Parse the top level FN declarations on this pool, when set.
+    private final ForkJoinPool pool;
+    // Where errors go when this parser runs on a pool thread.
+    private final ErrorLog errors;
     private int current = 0;
+    // Result of a declaration parsed on the pool.
+    private Function parsed = null;
+    private ParseError failure = null;
+
+    Parser(TokenStream tokens) {
+        this(tokens, false, null);
+    }
+
+    Parser(TokenStream tokens, boolean lazyFunctions) {
+        this(tokens, lazyFunctions, null);
+    }
 
-    Parser(List<Token> tokens) {
+    Parser(TokenStream tokens, boolean lazyFunctions, ForkJoinPool pool) {
+        this(tokens, lazyFunctions, pool, 0, null);
+    }
+
+    Parser(TokenStream tokens, boolean lazyFunctions, int current) {
+        this(tokens, lazyFunctions, null, current, null);
+    }
+
+    Parser(TokenStream tokens, int current, ErrorLog errors) {
+        this(tokens, false, null, current, errors);
+    }
+
+    private Parser(TokenStream tokens, boolean lazyFunctions, ForkJoinPool pool, int current, ErrorLog errors) {
         this.tokens = tokens;
+        // A streaming TokenWindow cannot go back to a skipped body or hand
+        // tokens to other threads.
+        this.lazyFunctions = lazyFunctions && tokens instanceof TokenBuffer;
+        this.pool = tokens instanceof TokenBuffer ? pool : null;
+        this.current = current;
+        this.errors = errors;
     }
 
     List<Stmt> parse() {
+        return parse(null);
+    }
+
+    // Parses the whole program. When 'items' is given, every top level item is
+    // also added to it, and the tokens of each item parsed here share a new
+    // Token.Shift.
+    List<Stmt> parse(List<Item> items) {
         List<Stmt> statements = new ArrayList<>();
+        if (pool != null) {
+            for (Item item : parseFunctionsInParallel()) {
+                statements.addAll(item.statements);
+                record(items, item);
+            }
+        }
+
         while (match(TokenType.FUNCTION) && !isAtEnd()) {
-            statements.add(function("function"));
+            int start = current - 1;
+            Token.Shift shift = shift(items != null);
+            Stmt function = function("function");
+            statements.add(function);
+            record(items, new Item(Item.Kind.FUNCTION, start, current, List.of(function), shift));
         }
+        shift(false);
 
         consume(TokenType.BEGIN, "Expecting BEGIN.");
         consume(TokenType.CODE, "Expecting 'CODE' after BEGIN");
 
         while (match(TokenType.STRING, TokenType.CHAR, TokenType.INT, TokenType.FLOAT, TokenType.BOOL,
                 TokenType.IMMUTABLE)) {
-            statements.addAll(varDeclaration());
+            int start = current - 1;
+            Token.Shift shift = shift(items != null);
+            List<Stmt> declarations = varDeclaration();
+            statements.addAll(declarations);
+            record(items, new Item(Item.Kind.DECLARATION, start, current, declarations, shift));
         }
 
         while (!isAtEnd() && !check(TokenType.END)) {
-            statements.add(statement());
+            int start = current;
+            Token.Shift shift = shift(items != null);
+            Stmt statement = statement();
+            statements.add(statement);
+            record(items, new Item(Item.Kind.STATEMENT, start, current, List.of(statement), shift));
         }
+        shift(false);
 
         consume(TokenType.END, "Expecting END.");
         consume(TokenType.CODE, "Expecting 'CODE' after END");
@@ -41,46 +183,208 @@ public class Parser {
         return statements;
     }
 
-    private Expr expression() {
-        return assignment();
+    private void record(List<Item> items, Item item) {
+        if (items != null) {
+            items.add(item);
+        }
     }
 
-    private Expr assignment() {
-        Expr expr = or();
+    // Gives the tokens built from here on a new Token.Shift, or none when
+    // 'item' is false.
+    private Token.Shift shift(boolean item) {
+        if (!(tokens instanceof TokenBuffer)) {
+            return null;
+        }
+        Token.Shift shift = item ? new Token.Shift() : null;
+        ((TokenBuffer) tokens).shift(shift);
+        return shift;
+    }
+
+    // Parses a single top level item of the given kind starting at the current
+    // token, for re-parsing one item after an edit.
+    Item parseItem(Item.Kind kind) {
+        int start = current;
+        Token.Shift shift = shift(true);
+        switch (kind) {
+            case FUNCTION:
+                consume(TokenType.FUNCTION, "Expect 'FN'.");
+                Stmt function = function("function");
+                return new Item(kind, start, current, List.of(function), shift);
+            case DECLARATION:
+                advance();
+                List<Stmt> declarations = varDeclaration();
+                return new Item(kind, start, current, declarations, shift);
+            default:
+                Stmt statement = statement();
+                return new Item(kind, start, current, List.of(statement), shift);
+        }
+    }
+
+    // Top level FN declarations do not depend on each other, so they are found
+    // with a quick BEGIN/END scan and then parsed side by side on the pool.
+    // Results are taken in source order. Errors are reported in source order.
+    // Parsing stops at the first declaration that fails, as it would when
+    // parsing sequentially. If a declaration does not end where the scan
+    // expected, the rest is left for the sequential loop in parse().
+    private List<Item> parseFunctionsInParallel() {
+        List<Integer> starts = new ArrayList<>();
+        int index = current;
+        while (tokens.type(index) == TokenType.FUNCTION && tokens.type(index + 1) != TokenType.EOF) {
+            starts.add(index + 1);
+            index = skipDeclaration(index + 1);
+            if (index < 0) {
+                break;
+            }
+        }
 
-        if (match(TokenType.EQUAL)) {
-            Token equals = previous();
-            Expr value = assignment();
+        List<ForkJoinTask<Parser>> tasks = new ArrayList<>();
+        for (int start : starts) {
+            tasks.add(pool.submit(ForkJoinTask.adapt(() -> {
+                Parser parser = new Parser(tokens, lazyFunctions, null, start, new ErrorLog());
+                try {
+                    parser.parsed = parser.function("function");
+                } catch (ParseError error) {
+                    parser.failure = error;
+                }
+                return parser;
+            })));
+        }
 
-            if (expr instanceof Expr.Variable) {
-                Token name = ((Expr.Variable) expr).name;
-                return new Expr.Assign(name, value);
+        List<Item> functions = new ArrayList<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            Parser parser = tasks.get(i).join();
+            parser.errors.report(0);
+            if (parser.failure != null) {
+                throw parser.failure;
             }
 
-            error(equals, "Invalid assignment target.");
+            functions.add(new Item(Item.Kind.FUNCTION, starts.get(i) - 1, parser.current, List.of(parser.parsed), null));
+            current = parser.current;
+            if (i + 1 < starts.size() && starts.get(i + 1) != current + 1) {
+                break;
+            }
         }
+        return functions;
+    }
 
-        return expr;
+    // Returns the index just past the declaration that starts at 'index', or
+    // -1 if the source ends first.
+    private int skipDeclaration(int index) {
+        while (tokens.type(index) != TokenType.BEGIN) {
+            if (tokens.type(index) == TokenType.EOF) {
+                return -1;
+            }
+            index++;
+        }
+
+        int depth = 0;
+        do {
+            TokenType type = tokens.type(index);
+            if (type == TokenType.EOF) {
+                return -1;
+            } else if (type == TokenType.BEGIN) {
+                depth++;
+            } else if (type == TokenType.END) {
+                depth--;
+            }
+            index++;
+        } while (depth > 0);
+
+        if (tokens.type(index) == TokenType.FUNCTION) {
+            index++;
+        }
+        return index;
+    }
+
+    private Expr expression() {
+        return parsePrecedence(ASSIGNMENT);
     }
 
     private Expr or() {
-        Expr expr = and();
+        return parsePrecedence(OR);
+    }
+
+    // Precedence climbing: parse one operand, then keep folding in infix
+    // operators that bind at least as tightly as 'precedence'.
+    private Expr parsePrecedence(int precedence) {
+        Expr expr = unary();
 
-        while (match(TokenType.OR)) {
+        while (precedence <= PRECEDENCE[peekType().ordinal()]) {
+            advance();
             Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
+            expr = INFIX[operator.type.ordinal()].parse(this, expr, operator);
         }
 
         return expr;
     }
 
-    private Expr and() {
-        Expr expr = equality();
-        while (match(TokenType.AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
+    private Expr binary(Expr left, Token operator) {
+        Expr right = parsePrecedence(PRECEDENCE[operator.type.ordinal()] + 1);
+        return new Expr.Binary(left, operator, right);
+    }
+
+    private Expr logical(Expr left, Token operator) {
+        Expr right = parsePrecedence(PRECEDENCE[operator.type.ordinal()] + 1);
+        return new Expr.Logical(left, operator, right);
+    }
+
+    // Assignment is right associative, so the value is parsed at the same
+    // precedence.
+    private Expr assignment(Expr target, Token equals) {
+        Expr value = parsePrecedence(ASSIGNMENT);
+
+        if (target instanceof Expr.Variable) {
+            Token name = ((Expr.Variable) target).name;
+            return new Expr.Assign(name, value);
+        }
+
+        error(equals, "Invalid assignment target.");
+        return target;
+    }
+
+    private Expr unary() {
+        PrefixRule rule = PREFIX[peekType().ordinal()];
+        if (rule == null || isAtEnd()) {
+            throw error(peek(), "Expect expression.");
+        }
+
+        advance();
+        return rule.parse(this);
+    }
+
+    private Expr prefixOperator() {
+        Token operator = previous();
+        Expr right = unary();
+        return new Expr.Unary(operator, right);
+    }
+
+    private Expr literal() {
+        switch (tokens.type(current - 1)) {
+            case TRUE_LITERAL:
+                return call(new Expr.Literal(true));
+            case FALSE_LITERAL:
+                return call(new Expr.Literal(false));
+            case NULL:
+                return call(new Expr.Literal(null));
+            default:
+                return call(new Expr.Literal(tokens.literal(current - 1)));
+        }
+    }
+
+    private Expr grouping() {
+        Expr expr = expression();
+        consume(TokenType.RIGHT_PARENTHESIS, "Expect ')' after expression");
+        return call(new Expr.Grouping(expr));
+    }
+
+    private Expr variable() {
+        return call(new Expr.Variable(previous()));
+    }
+
+    // A primary expression can be called once, right after it is parsed.
+    private Expr call(Expr expr) {
+        if (match(TokenType.LEFT_PARENTHESIS)) {
+            expr = finishCall(expr);
         }
 
         return expr;
@@ -130,7 +434,8 @@ public class Parser {
         List<Token> identifiers = new ArrayList<>();
 
         do {
-            identifiers.add(consume(TokenType.IDENTIFIER, "Expecting identifier after 'scan'."));
+            consume(TokenType.IDENTIFIER, "Expecting identifier after 'scan'.");
+            identifiers.add(previous());
         } while (match(TokenType.COMMA));
 
         return new Stmt.Scan(identifiers);
@@ -156,7 +461,7 @@ public class Parser {
 
         List<List<Stmt>> elseIfBranches = new ArrayList<>();
 
-        while (peek().type == TokenType.ELSE && peekNext().type == TokenType.IF && !isAtEnd()) {
+        while (peekType() == TokenType.ELSE && peekNextType() == TokenType.IF && !isAtEnd()) {
             consume(TokenType.ELSE, "Expect ELSE.");
             consume(TokenType.IF, "Expecti IF.");
             consume(TokenType.LEFT_PARENTHESIS, "Expecting '(' after IF.");
@@ -232,20 +537,20 @@ public class Parser {
     }
 
     private List<Stmt> varDeclaration() {
-        Token immut = previous();
-        Token token = previous();
+        TokenType type = tokens.type(current - 1);
         boolean mutable = true;
         List<Token> names = new ArrayList<>();
         List<Expr> initializers = new ArrayList<>();
 
-        if (immut.type == TokenType.IMMUTABLE) {
+        if (type == TokenType.IMMUTABLE) {
             mutable = false;
-            token = consume(peek().type, "Expecting a variable type after 'IMMUT' keyword.");
+            consume(peekType(), "Expecting a variable type after 'IMMUT' keyword.");
+            type = tokens.type(current - 1);
         }
 
         do {
-            Token name = consume(TokenType.IDENTIFIER, "Expect variable name.");
-            names.add(name);
+            consume(TokenType.IDENTIFIER, "Expect variable name.");
+            names.add(previous());
             Expr initializer = null;
             if (match(TokenType.EQUAL)) {
                 initializer = expression();
@@ -256,7 +561,7 @@ public class Parser {
 
         List<Stmt> statements = new ArrayList<>();
 
-        switch (token.type) {
+        switch (type) {
             case STRING:
                 for (int i = 0; i < names.size(); i++) {
                     Stmt statement = new Stmt.String(names.get(i), initializers.get(i), mutable);
@@ -302,7 +607,8 @@ public class Parser {
             returnType = previous();
         }
 
-        Token name = consume(TokenType.IDENTIFIER, "Expect " + kind + " name.");
+        consume(TokenType.IDENTIFIER, "Expect " + kind + " name.");
+        Token name = previous();
         consume(TokenType.LEFT_PARENTHESIS, "Expect '(' after " + kind + " name.");
         List<Parameter> parameters = new ArrayList<>();
 
@@ -312,8 +618,10 @@ public class Parser {
                     error(peek(), "Can't have more than 255 parameters.");
                 }
 
-                Token type = advance();
-                Token paramName = advance();
+                advance();
+                Token type = previous();
+                advance();
+                Token paramName = previous();
                 parameters.add(new Parameter(type, paramName));
 
             } while (match(TokenType.COMMA));
@@ -324,10 +632,43 @@ public class Parser {
         consume(TokenType.BEGIN, "Expect 'BEGIN' before 'FN'.");
         consume(TokenType.FUNCTION, "Expect 'FN' before " + kind + " body.");
 
-        List<Stmt> body = block(TokenType.FUNCTION);
+        List<Stmt> body;
+        if (lazyFunctions) {
+            body = new LazyBody(tokens, current);
+            skipFunctionBody();
+        } else {
+            body = block(TokenType.FUNCTION);
+        }
         return new Stmt.Function(name, parameters, body, returnType);
     }
 
+    List<Stmt> functionBody() {
+        return block(TokenType.FUNCTION);
+    }
+
+    // Steps over a body without parsing it. Every BEGIN in a body is closed by
+    // an END, so the body ends at the first END that closes nothing.
+    private void skipFunctionBody() {
+        int depth = 0;
+        while (!isAtEnd()) {
+            TokenType type = peekType();
+            if (type == TokenType.BEGIN) {
+                depth++;
+            } else if (type == TokenType.END) {
+                if (depth == 0) {
+                    break;
+                }
+                depth--;
+            }
+            advance();
+        }
+
+        consume(TokenType.END, "Expect 'END' after function body.");
+        if (peekType() == TokenType.FUNCTION) {
+            consume(TokenType.FUNCTION, "Expecting 'FN' after END");
+        }
+    }
+
     private List<Stmt> block(TokenType type) {
 
         List<Stmt> statements = new ArrayList<>();
@@ -348,78 +689,13 @@ public class Parser {
         }
 
         consume(TokenType.END, "Expect 'END' after function body.");
-        if (peek().type == type) {
-            consume(peek().type, "Expecting 'FN' after END");
+        if (peekType() == type) {
+            consume(peekType(), "Expecting 'FN' after END");
         }
 
         return statements;
     }
 
-    private Expr equality() {
-        Expr expr = comparison();
-        while (match(TokenType.NOT_EQUAL, TokenType.EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    private Expr comparison() {
-        Expr expr = term();
-        while (match(TokenType.GREATER_THAN, TokenType.GREATER_THAN_EQUAL, TokenType.LESS_THAN,
-                TokenType.LESS_THAN_EQUAL)) {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr term() {
-        Expr expr = factor();
-
-        while (match(TokenType.MINUS, TokenType.PLUS, TokenType.AMPERSAND)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr factor() {
-        Expr expr = unary();
-        while (match(TokenType.SLASH, TokenType.STAR, TokenType.MODULO)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr unary() {
-        if (match(TokenType.NOT, TokenType.MINUS, TokenType.PLUS)) {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
-        }
-
-        return call();
-    }
-
-    private Expr call() {
-        Expr expr = primary();
-
-        if (match(TokenType.LEFT_PARENTHESIS)) {
-            expr = finishCall(expr);
-        }
-
-        return expr;
-    }
-
     private Expr finishCall(Expr callee) {
         List<Expr> arguments = new ArrayList<>();
         if (!check(TokenType.RIGHT_PARENTHESIS)) {
@@ -432,41 +708,27 @@ public class Parser {
             } while (match(TokenType.COMMA));
         }
 
-        Token rightParen = consume(TokenType.RIGHT_PARENTHESIS, "Expecting a parenthesis after a function call.");
+        consume(TokenType.RIGHT_PARENTHESIS, "Expecting a parenthesis after a function call.");
+        Token rightParen = previous();
 
         return new Expr.Call(callee, rightParen, arguments);
     }
 
-    private Expr primary() {
-        if (match(TokenType.TRUE_LITERAL))
-            return new Expr.Literal(true);
-        if (match(TokenType.FALSE_LITERAL))
-            return new Expr.Literal(false);
-        if (match(TokenType.NULL))
-            return new Expr.Literal(null);
-        if (match(TokenType.STRING_LITERAL, TokenType.CHAR_LITERAL,
-                TokenType.INT_LITERAL, TokenType.FLOAT_LITERAL, TokenType.DOLLAR_SIGN))
-            return new Expr.Literal(previous().literal);
-        if (match(TokenType.LEFT_PARENTHESIS)) {
-            Expr expr = expression();
-            consume(TokenType.RIGHT_PARENTHESIS, "Expect ')' after expression");
-            return new Expr.Grouping(expr);
-        }
-        if (match(TokenType.IDENTIFIER)) {
-            return new Expr.Variable(previous());
+    private void consume(TokenType type, String message) {
+        if (check(type)) {
+            advance();
+            return;
         }
-        throw error(peek(), "Expect expression.");
-    }
-
-    private Token consume(TokenType type, String message) {
-        if (check(type))
-            return advance();
 
         throw error(peek(), message);
     }
 
     private ParseError error(Token token, String message) {
-        Code.error(token, message);
+        if (errors != null) {
+            errors.error(token, message);
+        } else {
+            Code.error(token, message);
+        }
         return new ParseError();
     }
 
@@ -475,9 +737,9 @@ public class Parser {
         advance();
 
         while (!isAtEnd()) {
-            if (previous().type == TokenType.SEMICOLON)
+            if (tokens.type(current - 1) == TokenType.SEMICOLON)
                 return;
-            switch (peek().type) {
+            switch (peekType()) {
                 case STRING:
                 case INT:
                 case CHAR:
@@ -497,22 +759,32 @@ public class Parser {
     }
 
     private boolean isAtEnd() {
-        return peek().type == TokenType.EOF;
+        return peekType() == TokenType.EOF;
     }
 
     private Token peek() {
         return tokens.get(current);
     }
 
-    private Token peekNext() {
-        return tokens.get(current + 1);
+    private TokenType peekType() {
+        return tokens.type(current);
+    }
+
+    private TokenType peekNextType() {
+        return tokens.type(current + 1);
     }
 
-    private Token advance() {
+    private void advance() {
         if (!isAtEnd())
             current++;
+    }
 
-        return previous();
+    private boolean match(TokenType type) {
+        if (check(type)) {
+            advance();
+            return true;
+        }
+        return false;
     }
 
     private boolean match(TokenType... types) {
@@ -528,7 +800,7 @@ public class Parser {
     private boolean check(TokenType type) {
         if (isAtEnd())
             return false;
-        return peek().type == type;
+        return peekType() == type;
     }
 
 }
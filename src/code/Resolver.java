@@ -0,0 +1,265 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Gives every variable a slot and every variable reference a (depth, slot)
+// pair before the Interpreter runs, mirroring the environments it creates:
+// top level code runs in the global environment, and a call runs in a new
+// environment whose parent is always the global one. IF and WHILE bodies do
+// not get their own environment.
+//
+// Global slots are handed out by the Interpreter, so names keep their slots
+// between programs run on the same Interpreter. A name that is never defined
+// still gets one, and reading it is an error at run time as before.
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static class Scope {
+        final Map<String, Integer> names = new HashMap<>();
+        int size = 0;
+
+        int declare(String name) {
+            Integer slot = names.get(name);
+            if (slot == null) {
+                slot = size++;
+                names.put(name, slot);
+            }
+            return slot;
+        }
+    }
+
+    private final Interpreter interpreter;
+    // Local scopes, innermost last. Empty at the top level.
+    private List<Scope> scopes = new ArrayList<>();
+
+    Resolver(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    void resolve(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            resolve(statement);
+        }
+    }
+
+    // Resolves a function's parameters and body.
+    void resolve(Stmt.Function function) {
+        List<Scope> enclosing = scopes;
+        scopes = new ArrayList<>();
+        Scope scope = new Scope();
+        scopes.add(scope);
+        for (Parameter param : function.params) {
+            // The first parameter wins when two share a name, but every
+            // parameter still gets its own slot.
+            scope.names.putIfAbsent(param.name.lexeme, scope.size);
+            scope.size++;
+        }
+        resolve(function.body);
+        function.locals = scope.size;
+        scopes = enclosing;
+    }
+
+    private void resolve(Stmt stmt) {
+        if (stmt != null) {
+            stmt.accept(this);
+        }
+    }
+
+    private void resolve(Expr expr) {
+        if (expr != null) {
+            expr.accept(this);
+        }
+    }
+
+    private int declare(Token name) {
+        if (scopes.isEmpty()) {
+            return interpreter.globalSlot(name.lexeme);
+        }
+        return scopes.get(scopes.size() - 1).declare(name.lexeme);
+    }
+
+    // Number of environments between the current one and the one that holds
+    // the name. Names not found in a local scope are global.
+    private int depthOf(Token name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            if (scopes.get(i).names.containsKey(name.lexeme)) {
+                return scopes.size() - 1 - i;
+            }
+        }
+        return scopes.size();
+    }
+
+    private int slotOf(Token name, int depth) {
+        if (depth == scopes.size()) {
+            return interpreter.globalSlot(name.lexeme);
+        }
+        return scopes.get(scopes.size() - 1 - depth).names.get(name.lexeme);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        Scope scope = new Scope();
+        scopes.add(scope);
+        resolve(stmt.statements);
+        scopes.remove(scopes.size() - 1);
+        stmt.locals = scope.size;
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        stmt.slot = declare(stmt.name);
+        if (stmt.body instanceof LazyBody && !((LazyBody) stmt.body).isParsed()) {
+            // Resolved by CodeFunction when it is first called.
+            stmt.locals = -1;
+        } else {
+            resolve(stmt);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        for (int i = 0; i < stmt.elseIfBranches.size(); i++) {
+            resolve(stmt.elseIfConditions.get(i));
+            resolve(stmt.elseIfBranches.get(i));
+        }
+        if (stmt.elseBranch != null) {
+            resolve(stmt.elseBranch);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        resolve(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitScanStmt(Stmt.Scan stmt) {
+        int[] depths = new int[stmt.identifiers.size()];
+        int[] slots = new int[stmt.identifiers.size()];
+        for (int i = 0; i < depths.length; i++) {
+            depths[i] = depthOf(stmt.identifiers.get(i));
+            slots[i] = slotOf(stmt.identifiers.get(i), depths[i]);
+        }
+        stmt.depths = depths;
+        stmt.slots = slots;
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitStringStmt(Stmt.String stmt) {
+        // The initializer runs before the name is defined, so it sees any
+        // outer variable of the same name.
+        resolve(stmt.initializer);
+        stmt.slot = declare(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitIntStmt(Stmt.Int stmt) {
+        resolve(stmt.initializer);
+        stmt.slot = declare(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitFloatStmt(Stmt.Float stmt) {
+        resolve(stmt.initializer);
+        stmt.slot = declare(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitCharStmt(Stmt.Char stmt) {
+        resolve(stmt.initializer);
+        stmt.slot = declare(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBoolStmt(Stmt.Bool stmt) {
+        resolve(stmt.initializer);
+        stmt.slot = declare(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+        expr.depth = depthOf(expr.name);
+        expr.slot = slotOf(expr.name, expr.depth);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        resolve(expr.callee);
+        for (Expr argument : expr.arguments) {
+            resolve(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        expr.depth = depthOf(expr.name);
+        expr.slot = slotOf(expr.name, expr.depth);
+        return null;
+    }
+}
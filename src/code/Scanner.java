@@ -1,58 +1,155 @@
 package code;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class Scanner {
-  private final String source;
-  private final List<Token> tokens = new ArrayList<>();
+  // Sources shorter than two chunks are not worth splitting.
+  static final int CHUNK_SIZE = 64 * 1024;
+
+  // Character classes for skipping whole runs of whitespace, identifier and
+  // digit characters in one tight loop instead of one peek()/advance() pair
+  // per character.
+  private static final byte WHITESPACE = 1;
+  private static final byte ALPHA = 2;
+  private static final byte DIGIT = 4;
+  private static final byte[] CLASSES = new byte[128];
+
+  static {
+    CLASSES['\0'] = CLASSES[' '] = CLASSES['\t'] = CLASSES['\r'] = WHITESPACE;
+    CLASSES['_'] = ALPHA;
+    for (char c = 'a'; c <= 'z'; c++) {
+      CLASSES[c] = ALPHA;
+      CLASSES[Character.toUpperCase(c)] = ALPHA;
+    }
+    for (char c = '0'; c <= '9'; c++) {
+      CLASSES[c] = DIGIT;
+    }
+  }
+
+  // Turns the run skipping fast paths off, for benchmarking the plain scanner.
+  static boolean fastPaths = true;
+
+  private final CharSequence source;
+  // The source as a String when it is one, for the intrinsified String.indexOf.
+  private final String text;
+  private final TokenBuffer tokens;
+  private final SymbolTable symbols;
+  private final int end;
+  private final ErrorLog errors;
   private int start = 0;
   private int current = 0;
   private int line = 1;
-  private static final Map<String, TokenType> keywords;
 
-  static {
-    keywords = new HashMap<>();
-    keywords.put("BEGIN", TokenType.BEGIN);
-    keywords.put("END", TokenType.END);
-    keywords.put("CODE", TokenType.CODE);
-    keywords.put("DISPLAY", TokenType.DISPLAY);
-    keywords.put("SCAN", TokenType.SCAN);
-    keywords.put("null", TokenType.NULL);
-    keywords.put("SCAN", TokenType.SCAN);
-    keywords.put("STRING", TokenType.STRING);
-    keywords.put("CHAR", TokenType.CHAR);
-    keywords.put("INT", TokenType.INT);
-    keywords.put("FLOAT", TokenType.FLOAT);
-    keywords.put("BOOL", TokenType.BOOL);
-    keywords.put("IF", TokenType.IF);
-    keywords.put("ELSE", TokenType.ELSE);
-    keywords.put("WHILE", TokenType.WHILE);
-    keywords.put("AND", TokenType.AND);
-    keywords.put("OR", TokenType.OR);
-    keywords.put("NOT", TokenType.NOT);
-    keywords.put("FN", TokenType.FUNCTION);
-    keywords.put("IMMUT", TokenType.IMMUTABLE);
-    keywords.put("RETURN", TokenType.RETURN);
-  }
-
-  Scanner(String source) {
+  Scanner(CharSequence source) {
+    this(source, new SymbolTable());
+  }
+
+  Scanner(CharSequence source, SymbolTable symbols) {
+    this(source, symbols, 0, source.length(), null);
+  }
+
+  // Scans only source[from, to). Lines are counted from 1 at 'from'.
+  private Scanner(CharSequence source, SymbolTable symbols, int from, int to, ErrorLog errors) {
     this.source = source;
+    this.text = source instanceof String ? (String) source : null;
+    this.symbols = symbols;
+    this.tokens = new TokenBuffer(source, symbols);
+    this.start = from;
+    this.current = from;
+    this.end = to;
+    this.errors = errors;
   }
 
-  List<Token> scanTokens() {
+  TokenBuffer scanTokens() {
     while (!isAtEnd()) {
       start = current;
       scanToken();
     }
-    tokens.add(new Token(TokenType.EOF, "", null, line));
+    tokens.add(TokenType.EOF, current, 0, line, null);
     return tokens;
   }
 
+  // Splits the source into chunks that end on a line break and scans them on
+  // the pool. No token spans a line, so each chunk can be scanned on its own
+  // with its own symbol table. The chunks are then joined in order. Lines and
+  // symbol IDs are renumbered and errors are reported in source order, so the
+  // result is the same as scanTokens().
+  TokenBuffer scanTokensParallel(ForkJoinPool pool) {
+    List<ForkJoinTask<Scanner>> chunks = new ArrayList<>();
+    int from = current;
+    while (end - from >= 2 * CHUNK_SIZE) {
+      int to = from + CHUNK_SIZE;
+      while (to < end && source.charAt(to - 1) != '\n') {
+        to++;
+      }
+      chunks.add(pool.submit(chunkTask(from, to)));
+      from = to;
+    }
+    chunks.add(pool.submit(chunkTask(from, end)));
+
+    for (ForkJoinTask<Scanner> task : chunks) {
+      Scanner chunk = task.join();
+      int[] symbolMap = new int[chunk.symbols.size()];
+      for (int id = 0; id < symbolMap.length; id++) {
+        symbolMap[id] = symbols.intern(chunk.symbols.name(id));
+      }
+      tokens.append(chunk.tokens, line - 1, symbolMap);
+      chunk.errors.report(line - 1);
+      line += chunk.line - 1;
+    }
+
+    current = end;
+    tokens.add(TokenType.EOF, current, 0, line, null);
+    return tokens;
+  }
+
+  // Scans source[from, to), which must start at the beginning of a line and
+  // end after a line break or at the end of the source. Lines are counted from
+  // firstLine. No EOF token is added.
+  static TokenBuffer scanRegion(CharSequence source, SymbolTable symbols, int from, int to, int firstLine,
+      ErrorLog errors) {
+    Scanner region = new Scanner(source, symbols, from, to, errors);
+    region.line = firstLine;
+    while (!region.isAtEnd()) {
+      region.start = region.current;
+      region.scanToken();
+    }
+    return region.tokens;
+  }
+
+  private ForkJoinTask<Scanner> chunkTask(int from, int to) {
+    return ForkJoinTask.adapt(() -> {
+      Scanner chunk = new Scanner(source, new SymbolTable(), from, to, new ErrorLog());
+      while (!chunk.isAtEnd()) {
+        chunk.start = chunk.current;
+        chunk.scanToken();
+      }
+      return chunk;
+    });
+  }
+
+  // Pulls a single token from the source. Once the source is exhausted every
+  // further call returns an EOF token.
+  Token nextToken() {
+    while (tokens.size() == 0 && !isAtEnd()) {
+      start = current;
+      scanToken();
+    }
+
+    if (tokens.size() == 0) {
+      return new Token(TokenType.EOF, "", null, line);
+    }
+
+    Token token = tokens.get(0);
+    tokens.clear();
+    return token;
+  }
+
   private boolean isAtEnd() {
-    return current >= source.length();
+    return current >= end;
   }
 
   private void scanToken() {
@@ -137,6 +234,10 @@ public class Scanner {
         addToken(TokenType.SEMICOLON);
         break;
       case '#':
+        if (fastPaths) {
+          int newLine = indexOf('\n', current, end);
+          current = newLine >= 0 ? newLine : end;
+        }
         while (!isAtNewLine() && !isAtEnd())
           advance();
         break;
@@ -144,6 +245,9 @@ public class Scanner {
       case ' ':
       case '\t':
       case '\r':
+        if (fastPaths) {
+          current = skipRun(current, WHITESPACE);
+        }
         break;
       case '\n':
         line++;
@@ -165,12 +269,20 @@ public class Scanner {
         } else if (isAlpha(c)) {
           identifier();
         } else {
-          Code.error(line, current, "Unexpected character.");
+          error("Unexpected character.");
         }
         break;
     }
   }
 
+  private void error(String message) {
+    if (errors != null) {
+      errors.error(line, current, message);
+    } else {
+      Code.error(line, current, message);
+    }
+  }
+
   private boolean match(char expected) {
     if (isAtEnd())
       return false;
@@ -199,6 +311,49 @@ public class Scanner {
     return false;
   }
 
+  // Returns the end of the run of characters in the given classes that starts
+  // at 'from'. Line breaks are never part of a run.
+  private int skipRun(int from, int classes) {
+    if (text != null) {
+      while (from < end) {
+        char c = text.charAt(from);
+        if (c >= 128 || (CLASSES[c] & classes) == 0) {
+          break;
+        }
+        from++;
+      }
+      return from;
+    }
+
+    while (from < end) {
+      char c = source.charAt(from);
+      if (c >= 128 || (CLASSES[c] & classes) == 0) {
+        break;
+      }
+      from++;
+    }
+    return from;
+  }
+
+  // Finds c in source[from, to), or returns -1. Strings use String.indexOf,
+  // which HotSpot compiles to vector instructions, and mapped files are
+  // searched a word at a time.
+  private int indexOf(char c, int from, int to) {
+    if (text != null) {
+      int index = text.indexOf(c, from);
+      return index < to ? index : -1;
+    }
+    if (source instanceof MappedSource) {
+      return ((MappedSource) source).indexOf(c, from, to);
+    }
+    for (int i = from; i < to; i++) {
+      if (source.charAt(i) == c) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
   private boolean isAlpha(char c) {
     return (c >= 'a' && c <= 'z') ||
         (c >= 'A' && c <= 'Z') ||
@@ -209,14 +364,6 @@ public class Scanner {
     return c >= '0' && c <= '9';
   }
 
-  private boolean isFloat(String value) {
-    if (value.contains(".")) {
-      return true;
-    }
-
-    return false;
-  }
-
   private boolean isAlphaNumeric(char c) {
     return isAlpha(c) || isDigit(c);
   }
@@ -231,23 +378,36 @@ public class Scanner {
   }
 
   private void addToken(TokenType type, Object literal) {
-    String text = source.substring(start, current);
-    tokens.add(new Token(type, text, literal, line));
+    tokens.add(type, start, current - start, line, literal);
+  }
+
+  private void addIdentifier(int symbol) {
+    tokens.addIdentifier(start, current - start, line, symbol);
   }
 
   private void string() {
+    if (fastPaths) {
+      int newLine = indexOf('\n', current, end);
+      int quote = indexOf('"', current, newLine >= 0 ? newLine : end);
+      if (quote >= 0) {
+        current = quote;
+      } else if (newLine >= 0) {
+        current = newLine;
+      }
+    }
+
     while (peek() != '"' && !isAtNewLine()) {
       advance();
     }
 
     if (isAtNewLine()) {
-      Code.error(line, current, "Unterminated string.");
+      error("Unterminated string.");
       return;
     }
 
     advance();
 
-    String value = source.substring(start + 1, current - 1);
+    String value = source.subSequence(start + 1, current - 1).toString();
     if (value.equals("TRUE")) {
       addToken(TokenType.TRUE_LITERAL, value);
     } else if (value.equals("FALSE")) {
@@ -258,12 +418,20 @@ public class Scanner {
   }
 
   private void number() {
+    if (fastPaths) {
+      current = skipRun(current, DIGIT);
+    }
     while (isDigit(peek())) {
       advance();
     }
 
+    int point = -1;
     if (peek() == '.' && isDigit(peekNext())) {
+      point = current;
       advance();
+      if (fastPaths) {
+        current = skipRun(current, DIGIT);
+      }
       while (isDigit(peek())) {
         advance();
       }
@@ -273,28 +441,164 @@ public class Scanner {
       while (isAlphaNumeric(peek())) {
         advance();
       }
-      Code.error(line, current, "Unexpected character found after a number.");
+      error("Unexpected character found after a number.");
       return;
     }
 
-    String value = source.substring(start, current);
-
-    if (isFloat(value)) {
-      addToken(TokenType.FLOAT_LITERAL, Double.parseDouble(value));
+    if (point >= 0) {
+      addToken(TokenType.FLOAT_LITERAL, decodeFloat(point));
     } else {
-      addToken(TokenType.INT_LITERAL, Integer.parseInt(value));
+      long value = decodeDigits(start, current);
+      if (value > Integer.MAX_VALUE) {
+        error("Integer literal is too large.");
+        return;
+      }
+      addToken(TokenType.INT_LITERAL, (int) value);
     }
   }
 
+  // Reads the digits in [from, to) straight from the source. Stops counting
+  // once the value no longer fits an int, which is all callers need to know.
+  private long decodeDigits(int from, int to) {
+    long value = 0;
+    for (int i = from; i < to && value <= Integer.MAX_VALUE; i++) {
+      value = value * 10 + (source.charAt(i) - '0');
+    }
+    return value;
+  }
+
+  // Exact powers of ten that a double can hold.
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  // When the digits fit in a double's 53-bit mantissa and the fraction is
+  // short, mantissa / 10^n is a single correctly rounded division and gives
+  // the same result as Double.parseDouble. Anything longer takes the slow path.
+  private double decodeFloat(int point) {
+    int fractionDigits = current - point - 1;
+    int digits = point - start + fractionDigits;
+    if (digits <= 15 && fractionDigits < POWERS_OF_TEN.length) {
+      long mantissa = 0;
+      for (int i = start; i < current; i++) {
+        if (i != point) {
+          mantissa = mantissa * 10 + (source.charAt(i) - '0');
+        }
+      }
+      return mantissa / POWERS_OF_TEN[fractionDigits];
+    }
+    return Double.parseDouble(source.subSequence(start, current).toString());
+  }
+
   private void identifier() {
+    if (fastPaths) {
+      current = skipRun(current, ALPHA | DIGIT);
+    }
     while (isAlphaNumeric(peek())) {
       advance();
     }
 
-    String text = source.substring(start, current);
-    TokenType type = keywords.get(text);
-    if (type == null)
-      type = TokenType.IDENTIFIER;
-    addToken(type);
+    TokenType type = keyword();
+    if (type == TokenType.IDENTIFIER) {
+      addIdentifier(symbols.intern(source, start, current));
+    } else {
+      addToken(type);
+    }
+  }
+
+  // Recognizes the reserved words by walking their characters, so keywords
+  // cost no map lookup and no substring.
+  private TokenType keyword() {
+    switch (source.charAt(start)) {
+      case 'A':
+        return checkKeyword(1, "ND", TokenType.AND);
+      case 'B':
+        if (current - start > 1) {
+          switch (source.charAt(start + 1)) {
+            case 'E':
+              return checkKeyword(2, "GIN", TokenType.BEGIN);
+            case 'O':
+              return checkKeyword(2, "OL", TokenType.BOOL);
+          }
+        }
+        break;
+      case 'C':
+        if (current - start > 1) {
+          switch (source.charAt(start + 1)) {
+            case 'H':
+              return checkKeyword(2, "AR", TokenType.CHAR);
+            case 'O':
+              return checkKeyword(2, "DE", TokenType.CODE);
+          }
+        }
+        break;
+      case 'D':
+        return checkKeyword(1, "ISPLAY", TokenType.DISPLAY);
+      case 'E':
+        if (current - start > 1) {
+          switch (source.charAt(start + 1)) {
+            case 'L':
+              return checkKeyword(2, "SE", TokenType.ELSE);
+            case 'N':
+              return checkKeyword(2, "D", TokenType.END);
+          }
+        }
+        break;
+      case 'F':
+        if (current - start > 1) {
+          switch (source.charAt(start + 1)) {
+            case 'L':
+              return checkKeyword(2, "OAT", TokenType.FLOAT);
+            case 'N':
+              return checkKeyword(2, "", TokenType.FUNCTION);
+          }
+        }
+        break;
+      case 'I':
+        if (current - start > 1) {
+          switch (source.charAt(start + 1)) {
+            case 'F':
+              return checkKeyword(2, "", TokenType.IF);
+            case 'M':
+              return checkKeyword(2, "MUT", TokenType.IMMUTABLE);
+            case 'N':
+              return checkKeyword(2, "T", TokenType.INT);
+          }
+        }
+        break;
+      case 'N':
+        return checkKeyword(1, "OT", TokenType.NOT);
+      case 'O':
+        return checkKeyword(1, "R", TokenType.OR);
+      case 'R':
+        return checkKeyword(1, "ETURN", TokenType.RETURN);
+      case 'S':
+        if (current - start > 1) {
+          switch (source.charAt(start + 1)) {
+            case 'C':
+              return checkKeyword(2, "AN", TokenType.SCAN);
+            case 'T':
+              return checkKeyword(2, "RING", TokenType.STRING);
+          }
+        }
+        break;
+      case 'W':
+        return checkKeyword(1, "HILE", TokenType.WHILE);
+      case 'n':
+        return checkKeyword(1, "ull", TokenType.NULL);
+    }
+    return TokenType.IDENTIFIER;
+  }
+
+  private TokenType checkKeyword(int offset, String rest, TokenType type) {
+    if (current - start != offset + rest.length()) {
+      return TokenType.IDENTIFIER;
+    }
+    for (int i = 0; i < rest.length(); i++) {
+      if (source.charAt(start + offset + i) != rest.charAt(i)) {
+        return TokenType.IDENTIFIER;
+      }
+    }
+    return type;
   }
 }
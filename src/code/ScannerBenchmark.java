@@ -0,0 +1,86 @@
+package code;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Measures Scanner throughput in chars/second with and without the run
+// skipping fast paths. Scans the given CODE files, or a generated program
+// shaped like our library preambles when no file is given. Each mode runs in
+// its own JVM, since sharing one JIT profile between them blurs the numbers.
+//
+// Usage: java code.ScannerBenchmark [file...]
+public class ScannerBenchmark {
+    private static final int WARMUP_ROUNDS = 30;
+    private static final int MEASURED_ROUNDS = 40;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && (args[0].equals("--scalar") || args[0].equals("--fast"))) {
+            Scanner.fastPaths = args[0].equals("--fast");
+            for (String source : sources(Arrays.copyOfRange(args, 1, args.length))) {
+                System.out.printf("%,d chars: %s %,.0f chars/s%n", source.length(),
+                        Scanner.fastPaths ? "fast path" : "scalar", measure(source));
+            }
+            return;
+        }
+
+        for (String mode : new String[] { "--scalar", "--fast" }) {
+            List<String> command = new ArrayList<>(Arrays.asList(
+                    Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"), ScannerBenchmark.class.getName(), mode));
+            command.addAll(Arrays.asList(args));
+            new ProcessBuilder(command).inheritIO().start().waitFor();
+        }
+    }
+
+    private static List<String> sources(String[] paths) throws IOException {
+        List<String> sources = new ArrayList<>();
+        if (paths.length == 0) {
+            sources.add(generate(20000));
+        }
+        for (String path : paths) {
+            sources.add(new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset()));
+        }
+        return sources;
+    }
+
+    // Reports the fastest measured round, which is the least disturbed by GC
+    // and other work on the machine.
+    private static double measure(String source) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            new Scanner(source).scanTokens();
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long started = System.nanoTime();
+            if (new Scanner(source).scanTokens().size() == 0) {
+                throw new IllegalStateException("Nothing was scanned.");
+            }
+            best = Math.min(best, System.nanoTime() - started);
+        }
+        return source.length() / (best / 1e9);
+    }
+
+    static String generate(int functions) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < functions; i++) {
+            source.append("# helper number ").append(i).append(" generated for the preamble\n");
+            source.append("FN INT helper_").append(i).append("(INT value, FLOAT scale)\n");
+            source.append("BEGIN FN\n");
+            source.append("    INT result = value * ").append(i % 97).append(" + 12345\n");
+            source.append("    IF (result > 1000 AND scale >= 0.5)\n");
+            source.append("    BEGIN IF\n");
+            source.append("        DISPLAY: \"helper_").append(i).append(" overflowed with \" & result & $\n");
+            source.append("    END IF\n");
+            source.append("    RETURN result % 1000\n");
+            source.append("END FN\n");
+        }
+        source.append("BEGIN CODE\n    DISPLAY: helper_1(2, 1.5)\nEND CODE\n");
+        return source.toString();
+    }
+}
@@ -0,0 +1,29 @@
+package code;
+
+import java.util.List;
+
+sealed interface SealedExpr {
+    record Assign(Token name, SealedExpr value, int depth, int slot, boolean verified) implements SealedExpr {
+    }
+
+    record Binary(SealedExpr left, Token operator, SealedExpr right, boolean verified) implements SealedExpr {
+    }
+
+    record Call(SealedExpr callee, Token paren, List<SealedExpr> arguments, boolean verified, SealedExpr inlined, int[] argumentSlots) implements SealedExpr {
+    }
+
+    record Grouping(SealedExpr expression) implements SealedExpr {
+    }
+
+    record Literal(Object value) implements SealedExpr {
+    }
+
+    record Logical(SealedExpr left, Token operator, SealedExpr right) implements SealedExpr {
+    }
+
+    record Unary(Token operator, SealedExpr right, boolean verified) implements SealedExpr {
+    }
+
+    record Variable(Token name, int depth, int slot) implements SealedExpr {
+    }
+}
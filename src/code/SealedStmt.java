@@ -0,0 +1,32 @@
+package code;
+
+import java.util.List;
+
+sealed interface SealedStmt {
+    record Block(List<SealedStmt> statements, int locals) implements SealedStmt {
+    }
+
+    record Expression(SealedExpr expression) implements SealedStmt {
+    }
+
+    record Function(Stmt.Function declaration) implements SealedStmt {
+    }
+
+    record If(SealedExpr condition, List<SealedStmt> thenBranch, List<SealedExpr> elseIfConditions, List<List<SealedStmt>> elseIfBranches, List<SealedStmt> elseBranch) implements SealedStmt {
+    }
+
+    record Print(SealedExpr expression) implements SealedStmt {
+    }
+
+    record Return(Token keyword, SealedExpr value) implements SealedStmt {
+    }
+
+    record Scan(List<Token> identifiers, int[] depths, int[] slots) implements SealedStmt {
+    }
+
+    record While(SealedExpr condition, List<SealedStmt> body, List<SealedExpr> hoisted, int[] hoistedSlots) implements SealedStmt {
+    }
+
+    record Declaration(Token name, TokenType type, SealedExpr initializer, boolean mutable, int slot, boolean verified) implements SealedStmt {
+    }
+}
@@ -0,0 +1,283 @@
+package code;
+
+// The operation an Expr.Binary runs, specialized to the operand types it has
+// seen. A node starts with none. The first time it runs with two INTs or two
+// FLOATs it installs the matching fast path, which goes straight to the
+// arithmetic without the operator switch or the number checks. A fast path
+// still checks the operand types and returns MISS when they differ, and the
+// node then falls back to GENERIC, the Interpreter's full implementation, for
+// good.
+abstract class SpecializedBinary {
+    static final Object MISS = new Object();
+
+    static final SpecializedBinary GENERIC = new SpecializedBinary() {
+        @Override
+        Object apply(Object left, Object right) {
+            return MISS;
+        }
+    };
+
+    abstract Object apply(Object left, Object right);
+
+    // Picks the fast path for the operands a node is running with now.
+    static SpecializedBinary of(Expr.Binary expr, Object left, Object right) {
+        if (left instanceof Integer && right instanceof Integer) {
+            switch (expr.operator.type) {
+                case PLUS:
+                    return new IntAdd();
+                case MINUS:
+                    return new IntSubtract();
+                case STAR:
+                    return new IntMultiply();
+                case SLASH:
+                    return new IntDivide(expr.operator);
+                case MODULO:
+                    return new IntModulo();
+                case GREATER_THAN:
+                    return new IntGreater();
+                case GREATER_THAN_EQUAL:
+                    return new IntGreaterEqual();
+                case LESS_THAN:
+                    return new IntLess();
+                case LESS_THAN_EQUAL:
+                    return new IntLessEqual();
+                case EQUAL_EQUAL:
+                    return new IntEqual();
+                case NOT_EQUAL:
+                    return new IntNotEqual();
+                default:
+                    return GENERIC;
+            }
+        }
+        // Comparisons of FLOATs stay generic, where they fail as they always
+        // have.
+        if (left instanceof Double && right instanceof Double) {
+            switch (expr.operator.type) {
+                case PLUS:
+                    return new FloatAdd();
+                case MINUS:
+                    return new FloatSubtract();
+                case STAR:
+                    return new FloatMultiply();
+                case SLASH:
+                    return new FloatDivide(expr.operator);
+                case MODULO:
+                    return new FloatModulo();
+                default:
+                    return GENERIC;
+            }
+        }
+        return GENERIC;
+    }
+
+    private static final class IntAdd extends SpecializedBinary {
+        @Override
+        Object apply(Object a, Object b) {
+            if (!(a instanceof Integer && b instanceof Integer)) {
+                return MISS;
+            }
+            int left = (Integer) a;
+            int right = (Integer) b;
+            return left + right;
+        }
+    }
+
+    private static final class IntSubtract extends SpecializedBinary {
+        @Override
+        Object apply(Object a, Object b) {
+            if (!(a instanceof Integer && b instanceof Integer)) {
+                return MISS;
+            }
+            int left = (Integer) a;
+            int right = (Integer) b;
+            return left - right;
+        }
+    }
+
+    private static final class IntMultiply extends SpecializedBinary {
+        @Override
+        Object apply(Object a, Object b) {
+            if (!(a instanceof Integer && b instanceof Integer)) {
+                return MISS;
+            }
+            int left = (Integer) a;
+            int right = (Integer) b;
+            return left * right;
+        }
+    }
+
+    private static final class IntDivide extends SpecializedBinary {
+        private final Token operator;
+
+        IntDivide(Token operator) {
+            this.operator = operator;
+        }
+
+        @Override
+        Object apply(Object a, Object b) {
+            if (!(a instanceof Integer && b instanceof Integer)) {
+                return MISS;
+            }
+            int left = (Integer) a;
+            int right = (Integer) b;
+            if (right == 0) {
+                throw new RuntimeError(operator, "Cannot divide by zero.");
+            }
+            return left / right;
+        }
+    }
+
+    private static final class IntModulo extends SpecializedBinary {
+        @Override
+        Object apply(Object a, Object b) {
+            if (!(a instanceof Integer && b instanceof Integer)) {
+                return MISS;
+            }
+            int left = (Integer) a;
+            int right = (Integer) b;
+            return left % right;
+        }
+    }
+
+    private static final class IntGreater extends SpecializedBinary {
+        @Override
+        Object apply(Object a, Object b) {
+            if (!(a instanceof Integer && b instanceof Integer)) {
+                return MISS;
+            }
+            int left = (Integer) a;
+            int right = (Integer) b;
+            return left > right;
+        }
+    }
+
+    private static final class IntGreaterEqual extends SpecializedBinary {
+        @Override
+        Object apply(Object a, Object b) {
+            if (!(a instanceof Integer && b instanceof Integer)) {
+                return MISS;
+            }
+            int left = (Integer) a;
+            int right = (Integer) b;
+            return left >= right;
+        }
+    }
+
+    private static final class IntLess extends SpecializedBinary {
+        @Override
+        Object apply(Object a, Object b) {
+            if (!(a instanceof Integer && b instanceof Integer)) {
+                return MISS;
+            }
+            int left = (Integer) a;
+            int right = (Integer) b;
+            return left < right;
+        }
+    }
+
+    private static final class IntLessEqual extends SpecializedBinary {
+        @Override
+        Object apply(Object a, Object b) {
+            if (!(a instanceof Integer && b instanceof Integer)) {
+                return MISS;
+            }
+            int left = (Integer) a;
+            int right = (Integer) b;
+            return left <= right;
+        }
+    }
+
+    private static final class IntEqual extends SpecializedBinary {
+        @Override
+        Object apply(Object a, Object b) {
+            if (!(a instanceof Integer && b instanceof Integer)) {
+                return MISS;
+            }
+            int left = (Integer) a;
+            int right = (Integer) b;
+            return left == right;
+        }
+    }
+
+    private static final class IntNotEqual extends SpecializedBinary {
+        @Override
+        Object apply(Object a, Object b) {
+            if (!(a instanceof Integer && b instanceof Integer)) {
+                return MISS;
+            }
+            int left = (Integer) a;
+            int right = (Integer) b;
+            return left != right;
+        }
+    }
+
+    private static final class FloatAdd extends SpecializedBinary {
+        @Override
+        Object apply(Object a, Object b) {
+            if (!(a instanceof Double && b instanceof Double)) {
+                return MISS;
+            }
+            double left = (Double) a;
+            double right = (Double) b;
+            // FLOAT + has always multiplied.
+            return left * right;
+        }
+    }
+
+    private static final class FloatSubtract extends SpecializedBinary {
+        @Override
+        Object apply(Object a, Object b) {
+            if (!(a instanceof Double && b instanceof Double)) {
+                return MISS;
+            }
+            double left = (Double) a;
+            double right = (Double) b;
+            return left - right;
+        }
+    }
+
+    private static final class FloatMultiply extends SpecializedBinary {
+        @Override
+        Object apply(Object a, Object b) {
+            if (!(a instanceof Double && b instanceof Double)) {
+                return MISS;
+            }
+            double left = (Double) a;
+            double right = (Double) b;
+            return left * right;
+        }
+    }
+
+    private static final class FloatDivide extends SpecializedBinary {
+        private final Token operator;
+
+        FloatDivide(Token operator) {
+            this.operator = operator;
+        }
+
+        @Override
+        Object apply(Object a, Object b) {
+            if (!(a instanceof Double && b instanceof Double)) {
+                return MISS;
+            }
+            double left = (Double) a;
+            double right = (Double) b;
+            if (right == 0) {
+                throw new RuntimeError(operator, "Cannot divide by zero.");
+            }
+            return left / right;
+        }
+    }
+
+    private static final class FloatModulo extends SpecializedBinary {
+        @Override
+        Object apply(Object a, Object b) {
+            if (!(a instanceof Double && b instanceof Double)) {
+                return MISS;
+            }
+            double left = (Double) a;
+            double right = (Double) b;
+            return left % right;
+        }
+    }
+}
@@ -3,244 +3,249 @@ package code;
 import java.util.List;
 
 abstract class Stmt {
-   interface Visitor<R> {
-      R visitBlockStmt(Block stmt);
+interface Visitor<R> {
+R visitBlockStmt(Block stmt);
+R visitExpressionStmt(Expression stmt);
+R visitFunctionStmt(Function stmt);
+R visitIfStmt(If stmt);
+R visitPrintStmt(Print stmt);
+R visitReturnStmt(Return stmt);
+R visitScanStmt(Scan stmt);
+R visitWhileStmt(While stmt);
+R visitStringStmt(String stmt);
+R visitIntStmt(Int stmt);
+R visitFloatStmt(Float stmt);
+R visitCharStmt(Char stmt);
+R visitBoolStmt(Bool stmt);
+}
+static class Block extends Stmt {
+   Block(List<Stmt> statements) {
+this.statements = statements;
+}
+
+@Override
+<R> R accept(Visitor<R> visitor) {
+return visitor.visitBlockStmt(this);
+}
+
+final List<Stmt> statements;
+// Number of slots the block's environment needs, set by the Resolver.
+int locals = -1;
+}
+static class Expression extends Stmt {
+   Expression(Expr expression) {
+this.expression = expression;
+}
 
-      R visitExpressionStmt(Expression stmt);
+@Override
+<R> R accept(Visitor<R> visitor) {
+return visitor.visitExpressionStmt(this);
+}
 
-      R visitFunctionStmt(Function stmt);
+final Expr expression;
+}
+static class Function extends Stmt {
+   Function(Token name, List<Parameter> params, List<Stmt> body, Token returnType) {
+this.name = name;
+this.params = params;
+this.body = body;
+this.returnType = returnType;
+}
 
-      R visitIfStmt(If stmt);
+@Override
+<R> R accept(Visitor<R> visitor) {
+return visitor.visitFunctionStmt(this);
+}
 
-      R visitPrintStmt(Print stmt);
+final Token name;
+final List<Parameter> params;
+final List<Stmt> body;
+final Token returnType;
+// Set by the Resolver: the slot that holds the function and the number
+// of slots a call's environment needs. locals stays -1 until the body
+// is resolved, which for a lazy body happens on the first call.
+int slot = -1;
+int locals = -1;
+// Set by the TypeChecker when every RETURN is known to match the return type.
+boolean verified = false;
+}
+static class If extends Stmt {
+   If(Expr condition, List<Stmt> thenBranch, List<Expr> elseIfConditions, List<List<Stmt>> elseIfBranches, List<Stmt> elseBranch) {
+this.condition = condition;
+this.thenBranch = thenBranch;
+this.elseIfConditions = elseIfConditions;
+this.elseIfBranches = elseIfBranches;
+this.elseBranch = elseBranch;
+}
+
+@Override
+<R> R accept(Visitor<R> visitor) {
+return visitor.visitIfStmt(this);
+}
+
+final Expr condition;
+final List<Stmt> thenBranch;
+final List<Expr> elseIfConditions;
+final List<List<Stmt>> elseIfBranches;
+final List<Stmt> elseBranch;
+}
+static class Print extends Stmt {
+   Print(Expr expression) {
+this.expression = expression;
+}
+
+@Override
+<R> R accept(Visitor<R> visitor) {
+return visitor.visitPrintStmt(this);
+}
+
+final Expr expression;
+}
+static class Return extends Stmt {
+   Return(Token keyword, Expr value) {
+this.keyword = keyword;
+this.value = value;
+}
 
-      R visitReturnStmt(Return stmt);
+@Override
+<R> R accept(Visitor<R> visitor) {
+return visitor.visitReturnStmt(this);
+}
 
-      R visitScanStmt(Scan stmt);
+final Token keyword;
+final Expr value;
+}
+static class Scan extends Stmt {
+   Scan(List<Token> identifiers) {
+this.identifiers = identifiers;
+}
 
-      R visitWhileStmt(While stmt);
+@Override
+<R> R accept(Visitor<R> visitor) {
+return visitor.visitScanStmt(this);
+}
 
-      R visitStringStmt(String stmt);
+final List<Token> identifiers;
+// Resolved address of each identifier, set by the Resolver.
+int[] depths;
+int[] slots;
+}
+static class While extends Stmt {
+   While(Expr condition, List<Stmt> body) {
+this.condition = condition;
+this.body = body;
+}
 
-      R visitIntStmt(Int stmt);
+@Override
+<R> R accept(Visitor<R> visitor) {
+return visitor.visitWhileStmt(this);
+}
 
-      R visitFloatStmt(Float stmt);
+final Expr condition;
+final List<Stmt> body;
+// Set by the LoopInvariantMover: expressions evaluated once before the
+// loop, and the slots the loop reads them from.
+List<Expr> hoisted = null;
+int[] hoistedSlots = null;
+// Set by the Tiering: iterations run so far, counted up to its
+// threshold.
+int backEdges = 0;
+}
+static class String extends Stmt {
+   String(Token name, Expr initializer, boolean mutable) {
+this.name = name;
+this.initializer = initializer;
+this.mutable = mutable;
+}
 
-      R visitCharStmt(Char stmt);
+@Override
+<R> R accept(Visitor<R> visitor) {
+return visitor.visitStringStmt(this);
+}
 
-      R visitBoolStmt(Bool stmt);
-   }
+final Token name;
+final Expr initializer;
+final boolean mutable;
+int slot = -1;
+// Set by the TypeChecker when the initializer is known to have the declared type.
+boolean verified = false;
+}
+static class Int extends Stmt {
+   Int(Token name, Expr initializer, boolean mutable) {
+this.name = name;
+this.initializer = initializer;
+this.mutable = mutable;
+}
 
-   static class Block extends Stmt {
-      Block(List<Stmt> statements) {
-         this.statements = statements;
-      }
+@Override
+<R> R accept(Visitor<R> visitor) {
+return visitor.visitIntStmt(this);
+}
 
-      @Override
-      <R> R accept(Visitor<R> visitor) {
-         return visitor.visitBlockStmt(this);
-      }
+final Token name;
+final Expr initializer;
+final boolean mutable;
+int slot = -1;
+// Set by the TypeChecker when the initializer is known to have the declared type.
+boolean verified = false;
+}
+static class Float extends Stmt {
+   Float(Token name, Expr initializer, boolean mutable) {
+this.name = name;
+this.initializer = initializer;
+this.mutable = mutable;
+}
 
-      final List<Stmt> statements;
-   }
+@Override
+<R> R accept(Visitor<R> visitor) {
+return visitor.visitFloatStmt(this);
+}
 
-   static class Expression extends Stmt {
-      Expression(Expr expression) {
-         this.expression = expression;
-      }
+final Token name;
+final Expr initializer;
+final boolean mutable;
+int slot = -1;
+// Set by the TypeChecker when the initializer is known to have the declared type.
+boolean verified = false;
+}
+static class Char extends Stmt {
+   Char(Token name, Expr initializer, boolean mutable) {
+this.name = name;
+this.initializer = initializer;
+this.mutable = mutable;
+}
 
-      @Override
-      <R> R accept(Visitor<R> visitor) {
-         return visitor.visitExpressionStmt(this);
-      }
+@Override
+<R> R accept(Visitor<R> visitor) {
+return visitor.visitCharStmt(this);
+}
 
-      final Expr expression;
-   }
+final Token name;
+final Expr initializer;
+final boolean mutable;
+int slot = -1;
+// Set by the TypeChecker when the initializer is known to have the declared type.
+boolean verified = false;
+}
+static class Bool extends Stmt {
+   Bool(Token name, Expr initializer, boolean mutable) {
+this.name = name;
+this.initializer = initializer;
+this.mutable = mutable;
+}
 
-   static class Function extends Stmt {
-      Function(Token name, List<Parameter> params, List<Stmt> body, Token returnType) {
-         this.name = name;
-         this.params = params;
-         this.body = body;
-         this.returnType = returnType;
-      }
+@Override
+<R> R accept(Visitor<R> visitor) {
+return visitor.visitBoolStmt(this);
+}
 
-      @Override
-      <R> R accept(Visitor<R> visitor) {
-         return visitor.visitFunctionStmt(this);
-      }
+final Token name;
+final Expr initializer;
+final boolean mutable;
+int slot = -1;
+// Set by the TypeChecker when the initializer is known to have the declared type.
+boolean verified = false;
+}
 
-      final Token name;
-      final List<Parameter> params;
-      final List<Stmt> body;
-      final Token returnType;
-   
-   }
-
-
-
-   static class If extends Stmt {
-      If(Expr condition, List<Stmt> thenBranch, List<Expr> elseIfConditions, List<List<Stmt>> elseIfBranches,
-            List<Stmt> elseBranch) {
-         this.condition = condition;
-         this.thenBranch = thenBranch;
-         this.elseIfConditions = elseIfConditions;
-         this.elseIfBranches = elseIfBranches;
-         this.elseBranch = elseBranch;
-      }
-
-      @Override
-      <R> R accept(Visitor<R> visitor) {
-         return visitor.visitIfStmt(this);
-      }
-
-      final Expr condition;
-      final List<Stmt> thenBranch;
-      final List<Expr> elseIfConditions;
-      final List<List<Stmt>> elseIfBranches;
-      final List<Stmt> elseBranch;
-   }
-
-   static class Print extends Stmt {
-      Print(Expr expression) {
-         this.expression = expression;
-      }
-
-      @Override
-      <R> R accept(Visitor<R> visitor) {
-         return visitor.visitPrintStmt(this);
-      }
-
-      final Expr expression;
-   }
-
-   static class Return extends Stmt {
-      Return(Token keyword, Expr value) {
-         this.keyword = keyword;
-         this.value = value;
-      }
-
-      @Override
-      <R> R accept(Visitor<R> visitor) {
-         return visitor.visitReturnStmt(this);
-      }
-
-      final Token keyword;
-      final Expr value;
-   }
-
-   static class Scan extends Stmt {
-      Scan(List<Token> identifiers) {
-         this.identifiers = identifiers;
-      }
-
-      @Override
-      <R> R accept(Visitor<R> visitor) {
-         return visitor.visitScanStmt(this);
-      }
-
-      final List<Token> identifiers;
-   }
-
-   static class While extends Stmt {
-      While(Expr condition, List<Stmt> body) {
-         this.condition = condition;
-         this.body = body;
-      }
-
-      @Override
-      <R> R accept(Visitor<R> visitor) {
-         return visitor.visitWhileStmt(this);
-      }
-
-      final Expr condition;
-      final List<Stmt> body;
-   }
-
-   static class String extends Stmt {
-      String(Token name, Expr initializer, boolean mutable) {
-         this.name = name;
-         this.initializer = initializer;
-         this.mutable = mutable;
-      }
-
-      @Override
-      <R> R accept(Visitor<R> visitor) {
-         return visitor.visitStringStmt(this);
-      }
-
-      final Token name;
-      final Expr initializer;
-      final boolean mutable;
-   }
-
-   static class Int extends Stmt {
-      Int(Token name, Expr initializer, boolean mutable) {
-         this.name = name;
-         this.initializer = initializer;
-         this.mutable = mutable;
-      }
-
-      @Override
-      <R> R accept(Visitor<R> visitor) {
-         return visitor.visitIntStmt(this);
-      }
-
-      final Token name;
-      final Expr initializer;
-      final boolean mutable;
-   }
-
-   static class Float extends Stmt {
-      Float(Token name, Expr initializer, boolean mutable) {
-         this.name = name;
-         this.initializer = initializer;
-         this.mutable = mutable;
-      }
-
-      @Override
-      <R> R accept(Visitor<R> visitor) {
-         return visitor.visitFloatStmt(this);
-      }
-
-      final Token name;
-      final Expr initializer;
-      final boolean mutable;
-   }
-
-   static class Char extends Stmt {
-      Char(Token name, Expr initializer, boolean mutable) {
-         this.name = name;
-         this.initializer = initializer;
-         this.mutable = mutable;
-      }
-
-      @Override
-      <R> R accept(Visitor<R> visitor) {
-         return visitor.visitCharStmt(this);
-      }
-
-      final Token name;
-      final Expr initializer;
-      final boolean mutable;
-   }
-
-   static class Bool extends Stmt {
-      Bool(Token name, Expr initializer, boolean mutable) {
-         this.name = name;
-         this.initializer = initializer;
-         this.mutable = mutable;
-      }
-
-      @Override
-      <R> R accept(Visitor<R> visitor) {
-         return visitor.visitBoolStmt(this);
-      }
-
-      final Token name;
-      final Expr initializer;
-      final boolean mutable;
-   }
-
-   abstract <R> R accept(Visitor<R> visitor);
+abstract <R> R accept(Visitor<R> visitor);
 }
@@ -0,0 +1,377 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Runs programs as the sealed records of SealedExpr and SealedStmt, which
+// tool.GenerateAst --records generates. Nodes are told apart by a pattern
+// switch over a sealed hierarchy of final records, where the Interpreter goes
+// through accept and a visit method. The switches have no default, so javac
+// checks that they cover every record. The program is resolved, checked and
+// optimized as usual, then converted. Globals, natives and the operators are
+// the Interpreter's, so both run a program the same way.
+class SwitchInterpreter {
+    private final Interpreter interpreter;
+    private Environment environment;
+    // Converted FN bodies, made on the first call so lazy bodies are parsed
+    // only when they run.
+    private final Map<Stmt.Function, List<SealedStmt>> bodies = new IdentityHashMap<>();
+
+    SwitchInterpreter(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.environment = interpreter.globals;
+    }
+
+    void interpret(List<Stmt> statements) {
+        statements = interpreter.compile(statements);
+        if (statements != null) {
+            run(convert(statements));
+        }
+    }
+
+    static List<SealedStmt> convert(List<Stmt> statements) {
+        return new Converter().convert(statements);
+    }
+
+    void run(List<SealedStmt> statements) {
+        try {
+            for (SealedStmt statement : statements) {
+                execute(statement);
+            }
+        } catch (RuntimeError e) {
+            Code.runtimeError(e);
+        }
+    }
+
+    private void execute(SealedStmt stmt) {
+        switch (stmt) {
+            case SealedStmt.Expression expression -> evaluate(expression.expression());
+            case SealedStmt.Declaration declaration -> declare(declaration);
+            case SealedStmt.If branch -> branch(branch);
+            case SealedStmt.While loop -> loop(loop);
+            case SealedStmt.Print print -> Interpreter.print(evaluate(print.expression()));
+            case SealedStmt.Return result -> throw new Return(result.value() == null ? null : evaluate(result.value()));
+            case SealedStmt.Function function ->
+                environment.define(function.declaration().slot, new RecordFunction(function.declaration()));
+            case SealedStmt.Scan scan -> Interpreter.scan(environment, scan.identifiers(), scan.depths(), scan.slots());
+            case SealedStmt.Block block ->
+                executeBlock(block.statements(), new Environment(environment, block.locals()));
+        }
+    }
+
+    private void executeBlock(List<SealedStmt> statements, Environment environment) {
+        Environment previous = this.environment;
+        try {
+            this.environment = environment;
+            for (SealedStmt statement : statements) {
+                execute(statement);
+            }
+        } finally {
+            this.environment = previous;
+        }
+    }
+
+    private void declare(SealedStmt.Declaration stmt) {
+        Object value = null;
+        if (stmt.initializer() != null) {
+            value = evaluate(stmt.initializer());
+            if (!stmt.verified() && !TypeChecker.hasType(value, stmt.type())) {
+                throw new RuntimeError(stmt.name(), "Value '" + value + "' is not of type " + TypeChecker.typeName(stmt.type()) + ".");
+            }
+        }
+        environment.define(stmt.slot(), value, stmt.type(), stmt.mutable());
+    }
+
+    private void branch(SealedStmt.If stmt) {
+        if (Interpreter.isTruthy(evaluate(stmt.condition()))) {
+            for (SealedStmt statement : stmt.thenBranch()) {
+                execute(statement);
+            }
+            return;
+        }
+        for (int i = 0; i < stmt.elseIfBranches().size(); i++) {
+            if (Interpreter.isTruthy(evaluate(stmt.elseIfConditions().get(i)))) {
+                // An ELSE IF runs only the first statement of its branch.
+                for (SealedStmt statement : stmt.elseIfBranches().get(i)) {
+                    execute(statement);
+                    return;
+                }
+            }
+        }
+        if (stmt.elseBranch() != null) {
+            for (SealedStmt statement : stmt.elseBranch()) {
+                execute(statement);
+            }
+        }
+    }
+
+    private void loop(SealedStmt.While stmt) {
+        if (stmt.hoisted() != null) {
+            for (int i = 0; i < stmt.hoistedSlots().length; i++) {
+                environment.bind(stmt.hoistedSlots()[i], evaluate(stmt.hoisted().get(i)));
+            }
+        }
+        while (Interpreter.isTruthy(evaluate(stmt.condition()))) {
+            for (SealedStmt statement : stmt.body()) {
+                execute(statement);
+            }
+        }
+    }
+
+    private Object evaluate(SealedExpr expr) {
+        return switch (expr) {
+            case SealedExpr.Binary binary ->
+                Interpreter.binary(binary.operator(), binary.verified(), evaluate(binary.left()),
+                        evaluate(binary.right()));
+            case SealedExpr.Variable variable -> environment.get(variable.depth(), variable.slot(), variable.name());
+            case SealedExpr.Literal literal -> literal.value();
+            case SealedExpr.Call call -> call(call);
+            case SealedExpr.Assign assign -> assign(assign);
+            case SealedExpr.Grouping grouping -> evaluate(grouping.expression());
+            case SealedExpr.Unary unary ->
+                Interpreter.unary(unary.operator(), unary.verified(), evaluate(unary.right()));
+            case SealedExpr.Logical logical -> logical(logical);
+        };
+    }
+
+    private Object assign(SealedExpr.Assign expr) {
+        Object value = evaluate(expr.value());
+        if (expr.verified()) {
+            environment.set(expr.depth(), expr.slot(), expr.name(), value);
+        } else {
+            environment.assign(expr.depth(), expr.slot(), expr.name(), value);
+        }
+        return value;
+    }
+
+    private Object logical(SealedExpr.Logical expr) {
+        Object left = evaluate(expr.left());
+        if (expr.operator().type == TokenType.OR ? Interpreter.isTruthy(left) : !Interpreter.isTruthy(left)) {
+            return left;
+        }
+        return evaluate(expr.right());
+    }
+
+    private Object call(SealedExpr.Call expr) {
+        if (expr.inlined() != null) {
+            for (int i = 0; i < expr.argumentSlots().length; i++) {
+                if (expr.argumentSlots()[i] >= 0) {
+                    environment.bind(expr.argumentSlots()[i], evaluate(expr.arguments().get(i)));
+                }
+            }
+            return evaluate(expr.inlined());
+        }
+
+        Object callee = evaluate(expr.callee());
+        List<SealedExpr> argumentExprs = expr.arguments();
+        if (expr.verified()) {
+            CodeCallable function = (CodeCallable) callee;
+            switch (argumentExprs.size()) {
+                case 0:
+                    return function.call0(interpreter);
+                case 1:
+                    return function.call1(interpreter, evaluate(argumentExprs.get(0)));
+                case 2: {
+                    Object first = evaluate(argumentExprs.get(0));
+                    return function.call2(interpreter, first, evaluate(argumentExprs.get(1)));
+                }
+                case 3: {
+                    Object first = evaluate(argumentExprs.get(0));
+                    Object second = evaluate(argumentExprs.get(1));
+                    return function.call3(interpreter, first, second, evaluate(argumentExprs.get(2)));
+                }
+            }
+        }
+        Object[] arguments = new Object[argumentExprs.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = evaluate(argumentExprs.get(i));
+        }
+
+        if (!expr.verified()) {
+            if (!(callee instanceof CodeCallable)) {
+                throw new RuntimeError(expr.paren(), "Can only call functions and classes.");
+            }
+            CodeCallable function = (CodeCallable) callee;
+            if (arguments.length != function.arity()) {
+                throw new RuntimeError(expr.paren(),
+                        "Expected " + function.arity() + " arguments but got " + arguments.length + ".");
+            }
+            if (callee instanceof CodeFunction) {
+                ((CodeFunction) callee).checkArguments(expr.paren(), arguments);
+            }
+        }
+        return ((CodeCallable) callee).call(interpreter, arguments);
+    }
+
+    // A FN that runs its body here. Binding arguments and checking what comes
+    // back are the same as for any CodeFunction.
+    private class RecordFunction extends CodeFunction {
+        RecordFunction(Stmt.Function declaration) {
+            super(declaration);
+        }
+
+        @Override
+        Object run(Interpreter interpreter, Environment environment) {
+            List<SealedStmt> body = bodies.get(declaration);
+            if (body == null) {
+                body = convert(declaration.body);
+                bodies.put(declaration, body);
+            }
+            try {
+                executeBlock(body, environment);
+            } catch (Return returnValue) {
+                return returned(returnValue.value);
+            }
+            return noReturn();
+        }
+    }
+
+    // Copies a resolved, checked and optimized tree into records.
+    private static class Converter implements Expr.Visitor<SealedExpr>, Stmt.Visitor<SealedStmt> {
+        List<SealedStmt> convert(List<Stmt> statements) {
+            if (statements == null) {
+                return null;
+            }
+            List<SealedStmt> converted = new ArrayList<>(statements.size());
+            for (Stmt statement : statements) {
+                converted.add(statement.accept(this));
+            }
+            return converted;
+        }
+
+        private SealedExpr convert(Expr expr) {
+            return expr == null ? null : expr.accept(this);
+        }
+
+        private List<SealedExpr> convertAll(List<Expr> exprs) {
+            if (exprs == null) {
+                return null;
+            }
+            List<SealedExpr> converted = new ArrayList<>(exprs.size());
+            for (Expr expr : exprs) {
+                converted.add(convert(expr));
+            }
+            return converted;
+        }
+
+        @Override
+        public SealedExpr visitAssignExpr(Expr.Assign expr) {
+            return new SealedExpr.Assign(expr.name, convert(expr.value), expr.depth, expr.slot, expr.verified);
+        }
+
+        @Override
+        public SealedExpr visitBinaryExpr(Expr.Binary expr) {
+            return new SealedExpr.Binary(convert(expr.left), expr.operator, convert(expr.right), expr.verified);
+        }
+
+        @Override
+        public SealedExpr visitCallExpr(Expr.Call expr) {
+            return new SealedExpr.Call(convert(expr.callee), expr.paren, convertAll(expr.arguments), expr.verified,
+                    convert(expr.inlined), expr.argumentSlots);
+        }
+
+        @Override
+        public SealedExpr visitGroupingExpr(Expr.Grouping expr) {
+            return new SealedExpr.Grouping(convert(expr.expression));
+        }
+
+        @Override
+        public SealedExpr visitLiteralExpr(Expr.Literal expr) {
+            return new SealedExpr.Literal(expr.value);
+        }
+
+        @Override
+        public SealedExpr visitLogicalExpr(Expr.Logical expr) {
+            return new SealedExpr.Logical(convert(expr.left), expr.operator, convert(expr.right));
+        }
+
+        @Override
+        public SealedExpr visitUnaryExpr(Expr.Unary expr) {
+            return new SealedExpr.Unary(expr.operator, convert(expr.right), expr.verified);
+        }
+
+        @Override
+        public SealedExpr visitVariableExpr(Expr.Variable expr) {
+            return new SealedExpr.Variable(expr.name, expr.depth, expr.slot);
+        }
+
+        @Override
+        public SealedStmt visitBlockStmt(Stmt.Block stmt) {
+            return new SealedStmt.Block(convert(stmt.statements), stmt.locals);
+        }
+
+        @Override
+        public SealedStmt visitExpressionStmt(Stmt.Expression stmt) {
+            return new SealedStmt.Expression(convert(stmt.expression));
+        }
+
+        @Override
+        public SealedStmt visitFunctionStmt(Stmt.Function stmt) {
+            // The body is converted on the first call.
+            return new SealedStmt.Function(stmt);
+        }
+
+        @Override
+        public SealedStmt visitIfStmt(Stmt.If stmt) {
+            List<List<SealedStmt>> elseIfBranches = new ArrayList<>(stmt.elseIfBranches.size());
+            for (List<Stmt> branch : stmt.elseIfBranches) {
+                elseIfBranches.add(convert(branch));
+            }
+            return new SealedStmt.If(convert(stmt.condition), convert(stmt.thenBranch),
+                    convertAll(stmt.elseIfConditions), elseIfBranches, convert(stmt.elseBranch));
+        }
+
+        @Override
+        public SealedStmt visitPrintStmt(Stmt.Print stmt) {
+            return new SealedStmt.Print(convert(stmt.expression));
+        }
+
+        @Override
+        public SealedStmt visitReturnStmt(Stmt.Return stmt) {
+            return new SealedStmt.Return(stmt.keyword, convert(stmt.value));
+        }
+
+        @Override
+        public SealedStmt visitScanStmt(Stmt.Scan stmt) {
+            return new SealedStmt.Scan(stmt.identifiers, stmt.depths, stmt.slots);
+        }
+
+        @Override
+        public SealedStmt visitWhileStmt(Stmt.While stmt) {
+            return new SealedStmt.While(convert(stmt.condition), convert(stmt.body), convertAll(stmt.hoisted),
+                    stmt.hoistedSlots);
+        }
+
+        @Override
+        public SealedStmt visitStringStmt(Stmt.String stmt) {
+            return new SealedStmt.Declaration(stmt.name, TokenType.STRING, convert(stmt.initializer), stmt.mutable,
+                    stmt.slot, stmt.verified);
+        }
+
+        @Override
+        public SealedStmt visitIntStmt(Stmt.Int stmt) {
+            return new SealedStmt.Declaration(stmt.name, TokenType.INT, convert(stmt.initializer), stmt.mutable,
+                    stmt.slot, stmt.verified);
+        }
+
+        @Override
+        public SealedStmt visitFloatStmt(Stmt.Float stmt) {
+            return new SealedStmt.Declaration(stmt.name, TokenType.FLOAT, convert(stmt.initializer), stmt.mutable,
+                    stmt.slot, stmt.verified);
+        }
+
+        @Override
+        public SealedStmt visitCharStmt(Stmt.Char stmt) {
+            return new SealedStmt.Declaration(stmt.name, TokenType.CHAR, convert(stmt.initializer), stmt.mutable,
+                    stmt.slot, stmt.verified);
+        }
+
+        @Override
+        public SealedStmt visitBoolStmt(Stmt.Bool stmt) {
+            return new SealedStmt.Declaration(stmt.name, TokenType.BOOL, convert(stmt.initializer), stmt.mutable,
+                    stmt.slot, stmt.verified);
+        }
+    }
+}
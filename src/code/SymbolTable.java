@@ -0,0 +1,91 @@
+package code;
+
+import java.util.Arrays;
+
+// Interns identifier names and hands out dense integer IDs for them. Lookups
+// hash the characters straight out of the source, so an identifier that has
+// been seen before costs no substring, and every later use of the same name
+// shares one String instance.
+class SymbolTable {
+    private String[] names = new String[64];
+    private int[] hashes = new int[64];
+    // Open addressing table of symbol IDs plus one; zero marks a free slot.
+    private int[] slots = new int[128];
+    private int count = 0;
+
+    int intern(CharSequence source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+
+        int mask = slots.length - 1;
+        int index = mix(hash) & mask;
+        while (slots[index] != 0) {
+            int id = slots[index] - 1;
+            if (hashes[id] == hash && matches(names[id], source, start, end)) {
+                return id;
+            }
+            index = (index + 1) & mask;
+        }
+
+        return add(source.subSequence(start, end).toString(), hash, index);
+    }
+
+    int intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+
+    int size() {
+        return count;
+    }
+
+    private int add(String name, int hash, int index) {
+        if (count == names.length) {
+            names = Arrays.copyOf(names, count * 2);
+            hashes = Arrays.copyOf(hashes, count * 2);
+        }
+
+        int id = count++;
+        names[id] = name;
+        hashes[id] = hash;
+        slots[index] = id + 1;
+
+        if (count * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < count; id++) {
+            int index = mix(hashes[id]) & mask;
+            while (slots[index] != 0) {
+                index = (index + 1) & mask;
+            }
+            slots[index] = id + 1;
+        }
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String name, CharSequence source, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != source.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,73 @@
+package code;
+
+// INT, FLOAT, CHAR and BOOL values packed into a long, for code that works on
+// them without boxing. A FLOAT is its own bits, with every NaN made the one
+// NaN doubleToLongBits gives, which has the sign bit clear. The other types
+// live in the payload of NaNs with the sign bit set, which no FLOAT uses
+// then, and the top 16 bits tell them apart. STRINGs and callables have no
+// tagged form and stay references.
+final class Tagged {
+    private static final long TAG = 0xFFFF_0000_0000_0000L;
+    private static final long INT = 0xFFF9_0000_0000_0000L;
+    private static final long CHAR = 0xFFFA_0000_0000_0000L;
+    private static final long BOOL = 0xFFFB_0000_0000_0000L;
+
+    private Tagged() {
+    }
+
+    static long ofInt(int value) {
+        return INT | (value & 0xFFFF_FFFFL);
+    }
+
+    static long ofDouble(double value) {
+        return Double.doubleToLongBits(value);
+    }
+
+    static long ofChar(char value) {
+        return CHAR | value;
+    }
+
+    static long ofBool(boolean value) {
+        return value ? BOOL | 1 : BOOL;
+    }
+
+    static boolean isInt(long value) {
+        return (value & TAG) == INT;
+    }
+
+    static int asInt(long value) {
+        return (int) value;
+    }
+
+    static double asDouble(long value) {
+        return Double.longBitsToDouble(value);
+    }
+
+    static boolean asBool(long value) {
+        return (value & 1) != 0;
+    }
+
+    static Object box(long value) {
+        long tag = value & TAG;
+        if (tag == INT) {
+            return (int) value;
+        } else if (tag == BOOL) {
+            return (value & 1) != 0;
+        } else if (tag == CHAR) {
+            return (char) value;
+        }
+        return Double.longBitsToDouble(value);
+    }
+
+    // Anything but the four boxes fails as a cast to Double would.
+    static long unbox(Object value) {
+        if (value instanceof Integer) {
+            return ofInt((Integer) value);
+        } else if (value instanceof Boolean) {
+            return ofBool((Boolean) value);
+        } else if (value instanceof Character) {
+            return ofChar((Character) value);
+        }
+        return ofDouble((Double) value);
+    }
+}
@@ -0,0 +1,175 @@
+package code;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Runs a program on the Interpreter and moves what turns out to be hot over
+// to the JvmCompiler. Each FN counts its calls and each WHILE the iterations
+// it has run. Past a threshold the body is compiled on a background thread
+// while the Interpreter keeps going, and once it is ready the FN's calls run
+// the compiled body. A WHILE switches over in the middle of running: its
+// variables already live in Environments, which the compiled loop runs in as
+// they are, so it takes over at the top of the next iteration.
+//
+// Compiled code defines FNs through the Tiering too, so a FN declared in a
+// compiled body still starts out interpreted and counts its own calls.
+class Tiering {
+    // Calls of a FN before its body is compiled.
+    static int callThreshold = 1000;
+    // Iterations of a WHILE before it is compiled.
+    static int loopThreshold = 10000;
+    // Whether promotions are written to System.err.
+    static boolean log = false;
+
+    // One compiler thread for every program, so compiling never takes more
+    // than the one core it is given from the program it is compiling.
+    private static final ExecutorService BACKGROUND = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "Tiering");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Interpreter interpreter;
+    private final JvmCompiler compiler;
+    // Compiled bodies, by declaration, with a null body for those too large
+    // to compile. Every FN of one declaration shares them.
+    private final Map<Stmt.Function, Future<JvmCompiler.Body>> functions = new ConcurrentHashMap<>();
+    private final Map<Stmt.While, Future<JvmCompiler.Body>> loops = new ConcurrentHashMap<>();
+
+    Tiering(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.compiler = new JvmCompiler(interpreter);
+        interpreter.tiering = this;
+    }
+
+    void interpret(List<Stmt> statements) {
+        statements = interpreter.compile(statements);
+        if (statements != null) {
+            interpreter.run(statements);
+        }
+    }
+
+    CodeFunction function(Stmt.Function declaration) {
+        return new TieredFunction(declaration);
+    }
+
+    // Called by the Interpreter at the end of each iteration of a WHILE
+    // running in environment. Returns true when the compiled loop has run the
+    // rest of it, so the Interpreter leaves the loop.
+    boolean backEdge(Stmt.While loop, Environment environment) {
+        if (loop.backEdges < loopThreshold) {
+            loop.backEdges++;
+            return false;
+        }
+        if (!loops.containsKey(loop)) {
+            int depth = 0;
+            while (environment.ancestor(depth) != interpreter.globals) {
+                depth++;
+            }
+            int globalDepth = depth;
+            loops.put(loop, BACKGROUND.submit(() -> compiler.compile(loop, globalDepth)));
+            log("compiling WHILE", loop);
+        }
+        JvmCompiler.Body body = ready(loops.get(loop));
+        if (body == null) {
+            return false;
+        }
+        log("entering compiled WHILE", loop);
+        Object returned = body.run(environment, null);
+        if (returned != JvmCompiler.NO_RETURN) {
+            throw new Return(returned);
+        }
+        return true;
+    }
+
+    // A compiled body once it is ready, or null while it is being compiled
+    // or if it could not be.
+    private static JvmCompiler.Body ready(Future<JvmCompiler.Body> future) {
+        if (!future.isDone()) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not compile a body.", e.getCause());
+        }
+    }
+
+    private static void log(String event, String where) {
+        if (log) {
+            System.err.println("[tiering] " + event + " " + where);
+        }
+    }
+
+    private static void log(String event, Stmt.While loop) {
+        if (log) {
+            log(event, "at line " + line(loop.condition));
+        }
+    }
+
+    // The line of a WHILE's condition, from the first token in it.
+    private static int line(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            return line(((Expr.Binary) expr).left);
+        } else if (expr instanceof Expr.Logical) {
+            return line(((Expr.Logical) expr).left);
+        } else if (expr instanceof Expr.Grouping) {
+            return line(((Expr.Grouping) expr).expression);
+        } else if (expr instanceof Expr.Unary) {
+            return ((Expr.Unary) expr).operator.line();
+        } else if (expr instanceof Expr.Variable) {
+            return ((Expr.Variable) expr).name.line();
+        } else if (expr instanceof Expr.Assign) {
+            return ((Expr.Assign) expr).name.line();
+        } else if (expr instanceof Expr.Call) {
+            return ((Expr.Call) expr).paren.line();
+        }
+        return 0;
+    }
+
+    // A FN that counts its calls until its compiled body is ready. Calls
+    // the compiled body cannot take, or all of them if it could not be
+    // compiled, stay with the Interpreter.
+    private class TieredFunction extends JvmCompiler.BodyFunction {
+        private int calls = 0;
+        private boolean promoted = false;
+        private JvmCompiler.Body body = null;
+
+        TieredFunction(Stmt.Function declaration) {
+            super(declaration);
+        }
+
+        @Override
+        JvmCompiler.Body body(Interpreter interpreter) {
+            if (!promoted && ++calls >= callThreshold) {
+                promote(interpreter);
+            }
+            return body;
+        }
+
+        private void promote(Interpreter interpreter) {
+            Future<JvmCompiler.Body> future = functions.get(declaration);
+            if (future == null) {
+                prepare(interpreter);
+                future = BACKGROUND.submit(() -> compiler.compile(declaration));
+                functions.put(declaration, future);
+                log("compiling FN", declaration.name.lexeme + " at line " + declaration.name.line());
+            }
+            if (future.isDone()) {
+                body = ready(future);
+                promoted = true;
+                if (body != null) {
+                    log("promoted FN", declaration.name.lexeme + " after " + calls + " calls");
+                }
+            }
+        }
+    }
+}
@@ -4,13 +4,38 @@ public class Token {
     final TokenType type;
     final String lexeme;
     final Object literal;
-    final int line;
+    private final int line;
+    // Symbol table ID for identifiers, -1 for every other token.
+    final int symbol;
+    // Set on the tokens of a top level item parsed by the Watcher, which moves
+    // the whole item when lines are added or removed above it.
+    private final Shift shift;
+
+    // How many lines a top level item has moved since it was parsed. One is
+    // shared by every token of the item.
+    static class Shift {
+        int lines = 0;
+    }
 
     Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, literal, line, -1);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line, int symbol) {
+        this(type, lexeme, literal, line, symbol, null);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line, int symbol, Shift shift) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.symbol = symbol;
+        this.shift = shift;
+    }
+
+    int line() {
+        return shift == null ? line : line + shift.lines;
     }
 
     public String toString() {
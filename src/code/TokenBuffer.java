@@ -0,0 +1,135 @@
+package code;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+// Compact token store filled by the Scanner. Tokens are kept as parallel int
+// arrays (type, start offset, length, line, symbol ID) with decoded literals in
+// a side table, so keywords and punctuation never need a lexeme string or a
+// Token object. get() still builds a Token for the few places that hold on to one,
+// like the names and operators stored in the AST.
+class TokenBuffer implements TokenStream {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final CharSequence source;
+    private final SymbolTable symbols;
+    private int[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int[] lines;
+    private int[] symbolIds;
+    private Object[] literals;
+    private int size = 0;
+    // Given to the tokens get() builds, see Token.Shift.
+    private Token.Shift shift = null;
+
+    TokenBuffer(CharSequence source, SymbolTable symbols) {
+        this(source, symbols, 64);
+    }
+
+    TokenBuffer(CharSequence source, SymbolTable symbols, int capacity) {
+        this.source = source;
+        this.symbols = symbols;
+        capacity = Math.max(capacity, 1);
+        types = new int[capacity];
+        starts = new int[capacity];
+        lengths = new int[capacity];
+        lines = new int[capacity];
+        symbolIds = new int[capacity];
+        literals = new Object[capacity];
+    }
+
+    void add(TokenType type, int start, int length, int line, Object literal) {
+        add(type, start, length, line, -1, literal);
+    }
+
+    void addIdentifier(int start, int length, int line, int symbol) {
+        add(TokenType.IDENTIFIER, start, length, line, symbol, null);
+    }
+
+    private void add(TokenType type, int start, int length, int line, int symbol, Object literal) {
+        if (size == types.length) {
+            grow(size + 1);
+        }
+        types[size] = type.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        lines[size] = line;
+        symbolIds[size] = symbol;
+        literals[size] = literal;
+        size++;
+    }
+
+    // Appends every token of chunk, moving lines down by lineOffset and
+    // translating symbol IDs through symbolMap.
+    void append(TokenBuffer chunk, int lineOffset, int[] symbolMap) {
+        for (int i = 0; i < chunk.size; i++) {
+            int symbol = chunk.symbolIds[i] >= 0 ? symbolMap[chunk.symbolIds[i]] : -1;
+            add(TYPES[chunk.types[i]], chunk.starts[i], chunk.lengths[i], chunk.lines[i] + lineOffset, symbol,
+                    chunk.literals[i]);
+        }
+    }
+
+    private void grow(int needed) {
+        int capacity = Math.max(types.length * 2, needed);
+        types = Arrays.copyOf(types, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        symbolIds = Arrays.copyOf(symbolIds, capacity);
+        literals = Arrays.copyOf(literals, capacity);
+    }
+
+    void clear() {
+        Arrays.fill(literals, 0, size, null);
+        size = 0;
+    }
+
+    void shift(Token.Shift shift) {
+        this.shift = shift;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @Override
+    public TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    @Override
+    public Object literal(int index) {
+        return literals[Objects.checkIndex(index, size)];
+    }
+
+    int start(int index) {
+        return starts[index];
+    }
+
+    int end(int index) {
+        return starts[index] + lengths[index];
+    }
+
+    int line(int index) {
+        return lines[index];
+    }
+
+    int symbol(int index) {
+        return symbolIds[index];
+    }
+
+    // Identifiers share the interned name from the symbol table.
+    String lexeme(int index) {
+        if (symbolIds[index] >= 0) {
+            return symbols.name(symbolIds[index]);
+        }
+        return source.subSequence(starts[index], starts[index] + lengths[index]).toString();
+    }
+
+    @Override
+    public Token get(int index) {
+        Objects.checkIndex(index, size);
+        return new Token(type(index), lexeme(index), literals[index], lines[index], symbolIds[index], shift);
+    }
+}
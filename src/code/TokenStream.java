@@ -0,0 +1,12 @@
+package code;
+
+// Random access to the tokens the Parser works on. The Parser only ever looks
+// one token back and one token ahead of its cursor, so a stream does not need
+// to keep the whole file around.
+interface TokenStream {
+    Token get(int index);
+
+    TokenType type(int index);
+
+    Object literal(int index);
+}
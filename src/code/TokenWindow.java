@@ -0,0 +1,41 @@
+package code;
+
+// Pulls tokens from a Scanner on demand and keeps only the last few of them, so
+// parsing starts before lexing is done and memory use does not grow with the
+// size of the source.
+class TokenWindow implements TokenStream {
+    // previous(), peek() and peekNext() plus one spare slot.
+    private static final int SIZE = 4;
+
+    private final Scanner scanner;
+    private final Token[] window = new Token[SIZE];
+    private int scanned = 0;
+
+    TokenWindow(Scanner scanner) {
+        this.scanner = scanner;
+    }
+
+    @Override
+    public Token get(int index) {
+        while (index >= scanned) {
+            window[scanned % SIZE] = scanner.nextToken();
+            scanned++;
+        }
+
+        if (index < scanned - SIZE) {
+            throw new IllegalStateException("Token " + index + " is no longer in the lookahead window.");
+        }
+
+        return window[index % SIZE];
+    }
+
+    @Override
+    public TokenType type(int index) {
+        return get(index).type;
+    }
+
+    @Override
+    public Object literal(int index) {
+        return get(index).literal;
+    }
+}
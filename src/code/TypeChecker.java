@@ -0,0 +1,498 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Checks types after the Resolver has run and before anything executes.
+// Errors that would always happen at run time are reported up front. Every
+// Binary, Unary, Assign, Call, declaration and FN the checker can prove type
+// correct is marked verified, and the Interpreter skips its run time checks
+// for those nodes.
+//
+// An expression's static type is INT, FLOAT, CHAR, BOOL or STRING, or null
+// when it is not known. A known type also means the value is never null, so
+// variables declared without an initializer are not known when read. Parameters
+// are known: verified calls pass the right types and other calls have their
+// arguments checked by CodeFunction.
+class TypeChecker implements Expr.Visitor<TokenType>, Stmt.Visitor<Void> {
+    // What is known about the variable or function in a slot.
+    private static class Symbol {
+        // Slots whose contents depend on which of two definitions ran last.
+        static final Symbol UNKNOWN = new Symbol(null, true, false, null, null);
+
+        final TokenType type;
+        final boolean mutable;
+        // True when the variable has a value from the moment it is defined.
+        final boolean initialized;
+        // Parameter types of a function, null for variables. A null entry
+        // accepts any argument.
+        final List<TokenType> params;
+        final TokenType returnType;
+
+        private Symbol(TokenType type, boolean mutable, boolean initialized, List<TokenType> params,
+                TokenType returnType) {
+            this.type = type;
+            this.mutable = mutable;
+            this.initialized = initialized;
+            this.params = params;
+            this.returnType = returnType;
+        }
+
+        static Symbol variable(TokenType type, boolean mutable, boolean initialized) {
+            return new Symbol(type, mutable, initialized, null, null);
+        }
+
+        static Symbol function(List<TokenType> params, TokenType returnType) {
+            return new Symbol(null, true, false, params, returnType);
+        }
+    }
+
+    private final Map<Integer, Symbol> globals = new HashMap<>();
+    // Local scopes by slot, innermost last. Empty at the top level.
+    private List<Symbol[]> scopes = new ArrayList<>();
+    // FN bodies are checked once the rest of their scope has been seen, so
+    // they know every global and every other FN.
+    private List<Stmt.Function> pending = new ArrayList<>();
+    private Stmt.Function function = null;
+    private boolean hadError = false;
+
+    TypeChecker(Interpreter interpreter) {
+        defineNative(interpreter, "clock", TokenType.FLOAT);
+        defineNative(interpreter, "ceil", TokenType.FLOAT, TokenType.FLOAT);
+        defineNative(interpreter, "floor", TokenType.FLOAT, TokenType.FLOAT);
+        defineNative(interpreter, "sqrt", TokenType.FLOAT, TokenType.FLOAT);
+        defineNative(interpreter, "abs", TokenType.FLOAT, TokenType.FLOAT);
+        defineNative(interpreter, "pow", TokenType.FLOAT, TokenType.FLOAT, TokenType.FLOAT);
+        defineNative(interpreter, "scanString", TokenType.STRING, (TokenType) null);
+    }
+
+    private void defineNative(Interpreter interpreter, String name, TokenType returnType, TokenType... params) {
+        globals.put(interpreter.globalSlot(name), Symbol.function(Arrays.asList(params), returnType));
+    }
+
+    static boolean isValueType(TokenType type) {
+        return type == TokenType.INT || type == TokenType.FLOAT || type == TokenType.CHAR
+                || type == TokenType.BOOL || type == TokenType.STRING;
+    }
+
+    static boolean hasType(Object value, TokenType type) {
+        switch (type) {
+            case INT:
+                return value instanceof Integer;
+            case FLOAT:
+                return value instanceof Double;
+            case CHAR:
+                return value instanceof Character;
+            case BOOL:
+                return value instanceof Boolean;
+            case STRING:
+                return value instanceof String;
+            default:
+                return false;
+        }
+    }
+
+    // The name run time errors give a value type.
+    static String typeName(TokenType type) {
+        switch (type) {
+            case INT:
+                return "Integer";
+            case FLOAT:
+                return "Float";
+            case CHAR:
+                return "Character";
+            case BOOL:
+                return "Boolean";
+            default:
+                return "String";
+        }
+    }
+
+    // Checks a program. Returns false if it has type errors.
+    boolean check(List<Stmt> statements) {
+        hadError = false;
+        checkScope(statements);
+        return !hadError;
+    }
+
+    // Checks a lazy FN body the first time it is called.
+    boolean check(Stmt.Function declaration) {
+        hadError = false;
+        List<Symbol[]> enclosing = scopes;
+        scopes = new ArrayList<>();
+        checkFunction(declaration);
+        scopes = enclosing;
+        return !hadError;
+    }
+
+    private void checkScope(List<Stmt> statements) {
+        List<Stmt.Function> enclosing = pending;
+        pending = new ArrayList<>();
+        checkStatements(statements);
+        for (Stmt.Function declaration : pending) {
+            checkFunction(declaration);
+        }
+        pending = enclosing;
+    }
+
+    private void checkFunction(Stmt.Function declaration) {
+        if (declaration.locals < 0) {
+            // A lazy body that has not been parsed yet.
+            declaration.verified = false;
+            return;
+        }
+
+        Stmt.Function enclosingFunction = function;
+        List<Symbol[]> enclosingScopes = scopes;
+        Symbol[] locals = new Symbol[declaration.locals];
+        for (int i = 0; i < declaration.params.size(); i++) {
+            TokenType type = declaration.params.get(i).type.type;
+            locals[i] = Symbol.variable(isValueType(type) ? type : null, true, true);
+        }
+        scopes = new ArrayList<>();
+        scopes.add(locals);
+        function = declaration;
+        declaration.verified = true;
+        checkScope(declaration.body);
+        function = enclosingFunction;
+        scopes = enclosingScopes;
+    }
+
+    private void checkStatements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement != null) {
+                statement.accept(this);
+            }
+        }
+    }
+
+    private TokenType check(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    private Symbol symbol(int depth, int slot) {
+        if (depth == scopes.size()) {
+            return globals.get(slot);
+        }
+        return scopes.get(scopes.size() - 1 - depth)[slot];
+    }
+
+    // Runs the way Environment.define does: a variable never replaces what is
+    // already in its slot, and a FN always does.
+    private void define(int slot, Symbol symbol, boolean replace) {
+        Symbol existing = scopes.isEmpty() ? globals.get(slot) : scopes.get(scopes.size() - 1)[slot];
+        if (existing != null) {
+            if (!replace) {
+                return;
+            }
+            symbol = Symbol.UNKNOWN;
+        }
+        if (scopes.isEmpty()) {
+            globals.put(slot, symbol);
+        } else {
+            scopes.get(scopes.size() - 1)[slot] = symbol;
+        }
+    }
+
+    private void error(Token token, String message) {
+        Code.error(token, message);
+        hadError = true;
+    }
+
+    // Returns whether the declaration's initializer is known to have its type.
+    private boolean declare(int slot, Token name, TokenType type, Expr initializer, boolean mutable) {
+        boolean verified = true;
+        if (initializer != null) {
+            TokenType actual = check(initializer);
+            if (actual != type) {
+                verified = false;
+                if (actual != null) {
+                    error(name, "Cannot assign a " + actual + " value to variable of type " + type + ".");
+                }
+            }
+        }
+        define(slot, Symbol.variable(type, mutable, initializer != null), false);
+        return verified;
+    }
+
+    private static boolean isNumber(TokenType type) {
+        return type == TokenType.INT || type == TokenType.FLOAT;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        scopes.add(new Symbol[stmt.locals]);
+        checkScope(stmt.statements);
+        scopes.remove(scopes.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        check(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        List<TokenType> params = new ArrayList<>();
+        for (Parameter param : stmt.params) {
+            params.add(isValueType(param.type.type) ? param.type.type : null);
+        }
+        define(stmt.slot, Symbol.function(params, stmt.returnType == null ? null : stmt.returnType.type), true);
+        pending.add(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        check(stmt.condition);
+        checkStatements(stmt.thenBranch);
+        for (int i = 0; i < stmt.elseIfBranches.size(); i++) {
+            check(stmt.elseIfConditions.get(i));
+            checkStatements(stmt.elseIfBranches.get(i));
+        }
+        if (stmt.elseBranch != null) {
+            checkStatements(stmt.elseBranch);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        check(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        TokenType type = check(stmt.value);
+        if (function == null) {
+            return null;
+        }
+
+        if (function.returnType == null) {
+            if (stmt.value != null) {
+                function.verified = false;
+                if (type != null) {
+                    error(stmt.keyword, "Function with void return type shouldn't return anything.");
+                }
+            }
+        } else if (type != function.returnType.type) {
+            function.verified = false;
+            if (type != null) {
+                error(stmt.keyword, "Return value must be of type " + function.returnType.type + ".");
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitScanStmt(Stmt.Scan stmt) {
+        // Input is only known at run time, so Environment.assign checks it.
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        check(stmt.condition);
+        checkStatements(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitStringStmt(Stmt.String stmt) {
+        stmt.verified = declare(stmt.slot, stmt.name, TokenType.STRING, stmt.initializer, stmt.mutable);
+        return null;
+    }
+
+    @Override
+    public Void visitIntStmt(Stmt.Int stmt) {
+        stmt.verified = declare(stmt.slot, stmt.name, TokenType.INT, stmt.initializer, stmt.mutable);
+        return null;
+    }
+
+    @Override
+    public Void visitFloatStmt(Stmt.Float stmt) {
+        stmt.verified = declare(stmt.slot, stmt.name, TokenType.FLOAT, stmt.initializer, stmt.mutable);
+        return null;
+    }
+
+    @Override
+    public Void visitCharStmt(Stmt.Char stmt) {
+        stmt.verified = declare(stmt.slot, stmt.name, TokenType.CHAR, stmt.initializer, stmt.mutable);
+        return null;
+    }
+
+    @Override
+    public Void visitBoolStmt(Stmt.Bool stmt) {
+        stmt.verified = declare(stmt.slot, stmt.name, TokenType.BOOL, stmt.initializer, stmt.mutable);
+        return null;
+    }
+
+    @Override
+    public TokenType visitAssignExpr(Expr.Assign expr) {
+        TokenType value = check(expr.value);
+        Symbol symbol = symbol(expr.depth, expr.slot);
+        expr.verified = false;
+        if (symbol == null || symbol.params != null || symbol.type == null) {
+            return null;
+        }
+
+        if (!symbol.mutable) {
+            error(expr.name, "Cannot assign to an immutable variable.");
+        } else if (value == symbol.type) {
+            expr.verified = true;
+        } else if (value != null) {
+            error(expr.name, "Cannot assign a " + value + " value to variable of type " + symbol.type + ".");
+        }
+        return symbol.type;
+    }
+
+    @Override
+    public TokenType visitBinaryExpr(Expr.Binary expr) {
+        TokenType left = check(expr.left);
+        TokenType right = check(expr.right);
+        expr.verified = false;
+        expr.operandType = null;
+
+        switch (expr.operator.type) {
+            case GREATER_THAN:
+            case GREATER_THAN_EQUAL:
+            case LESS_THAN:
+            case LESS_THAN_EQUAL:
+            case MINUS:
+            case SLASH:
+            case STAR:
+            case PLUS:
+            case MODULO:
+                if ((left != null && !isNumber(left)) || (right != null && !isNumber(right))
+                        || (left != null && right != null && left != right)) {
+                    error(expr.operator, "Operands must be two integers or two floats.");
+                    return null;
+                }
+                expr.verified = left != null && right != null;
+                expr.operandType = expr.verified ? left : null;
+                switch (expr.operator.type) {
+                    case GREATER_THAN:
+                    case GREATER_THAN_EQUAL:
+                    case LESS_THAN:
+                    case LESS_THAN_EQUAL:
+                        // Comparing FLOATs has always failed at run time, and
+                        // still does, so they are not verified.
+                        if (left == TokenType.FLOAT) {
+                            expr.verified = false;
+                            expr.operandType = null;
+                        }
+                        return TokenType.BOOL;
+                    default:
+                        return left != null ? left : right;
+                }
+            case AMPERSAND:
+                return TokenType.STRING;
+            case EQUAL_EQUAL:
+            case NOT_EQUAL:
+                return TokenType.BOOL;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public TokenType visitCallExpr(Expr.Call expr) {
+        check(expr.callee);
+        List<TokenType> arguments = new ArrayList<>();
+        for (Expr argument : expr.arguments) {
+            arguments.add(check(argument));
+        }
+        expr.verified = false;
+
+        if (!(expr.callee instanceof Expr.Variable)) {
+            return null;
+        }
+        Expr.Variable callee = (Expr.Variable) expr.callee;
+        Symbol symbol = symbol(callee.depth, callee.slot);
+        if (symbol == null || symbol.params == null) {
+            return null;
+        }
+
+        if (arguments.size() != symbol.params.size()) {
+            error(expr.paren, "Expected " + symbol.params.size() + " arguments but got " + arguments.size() + ".");
+            return symbol.returnType;
+        }
+
+        boolean verified = true;
+        for (int i = 0; i < arguments.size(); i++) {
+            TokenType param = symbol.params.get(i);
+            TokenType argument = arguments.get(i);
+            if (param == null || argument == param) {
+                continue;
+            }
+            verified = false;
+            if (argument != null) {
+                error(expr.paren, "Argument " + (i + 1) + " must be of type " + param + ".");
+            }
+        }
+        expr.verified = verified;
+        return symbol.returnType;
+    }
+
+    @Override
+    public TokenType visitGroupingExpr(Expr.Grouping expr) {
+        return check(expr.expression);
+    }
+
+    @Override
+    public TokenType visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value instanceof Integer) {
+            return TokenType.INT;
+        } else if (expr.value instanceof Double) {
+            return TokenType.FLOAT;
+        } else if (expr.value instanceof Character) {
+            return TokenType.CHAR;
+        } else if (expr.value instanceof Boolean) {
+            return TokenType.BOOL;
+        } else if (expr.value instanceof String) {
+            return TokenType.STRING;
+        }
+        return null;
+    }
+
+    @Override
+    public TokenType visitLogicalExpr(Expr.Logical expr) {
+        // The result is one of the operands.
+        TokenType left = check(expr.left);
+        TokenType right = check(expr.right);
+        return left == right ? left : null;
+    }
+
+    @Override
+    public TokenType visitUnaryExpr(Expr.Unary expr) {
+        TokenType right = check(expr.right);
+        expr.verified = false;
+
+        switch (expr.operator.type) {
+            case NOT:
+                return TokenType.BOOL;
+            case MINUS:
+            case PLUS:
+                if (right != null && !isNumber(right)) {
+                    error(expr.operator, "Operand must be an integer or a float number.");
+                    return null;
+                }
+                expr.verified = right != null;
+                return right;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public TokenType visitVariableExpr(Expr.Variable expr) {
+        Symbol symbol = symbol(expr.depth, expr.slot);
+        return symbol != null && symbol.initialized ? symbol.type : null;
+    }
+}
@@ -0,0 +1,403 @@
+package code;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Runs the Chunks the BytecodeCompiler makes, one dispatch loop with an
+// operand stack per chunk being run. Variables still live in Environments, so
+// IMMUT, the checks on unverified assignments and the slots the Optimizer adds
+// behave exactly as in the Interpreter, whose globals, natives and generic
+// operators the VM shares. A call to a FN runs its chunk in a new loop.
+class VM {
+    // What running a chunk gives back when it ends without a RETURN.
+    private static final Object NO_RETURN = new Object();
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final Interpreter interpreter;
+    private final Environment globals;
+    private final Map<Stmt.Function, Chunk> chunks = new IdentityHashMap<>();
+
+    VM(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+    }
+
+    void interpret(List<Stmt> statements) {
+        statements = interpreter.compile(statements);
+        if (statements != null) {
+            run(BytecodeCompiler.compile(statements));
+        }
+    }
+
+    void run(Chunk chunk) {
+        try {
+            Object returned = execute(chunk, globals);
+            if (returned != NO_RETURN) {
+                // A RETURN outside any FN ends the program as in the Interpreter.
+                throw new Return(returned);
+            }
+        } catch (RuntimeError e) {
+            Code.runtimeError(e);
+        }
+    }
+
+    // FN bodies are compiled on their first call, after a lazy body has been
+    // parsed.
+    private Chunk chunk(Stmt.Function declaration) {
+        Chunk chunk = chunks.get(declaration);
+        if (chunk == null) {
+            chunk = BytecodeCompiler.compile(declaration);
+            chunks.put(declaration, chunk);
+        }
+        return chunk;
+    }
+
+    private Object execute(Chunk chunk, Environment environment) {
+        int[] code = chunk.code;
+        Object[] constants = chunk.constants;
+        Object[] stack = new Object[chunk.maxStack];
+        int[] ints = new int[chunk.maxStack];
+        int top = 0;
+        int pc = 0;
+        for (;;) {
+            switch (code[pc++]) {
+                case Chunk.CONST:
+                    stack[top++] = constants[code[pc++]];
+                    break;
+                case Chunk.POP:
+                    top--;
+                    break;
+                case Chunk.GET:
+                    stack[top++] = environment.get(code[pc], code[pc + 1], (Token) constants[code[pc + 2]]);
+                    pc += 3;
+                    break;
+                case Chunk.GET_GLOBAL:
+                    stack[top++] = globals.get(0, code[pc], (Token) constants[code[pc + 1]]);
+                    pc += 2;
+                    break;
+                case Chunk.SET:
+                    environment.set(code[pc], code[pc + 1], (Token) constants[code[pc + 2]], stack[top - 1]);
+                    pc += 3;
+                    break;
+                case Chunk.SET_GLOBAL:
+                    globals.set(0, code[pc], (Token) constants[code[pc + 1]], stack[top - 1]);
+                    pc += 2;
+                    break;
+                case Chunk.ASSIGN:
+                    environment.assign(code[pc], code[pc + 1], (Token) constants[code[pc + 2]], stack[top - 1]);
+                    pc += 3;
+                    break;
+                case Chunk.STORE:
+                    environment.set(code[pc], code[pc + 1], (Token) constants[code[pc + 2]], stack[--top]);
+                    pc += 3;
+                    break;
+                case Chunk.STORE_GLOBAL:
+                    globals.set(0, code[pc], (Token) constants[code[pc + 1]], stack[--top]);
+                    pc += 2;
+                    break;
+                case Chunk.STORE_CHECKED:
+                    environment.assign(code[pc], code[pc + 1], (Token) constants[code[pc + 2]], stack[--top]);
+                    pc += 3;
+                    break;
+                case Chunk.BIND:
+                    environment.bind(code[pc++], stack[--top]);
+                    break;
+                case Chunk.ICONST:
+                    ints[top++] = code[pc++];
+                    break;
+                case Chunk.IGET:
+                    ints[top++] = environment.getInt(code[pc], code[pc + 1], (Token) constants[code[pc + 2]]);
+                    pc += 3;
+                    break;
+                case Chunk.IGET_GLOBAL:
+                    ints[top++] = globals.getInt(0, code[pc], (Token) constants[code[pc + 1]]);
+                    pc += 2;
+                    break;
+                case Chunk.ISTORE:
+                    environment.setInt(code[pc], code[pc + 1], (Token) constants[code[pc + 2]], ints[--top]);
+                    pc += 3;
+                    break;
+                case Chunk.ISTORE_GLOBAL:
+                    globals.setInt(0, code[pc], (Token) constants[code[pc + 1]], ints[--top]);
+                    pc += 2;
+                    break;
+                case Chunk.UNBOX:
+                    ints[top - 1] = (int) stack[top - 1];
+                    break;
+                case Chunk.BOX:
+                    stack[top - 1] = ints[top - 1];
+                    break;
+                case Chunk.IADD:
+                    top--;
+                    ints[top - 1] += ints[top];
+                    break;
+                case Chunk.ISUB:
+                    top--;
+                    ints[top - 1] -= ints[top];
+                    break;
+                case Chunk.IMUL:
+                    top--;
+                    ints[top - 1] *= ints[top];
+                    break;
+                case Chunk.IDIV:
+                    top--;
+                    if (ints[top] == 0) {
+                        throw new RuntimeError((Token) constants[code[pc]], "Cannot divide by zero.");
+                    }
+                    ints[top - 1] /= ints[top];
+                    pc++;
+                    break;
+                case Chunk.IMOD:
+                    top--;
+                    ints[top - 1] %= ints[top];
+                    break;
+                case Chunk.IADD_K:
+                    ints[top - 1] += code[pc++];
+                    break;
+                case Chunk.ISUB_K:
+                    ints[top - 1] -= code[pc++];
+                    break;
+                case Chunk.IMUL_K:
+                    ints[top - 1] *= code[pc++];
+                    break;
+                case Chunk.IDIV_K:
+                    ints[top - 1] /= code[pc++];
+                    break;
+                case Chunk.IMOD_K:
+                    ints[top - 1] %= code[pc++];
+                    break;
+                case Chunk.ILESS:
+                    top--;
+                    stack[top - 1] = ints[top - 1] < ints[top];
+                    break;
+                case Chunk.ILESS_EQUAL:
+                    top--;
+                    stack[top - 1] = ints[top - 1] <= ints[top];
+                    break;
+                case Chunk.IGREATER:
+                    top--;
+                    stack[top - 1] = ints[top - 1] > ints[top];
+                    break;
+                case Chunk.IGREATER_EQUAL:
+                    top--;
+                    stack[top - 1] = ints[top - 1] >= ints[top];
+                    break;
+                case Chunk.JUMP_UNLESS_LESS:
+                    top -= 2;
+                    pc = ints[top] < ints[top + 1] ? pc + 1 : code[pc];
+                    break;
+                case Chunk.JUMP_UNLESS_LESS_EQUAL:
+                    top -= 2;
+                    pc = ints[top] <= ints[top + 1] ? pc + 1 : code[pc];
+                    break;
+                case Chunk.JUMP_UNLESS_GREATER:
+                    top -= 2;
+                    pc = ints[top] > ints[top + 1] ? pc + 1 : code[pc];
+                    break;
+                case Chunk.JUMP_UNLESS_GREATER_EQUAL:
+                    top -= 2;
+                    pc = ints[top] >= ints[top + 1] ? pc + 1 : code[pc];
+                    break;
+                case Chunk.JUMP_UNLESS_LESS_K:
+                    pc = ints[--top] < code[pc] ? pc + 2 : code[pc + 1];
+                    break;
+                case Chunk.JUMP_UNLESS_LESS_EQUAL_K:
+                    pc = ints[--top] <= code[pc] ? pc + 2 : code[pc + 1];
+                    break;
+                case Chunk.JUMP_UNLESS_GREATER_K:
+                    pc = ints[--top] > code[pc] ? pc + 2 : code[pc + 1];
+                    break;
+                case Chunk.JUMP_UNLESS_GREATER_EQUAL_K:
+                    pc = ints[--top] >= code[pc] ? pc + 2 : code[pc + 1];
+                    break;
+                case Chunk.FADD: {
+                    // FLOAT + has always multiplied.
+                    double right = (double) stack[--top];
+                    stack[top - 1] = (double) stack[top - 1] * right;
+                    break;
+                }
+                case Chunk.FSUB: {
+                    double right = (double) stack[--top];
+                    stack[top - 1] = (double) stack[top - 1] - right;
+                    break;
+                }
+                case Chunk.FMUL: {
+                    double right = (double) stack[--top];
+                    stack[top - 1] = (double) stack[top - 1] * right;
+                    break;
+                }
+                case Chunk.FDIV: {
+                    double right = (double) stack[--top];
+                    if (right == 0) {
+                        throw new RuntimeError((Token) constants[code[pc]], "Cannot divide by zero.");
+                    }
+                    pc++;
+                    stack[top - 1] = (double) stack[top - 1] / right;
+                    break;
+                }
+                case Chunk.FMOD: {
+                    double right = (double) stack[--top];
+                    stack[top - 1] = (double) stack[top - 1] % right;
+                    break;
+                }
+                case Chunk.BINARY: {
+                    Object right = stack[--top];
+                    stack[top - 1] = Interpreter.binary((Token) constants[code[pc]], code[pc + 1] != 0,
+                            stack[top - 1], right);
+                    pc += 2;
+                    break;
+                }
+                case Chunk.CONCAT: {
+                    Object right = stack[--top];
+                    stack[top - 1] = stack[top - 1].toString() + right.toString();
+                    break;
+                }
+                case Chunk.EQUAL: {
+                    Object right = stack[--top];
+                    stack[top - 1] = Interpreter.isEqual(stack[top - 1], right);
+                    break;
+                }
+                case Chunk.NOT_EQUAL: {
+                    Object right = stack[--top];
+                    stack[top - 1] = !Interpreter.isEqual(stack[top - 1], right);
+                    break;
+                }
+                case Chunk.NOT:
+                    stack[top - 1] = !Interpreter.isTruthy(stack[top - 1]);
+                    break;
+                case Chunk.UNARY:
+                    stack[top - 1] = Interpreter.unary((Token) constants[code[pc]], code[pc + 1] != 0,
+                            stack[top - 1]);
+                    pc += 2;
+                    break;
+                case Chunk.JUMP:
+                    pc = code[pc];
+                    break;
+                case Chunk.JUMP_FALSE:
+                    pc = Interpreter.isTruthy(stack[--top]) ? pc + 1 : code[pc];
+                    break;
+                case Chunk.JUMP_FALSE_OR_POP:
+                    if (Interpreter.isTruthy(stack[top - 1])) {
+                        top--;
+                        pc++;
+                    } else {
+                        pc = code[pc];
+                    }
+                    break;
+                case Chunk.JUMP_TRUE_OR_POP:
+                    if (Interpreter.isTruthy(stack[top - 1])) {
+                        pc = code[pc];
+                    } else {
+                        top--;
+                        pc++;
+                    }
+                    break;
+                case Chunk.CALL: {
+                    int count = code[pc];
+                    top -= count;
+                    if (code[pc + 2] != 0 && count <= 3) {
+                        stack[top - 1] = call((CodeCallable) stack[top - 1], stack, top, count);
+                    } else {
+                        stack[top - 1] = call(stack[top - 1], Arrays.copyOfRange(stack, top, top + count),
+                                (Token) constants[code[pc + 1]], code[pc + 2] != 0);
+                    }
+                    pc += 3;
+                    break;
+                }
+                case Chunk.PRINT:
+                    Interpreter.print(stack[--top]);
+                    break;
+                case Chunk.DECLARE:
+                    declare(environment, code, pc, constants, code[pc + 3] != 0 ? stack[--top] : null);
+                    pc += 6;
+                    break;
+                case Chunk.FUNCTION: {
+                    Stmt.Function declaration = (Stmt.Function) constants[code[pc++]];
+                    environment.define(declaration.slot, new CompiledFunction(declaration));
+                    break;
+                }
+                case Chunk.RETURN:
+                    return stack[--top];
+                case Chunk.RETURN_VOID:
+                    return null;
+                case Chunk.SCAN: {
+                    Stmt.Scan scan = (Stmt.Scan) constants[code[pc++]];
+                    Interpreter.scan(environment, scan.identifiers, scan.depths, scan.slots);
+                    break;
+                }
+                case Chunk.ENTER:
+                    environment = new Environment(environment, code[pc++]);
+                    break;
+                case Chunk.EXIT:
+                    environment = environment.enclosing;
+                    break;
+                case Chunk.END:
+                    return NO_RETURN;
+                default:
+                    throw new IllegalStateException("Bad opcode " + code[pc - 1] + ".");
+            }
+        }
+    }
+
+    // DECLARE slot type mutable initialized verified name, with pc at slot.
+    private static void declare(Environment environment, int[] code, int pc, Object[] constants, Object value) {
+        TokenType type = TYPES[code[pc + 1]];
+        if (code[pc + 3] != 0 && code[pc + 4] == 0 && !TypeChecker.hasType(value, type)) {
+            throw new RuntimeError((Token) constants[code[pc + 5]],
+                    "Value '" + value + "' is not of type " + TypeChecker.typeName(type) + ".");
+        }
+        environment.define(code[pc], value, type, code[pc + 2] != 0);
+    }
+
+    // A verified call of up to three arguments, taken from the stack as they
+    // are.
+    private Object call(CodeCallable callee, Object[] stack, int from, int count) {
+        switch (count) {
+            case 0:
+                return callee.call0(interpreter);
+            case 1:
+                return callee.call1(interpreter, stack[from]);
+            case 2:
+                return callee.call2(interpreter, stack[from], stack[from + 1]);
+            default:
+                return callee.call3(interpreter, stack[from], stack[from + 1], stack[from + 2]);
+        }
+    }
+
+    private Object call(Object callee, Object[] arguments, Token paren, boolean verified) {
+        if (!verified) {
+            if (!(callee instanceof CodeCallable)) {
+                throw new RuntimeError(paren, "Can only call functions and classes.");
+            }
+            int arity = ((CodeCallable) callee).arity();
+            if (arguments.length != arity) {
+                throw new RuntimeError(paren, "Expected " + arity + " arguments but got " + arguments.length + ".");
+            }
+            if (callee instanceof CodeFunction) {
+                ((CodeFunction) callee).checkArguments(paren, arguments);
+            }
+        }
+        return ((CodeCallable) callee).call(interpreter, arguments);
+    }
+
+    // A FN that runs its chunk. Binding arguments and checking what comes
+    // back are the same as for any CodeFunction.
+    private class CompiledFunction extends CodeFunction {
+        private Chunk chunk = null;
+
+        CompiledFunction(Stmt.Function declaration) {
+            super(declaration);
+        }
+
+        @Override
+        Object run(Interpreter interpreter, Environment environment) {
+            if (chunk == null) {
+                chunk = chunk(declaration);
+            }
+            Object returned = execute(chunk, environment);
+            return returned == NO_RETURN ? noReturn() : returned(returned);
+        }
+    }
+}
@@ -1,43 +1,39 @@
 package code;
 
+// What a variable was declared as. Environments keep the values themselves,
+// so a Variable never changes, and every variable declared with the same type
+// and mutability shares one.
 public class Variable {
-    private TokenType type;
-    private Object value;
-    private boolean mutable;
+    private static final Variable[] SHARED = new Variable[(TokenType.values().length + 1) * 2];
 
-    public Variable(TokenType type, Object value, boolean mutable) {
-        this.type = type;
-        this.value = value;
-        this.mutable = mutable;
+    static {
+        for (int i = 0; i < SHARED.length; i++) {
+            SHARED[i] = new Variable(i < 2 ? null : TokenType.values()[i / 2 - 1], i % 2 == 1);
+        }
     }
 
-    // Getters and setters
-    public TokenType getType() {
-        return type;
-    }
+    private final TokenType type;
+    private final boolean mutable;
 
-    public void setType(TokenType type) {
+    private Variable(TokenType type, boolean mutable) {
         this.type = type;
+        this.mutable = mutable;
     }
 
-    public Object getValue() {
-        return value;
+    static Variable of(TokenType type, boolean mutable) {
+        return SHARED[(type == null ? 0 : type.ordinal() + 1) * 2 + (mutable ? 1 : 0)];
     }
 
-    public void setValue(Object value) {
-        this.value = value;
+    public TokenType getType() {
+        return type;
     }
 
     public boolean isMutable() {
         return mutable;
     }
 
-    public void setImmutable(boolean immutable) {
-        mutable = immutable;
-    }
-
     @Override
     public String toString() {
-        return value.toString();
+        return (mutable ? "" : "IMMUT ") + type;
     }
 }
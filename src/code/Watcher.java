@@ -0,0 +1,310 @@
+package code;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Runs a script and runs it again every time the file changes. The top level
+// items of the last version are kept between runs, each with the whole lines
+// of source it was parsed from. After an edit only the changed lines are
+// lexed again and only the FN declaration or statement around them is parsed
+// again. Items below the edit keep their Stmt trees; their tokens share one
+// Token.Shift per item, so moving them up or down only updates a few numbers.
+// When an edit cannot be handled that way the whole file goes through the
+// Scanner and Parser as usual.
+class Watcher {
+    // Chars compared per Arrays.mismatch call when looking for the end of an
+    // edit.
+    private static final int BLOCK = 4096;
+
+    private final Path path;
+    private final SymbolTable symbols = new SymbolTable();
+    private String source = null;
+    private char[] chars = null;
+    // Null whenever the last version had errors, so the next one is parsed in
+    // full and every error is reported again.
+    private List<Span> spans = null;
+
+    // A top level item and the source lines it was parsed from, from the start
+    // of the line its first token is on to just past the line break after its
+    // last token. No other token is on those lines.
+    private static class Span {
+        Parser.Item item;
+        int from;
+        int to;
+        int line;
+
+        Span(Parser.Item item, int from, int to, int line) {
+            this.item = item;
+            this.from = from;
+            this.to = to;
+            this.line = line;
+        }
+    }
+
+    Watcher(Path path) {
+        this.path = path;
+    }
+
+    void watch() throws IOException, InterruptedException {
+        Path directory = path.toAbsolutePath().getParent();
+        try (WatchService service = directory.getFileSystem().newWatchService()) {
+            directory.register(service, ENTRY_MODIFY, ENTRY_CREATE);
+            reload();
+            for (;;) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (path.getFileName().equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+                if (changed) {
+                    reload();
+                }
+            }
+        }
+    }
+
+    private void reload() throws IOException {
+        String next = new String(Files.readAllBytes(path), Charset.defaultCharset());
+        // Editors often write a file more than once per save.
+        if (next.equals(source)) {
+            return;
+        }
+
+        Code.hadError = false;
+        Code.hadRuntimeError = false;
+        List<Stmt> statements = update(next);
+        if (statements != null && !Code.hadError) {
+            Code.rerun(statements);
+        }
+    }
+
+    // Brings the items up to date with the new source and returns the
+    // program's statements, or null if it did not parse.
+    List<Stmt> update(String next) {
+        String previous = source;
+        char[] previousChars = chars;
+        source = next;
+        chars = next.toCharArray();
+        if (previous != null && spans != null) {
+            List<Stmt> statements = reparse(previous, previousChars, next);
+            if (statements != null) {
+                return statements;
+            }
+        }
+        return parseAll();
+    }
+
+    private List<Stmt> parseAll() {
+        TokenBuffer tokens = new Scanner(source, symbols).scanTokens();
+        List<Parser.Item> items = new ArrayList<>();
+        try {
+            List<Stmt> statements = new Parser(tokens).parse(items);
+            spans = Code.hadError ? null : spans(tokens, items);
+            return statements;
+        } catch (Parser.ParseError error) {
+            spans = null;
+            return null;
+        }
+    }
+
+    // Returns null when an item shares a line with another token, as in a one
+    // line program, since its lines could then not be lexed on their own.
+    private List<Span> spans(TokenBuffer tokens, List<Parser.Item> items) {
+        List<Span> spans = new ArrayList<>(items.size());
+        for (Parser.Item item : items) {
+            int last = item.end - 1;
+            if (item.start > 0 && tokens.line(item.start - 1) == tokens.line(item.start)
+                    || tokens.line(item.end) == tokens.line(last)) {
+                return null;
+            }
+            spans.add(new Span(item, lineStart(source, tokens.start(item.start)), lineEnd(source, tokens.end(last)),
+                    tokens.line(item.start)));
+        }
+        return spans;
+    }
+
+    // Returns null when the edit has to be handled by a full parse, which also
+    // covers every edit that leaves an error behind.
+    private List<Stmt> reparse(String previous, char[] previousChars, String next) {
+        int prefix = Arrays.mismatch(previousChars, chars);
+        if (prefix < 0) {
+            return statements();
+        }
+        int suffix = commonSuffix(previousChars, chars, prefix);
+        int offsetDelta = next.length() - previous.length();
+
+        // Widen the edit to whole lines. No token spans a line break, so the
+        // tokens on these lines can be scanned on their own.
+        int from = lineStart(previous, prefix);
+        int oldTo = previous.length() - suffix;
+        if (!atLineStart(previous, oldTo) || !atLineStart(next, oldTo + offsetDelta)) {
+            oldTo = lineEnd(previous, oldTo);
+        }
+        int newTo = oldTo + offsetDelta;
+        int lineDelta = countLines(next, from, newTo) - countLines(previous, from, oldTo);
+
+        int moved = firstSpanAfter(from);
+        if (moved < spans.size() && spans.get(moved).from < oldTo) {
+            // The edit touches an item. It has to stay inside it.
+            Span span = spans.get(moved);
+            if (from < span.from || span.to < oldTo) {
+                return null;
+            }
+            if (lineDelta != 0 || !sameTokens(previous, next, from, oldTo, newTo)) {
+                Parser.Item item = reparseItem(span, next, span.to + offsetDelta);
+                if (item == null) {
+                    return null;
+                }
+                span.item = item;
+            }
+            span.to += offsetDelta;
+            moved++;
+        } else if (!sameTokens(previous, next, from, oldTo, newTo)) {
+            // Between items only blank lines, comments and the lines of
+            // BEGIN CODE and END CODE can change without a full parse.
+            return null;
+        }
+
+        for (int i = moved; i < spans.size(); i++) {
+            Span span = spans.get(i);
+            span.from += offsetDelta;
+            span.to += offsetDelta;
+            span.line += lineDelta;
+            span.item.shift.lines += lineDelta;
+        }
+        return statements();
+    }
+
+    // Lexes and parses the span's lines again as they are in 'next', where
+    // they now end at 'to'. Returns null if they no longer hold exactly one
+    // item of the same kind, or hold errors.
+    private Parser.Item reparseItem(Span span, String next, int to) {
+        ErrorLog errors = new ErrorLog();
+        TokenBuffer tokens = Scanner.scanRegion(next, symbols, span.from, to, span.line, errors);
+        tokens.add(TokenType.EOF, to, 0, span.line + countLines(next, span.from, to), null);
+        if (tokens.size() == 1 || kindAt(tokens, 0) != span.item.kind) {
+            return null;
+        }
+        try {
+            Parser.Item item = new Parser(tokens, 0, errors).parseItem(span.item.kind);
+            return item.end == tokens.size() - 1 && errors.isEmpty() ? item : null;
+        } catch (Parser.ParseError error) {
+            // The edit broke the item. A full parse reports the same error
+            // along with anything else that is wrong.
+            return null;
+        }
+    }
+
+    private List<Stmt> statements() {
+        List<Stmt> statements = new ArrayList<>();
+        for (Span span : spans) {
+            statements.addAll(span.item.statements);
+        }
+        return statements;
+    }
+
+    private static Parser.Item.Kind kindAt(TokenBuffer tokens, int index) {
+        switch (tokens.type(index)) {
+            case FUNCTION:
+                return Parser.Item.Kind.FUNCTION;
+            case STRING:
+            case CHAR:
+            case INT:
+            case FLOAT:
+            case BOOL:
+            case IMMUTABLE:
+                return Parser.Item.Kind.DECLARATION;
+            default:
+                return Parser.Item.Kind.STATEMENT;
+        }
+    }
+
+    // Whether the old lines [from, oldTo) and the new lines [from, newTo) hold
+    // the same tokens on the same lines, counting from the first of them.
+    private boolean sameTokens(String previous, String next, int from, int oldTo, int newTo) {
+        ErrorLog errors = new ErrorLog();
+        TokenBuffer before = Scanner.scanRegion(previous, symbols, from, oldTo, 1, errors);
+        TokenBuffer after = Scanner.scanRegion(next, symbols, from, newTo, 1, errors);
+        if (!errors.isEmpty() || before.size() != after.size()) {
+            return false;
+        }
+        for (int i = 0; i < before.size(); i++) {
+            if (before.type(i) != after.type(i) || before.line(i) != after.line(i)
+                    || !before.lexeme(i).equals(after.lexeme(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Index of the first span that ends after offset.
+    private int firstSpanAfter(int offset) {
+        int low = 0;
+        int high = spans.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (spans.get(middle).to <= offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Length of the longest common suffix of a and b that leaves their first
+    // 'prefix' chars alone, compared a block at a time from the end.
+    private static int commonSuffix(char[] a, char[] b, int prefix) {
+        int limit = Math.min(a.length, b.length) - prefix;
+        int suffix = 0;
+        while (suffix < limit) {
+            int length = Math.min(BLOCK, limit - suffix);
+            int aFrom = a.length - suffix - length;
+            int bFrom = b.length - suffix - length;
+            if (Arrays.mismatch(a, aFrom, aFrom + length, b, bFrom, bFrom + length) >= 0) {
+                int i = length - 1;
+                while (a[aFrom + i] == b[bFrom + i]) {
+                    i--;
+                }
+                return suffix + length - 1 - i;
+            }
+            suffix += length;
+        }
+        return suffix;
+    }
+
+    private static int lineStart(String text, int offset) {
+        return text.lastIndexOf('\n', offset - 1) + 1;
+    }
+
+    private static int lineEnd(String text, int offset) {
+        int end = text.indexOf('\n', offset);
+        return end < 0 ? text.length() : end + 1;
+    }
+
+    private static boolean atLineStart(String text, int offset) {
+        return offset == 0 || text.charAt(offset - 1) == '\n';
+    }
+
+    private static int countLines(String text, int from, int to) {
+        int count = 0;
+        for (int i = text.indexOf('\n', from); i >= 0 && i < to; i = text.indexOf('\n', i + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
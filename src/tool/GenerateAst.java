@@ -7,8 +7,12 @@ import java.util.List;
 
 public class GenerateAst {
     public static void main(String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("--records")) {
+            defineRecordAsts(args[1]);
+            return;
+        }
         if (args.length != 1) {
-            System.err.println("Usage: generate_ast <output directory>");
+            System.err.println("Usage: generate_ast [--records] <output directory>");
             System.exit(64);
         }
         String outputDir = args[0];
@@ -18,11 +22,41 @@ public class GenerateAst {
                         "Call: Expr callee, Token paren, List<Expr> arguments",
                         "Grouping : Expr expression", "Literal: Object value",
                         "Logical: Expr left, Token operator, Expr right", "Unary: Token operator, Expr right",
-                        "Variable: Token name"));
+                        "Variable: Token name"),
+                Arrays.asList(
+                        "Assign: // Set by the Resolver: how many environments up the variable lives, and its slot there.",
+                        "Assign: int depth = -1;",
+                        "Assign: int slot = -1;",
+                        "Assign: // Set by the TypeChecker when the value always has the variable's type.",
+                        "Assign: boolean verified = false;",
+                        "Binary: // Set by the TypeChecker when the operand types are known to be valid.",
+                        "Binary: boolean verified = false;",
+                        "Binary: // Set by the TypeChecker with verified: the type both operands have.",
+                        "Binary: TokenType operandType = null;",
+                        "Binary: // Set by the Interpreter from the operand types seen at run time.",
+                        "Binary: SpecializedBinary specialized = null;",
+                        "Call: // Set by the TypeChecker when the callee, arity and argument types are known to be valid.",
+                        "Call: boolean verified = false;",
+                        "Call: // Set by the Inliner: the callee's body rewritten to run in the caller's",
+                        "Call: // environment, and the caller slots that hold the arguments (-1 when an",
+                        "Call: // argument is a literal the body uses directly).",
+                        "Call: Expr inlined = null;",
+                        "Call: int[] argumentSlots = null;",
+                        "Call: // Set by the Interpreter: the global callable this call found, valid while",
+                        "Call: // the global environment is cachedGlobals at version cachedVersion. The",
+                        "Call: // Watcher runs unchanged calls again with new globals.",
+                        "Call: CodeCallable cachedCallee = null;",
+                        "Call: Environment cachedGlobals = null;",
+                        "Call: int cachedVersion;",
+                        "Unary: // Set by the TypeChecker when the operand type is known to be valid.",
+                        "Unary: boolean verified = false;",
+                        "Variable: // Set by the Resolver: how many environments up the variable lives, and its slot there.",
+                        "Variable: int depth = -1;",
+                        "Variable: int slot = -1;"));
         defineAst(outputDir, "Stmt", Arrays.asList(
                 "Block: List<Stmt> statements",
                 "Expression : Expr expression",
-                "Function: Token name, List<Parameter> params, List<Stmt> body",
+                "Function: Token name, List<Parameter> params, List<Stmt> body, Token returnType",
                 "If: Expr condition, List<Stmt> thenBranch, List<Expr> elseIfConditions, List<List<Stmt>> elseIfBranches, List<Stmt> elseBranch",
                 "Print: Expr expression",
                 "Return: Token keyword, Expr value",
@@ -32,10 +66,95 @@ public class GenerateAst {
                 "Int: Token name, Expr initializer, boolean mutable",
                 "Float: Token name, Expr initializer, boolean mutable",
                 "Char: Token name, Expr initializer, boolean mutable",
-                "Bool: Token name, Expr initializer, boolean mutable"));
+                "Bool: Token name, Expr initializer, boolean mutable"),
+                Arrays.asList(
+                        "Block: // Number of slots the block's environment needs, set by the Resolver.",
+                        "Block: int locals = -1;",
+                        "Function: // Set by the Resolver: the slot that holds the function and the number",
+                        "Function: // of slots a call's environment needs. locals stays -1 until the body",
+                        "Function: // is resolved, which for a lazy body happens on the first call.",
+                        "Function: int slot = -1;",
+                        "Function: int locals = -1;",
+                        "Function: // Set by the TypeChecker when every RETURN is known to match the return type.",
+                        "Function: boolean verified = false;",
+                        "Scan: // Resolved address of each identifier, set by the Resolver.",
+                        "Scan: int[] depths;",
+                        "Scan: int[] slots;",
+                        "While: // Set by the LoopInvariantMover: expressions evaluated once before the",
+                        "While: // loop, and the slots the loop reads them from.",
+                        "While: List<Expr> hoisted = null;",
+                        "While: int[] hoistedSlots = null;",
+                        "While: // Set by the Tiering: iterations run so far, counted up to its",
+                        "While: // threshold.",
+                        "While: int backEdges = 0;",
+                        "String: int slot = -1;",
+                        "String: // Set by the TypeChecker when the initializer is known to have the declared type.",
+                        "String: boolean verified = false;",
+                        "Int: int slot = -1;",
+                        "Int: // Set by the TypeChecker when the initializer is known to have the declared type.",
+                        "Int: boolean verified = false;",
+                        "Float: int slot = -1;",
+                        "Float: // Set by the TypeChecker when the initializer is known to have the declared type.",
+                        "Float: boolean verified = false;",
+                        "Char: int slot = -1;",
+                        "Char: // Set by the TypeChecker when the initializer is known to have the declared type.",
+                        "Char: boolean verified = false;",
+                        "Bool: int slot = -1;",
+                        "Bool: // Set by the TypeChecker when the initializer is known to have the declared type.",
+                        "Bool: boolean verified = false;"));
+    }
+
+    // --records: the tree SwitchInterpreter runs, as sealed interfaces of
+    // records. The records carry what the Resolver, TypeChecker and Optimizer
+    // found, and the five declarations share one record.
+    private static void defineRecordAsts(String outputDir) throws IOException {
+        defineRecords(outputDir, "SealedExpr", Arrays.asList(
+                "Assign: Token name, SealedExpr value, int depth, int slot, boolean verified",
+                "Binary: SealedExpr left, Token operator, SealedExpr right, boolean verified",
+                "Call: SealedExpr callee, Token paren, List<SealedExpr> arguments, boolean verified, SealedExpr inlined, int[] argumentSlots",
+                "Grouping: SealedExpr expression",
+                "Literal: Object value",
+                "Logical: SealedExpr left, Token operator, SealedExpr right",
+                "Unary: Token operator, SealedExpr right, boolean verified",
+                "Variable: Token name, int depth, int slot"));
+        defineRecords(outputDir, "SealedStmt", Arrays.asList(
+                "Block: List<SealedStmt> statements, int locals",
+                "Expression: SealedExpr expression",
+                "Function: Stmt.Function declaration",
+                "If: SealedExpr condition, List<SealedStmt> thenBranch, List<SealedExpr> elseIfConditions, List<List<SealedStmt>> elseIfBranches, List<SealedStmt> elseBranch",
+                "Print: SealedExpr expression",
+                "Return: Token keyword, SealedExpr value",
+                "Scan: List<Token> identifiers, int[] depths, int[] slots",
+                "While: SealedExpr condition, List<SealedStmt> body, List<SealedExpr> hoisted, int[] hoistedSlots",
+                "Declaration: Token name, TokenType type, SealedExpr initializer, boolean mutable, int slot, boolean verified"));
+    }
+
+    private static void defineRecords(String outputDir, String baseName, List<String> types) throws IOException {
+        String path = outputDir + "/" + baseName + ".java";
+
+        PrintWriter writer = new PrintWriter(path, "UTF-8");
+        writer.println("package code;");
+        writer.println();
+        writer.println("import java.util.List;");
+        writer.println();
+        writer.println("sealed interface " + baseName + " {");
+        for (int i = 0; i < types.size(); i++) {
+            String className = types.get(i).split(":")[0].trim();
+            String fields = types.get(i).split(":")[1].trim();
+            if (i > 0) {
+                writer.println();
+            }
+            writer.println("    record " + className + "(" + fields + ") implements " + baseName + " {");
+            writer.println("    }");
+        }
+        writer.println("}");
+        writer.close();
     }
 
-    private static void defineAst(String outputDir, String baseName, List<String> types) throws IOException {
+    // annotations are the lines, each after the name of its class, that
+    // declare what later passes set on a node, written after its fields.
+    private static void defineAst(String outputDir, String baseName, List<String> types, List<String> annotations)
+            throws IOException {
         String path = outputDir + "/" + baseName + ".java";
 
         PrintWriter writer = new PrintWriter(path, "UTF-8");
@@ -51,7 +170,7 @@ public class GenerateAst {
 
             String className = type.split(":")[0].trim();
             String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            defineType(writer, baseName, className, fields, annotations);
         }
         writer.println();
         writer.println("abstract <R> R accept(Visitor<R> visitor);");
@@ -62,7 +181,7 @@ public class GenerateAst {
 
     private static void defineType(
             PrintWriter writer, String baseName,
-            String className, String fieldList) {
+            String className, String fieldList, List<String> annotations) {
         writer.println("static class " + className + " extends " +
                 baseName + " {");
         // Constructor.
@@ -85,6 +204,12 @@ public class GenerateAst {
         for (String field : fields) {
             writer.println("final " + field + ";");
         }
+        for (String annotation : annotations) {
+            int colon = annotation.indexOf(':');
+            if (annotation.substring(0, colon).trim().equals(className)) {
+                writer.println(annotation.substring(colon + 1).trim());
+            }
+        }
         writer.println("}");
     }
 